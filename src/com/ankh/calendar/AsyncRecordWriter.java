@@ -0,0 +1,258 @@
+package com.ankh.calendar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Message;
+
+import com.ankh.calendar.infor.DailyStatus;
+import com.ankh.calendar.infor.DailyStatusManager;
+import com.ankh.calendar.therapy.Therapy;
+import com.ankh.calendar.therapy.TherapyManager;
+
+/**
+ * Saves daily statuses and therapies on a single background thread, the same
+ * way as {@link AsyncQueryService} runs queries.
+ *
+ * The writer thread waits a moment after the first save of a burst, then
+ * changes all queued records in memory and saves every changed store once,
+ * so rapid consecutive edits cost one write. The result of every save is
+ * passed to {@link #onSaveComplete(int, Object, boolean)} on the thread which
+ * created the writer, once it's on the disk.
+ *
+ * A record which is changed but can't be written stays changed in memory,
+ * and is passed to {@link #onSaveDelayed(int, Object)} instead. The writer
+ * tries the store again on its own, waiting longer after every failure, so
+ * the change gets to the disk without waiting for the next edit.
+ */
+public class AsyncRecordWriter extends Handler {
+	private static final String TAG = "AsyncRecordWriter";
+
+	// How long the writer waits for more saves before it writes.
+	private static final long COALESCE_DELAY = 100;
+
+	// How long the writer waits before it tries a failed write again, the
+	// wait is doubled after every failure up to the maximum.
+	private static final long RETRY_DELAY = 1000;
+	private static final long MAX_RETRY_DELAY = 60000;
+
+	private static final List<WriteInfo> sWorkQueue = new ArrayList<WriteInfo>();
+	private static WriterThread sWriterThread = null;
+
+	private final Context mContext;
+
+	private static class WriteInfo {
+		public int token;
+		public Object cookie;
+		public Handler handler;
+		public DailyStatus dailyStatus;
+		public DailyStatus originalDailyStatus;
+		public Therapy therapy;
+		public Therapy originalTherapy;
+		public int modification;
+		public boolean result;
+		// The record is changed in memory but not written yet.
+		public boolean delayed;
+	}
+
+	public AsyncRecordWriter(Context context) {
+		mContext = context.getApplicationContext();
+	}
+
+	/**
+	 * Saves the daily status in the background. The original is null for a
+	 * new one.
+	 *
+	 * @param token A token passed into {@link #onSaveComplete} to identify
+	 *            the save
+	 * @param cookie An object that gets passed into {@link #onSaveComplete}
+	 */
+	public void startSaveDailyStatus(int token, Object cookie,
+			DailyStatus dailyStatus, DailyStatus originalDailyStatus,
+			int modification) {
+		WriteInfo info = new WriteInfo();
+		info.token = token;
+		info.cookie = cookie;
+		info.handler = this;
+		// The caller can go on changing its own records.
+		info.dailyStatus = dailyStatus.copy();
+		info.originalDailyStatus = (originalDailyStatus == null) ? null
+				: originalDailyStatus.copy();
+		info.modification = modification;
+
+		queueWrite(mContext, info);
+	}
+
+	/**
+	 * Saves the therapy in the background. The original is null for a new
+	 * one.
+	 *
+	 * @param token A token passed into {@link #onSaveComplete} to identify
+	 *            the save
+	 * @param cookie An object that gets passed into {@link #onSaveComplete}
+	 */
+	public void startSaveTherapy(int token, Object cookie, Therapy therapy,
+			Therapy originalTherapy, int modification) {
+		WriteInfo info = new WriteInfo();
+		info.token = token;
+		info.cookie = cookie;
+		info.handler = this;
+		// The caller can go on changing its own records.
+		info.therapy = therapy.copy();
+		info.originalTherapy = (originalTherapy == null) ? null
+				: originalTherapy.copy();
+		info.modification = modification;
+
+		queueWrite(mContext, info);
+	}
+
+	/**
+	 * Called when a save is completed.
+	 *
+	 * @param token The token passed into the start method
+	 * @param cookie The cookie passed into the start method
+	 * @param result true if the record is changed and written
+	 */
+	protected void onSaveComplete(int token, Object cookie, boolean result) {
+	}
+
+	/**
+	 * Called when the record is changed but couldn't be written yet. The
+	 * change is kept and the writer tries to write it again.
+	 *
+	 * @param token The token passed into the start method
+	 * @param cookie The cookie passed into the start method
+	 */
+	protected void onSaveDelayed(int token, Object cookie) {
+	}
+
+	@Override
+	public void handleMessage(Message msg) {
+		WriteInfo info = (WriteInfo) msg.obj;
+		if (info.delayed) {
+			onSaveDelayed(msg.what, info.cookie);
+		} else {
+			onSaveComplete(msg.what, info.cookie, info.result);
+		}
+	}
+
+	private static void queueWrite(Context context, WriteInfo info) {
+		synchronized (sWorkQueue) {
+			sWorkQueue.add(info);
+			sWorkQueue.notify();
+
+			if (sWriterThread == null) {
+				sWriterThread = new WriterThread(context);
+				sWriterThread.start();
+			}
+		}
+	}
+
+	private static class WriterThread extends Thread {
+		private final Context mContext;
+
+		// The stores whose changes couldn't be written, and how long to wait
+		// before they are tried again, or 0.
+		private boolean mRetryDailyStatus = false;
+		private boolean mRetryTherapy = false;
+		private long mRetryDelay = 0;
+
+		public WriterThread(Context context) {
+			super(TAG);
+			mContext = context;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				boolean isQueued;
+				synchronized (sWorkQueue) {
+					if (sWorkQueue.isEmpty()) {
+						// Wakes up for a failed write even if nothing is
+						// saved, a delay of 0 waits for a save only.
+						try {
+							sWorkQueue.wait(mRetryDelay);
+						} catch (InterruptedException e) {
+						}
+					}
+					isQueued = !sWorkQueue.isEmpty();
+				}
+
+				if (!isQueued) {
+					if (mRetryDelay != 0) {
+						write(new ArrayList<WriteInfo>());
+					}
+					continue;
+				}
+
+				// Let the rest of a burst of edits join this write.
+				try {
+					Thread.sleep(COALESCE_DELAY);
+				} catch (InterruptedException e) {
+				}
+
+				List<WriteInfo> batch;
+				synchronized (sWorkQueue) {
+					batch = new ArrayList<WriteInfo>(sWorkQueue);
+					sWorkQueue.clear();
+				}
+
+				write(batch);
+			}
+		}
+
+		private void write(List<WriteInfo> batch) {
+			boolean isDailyStatusChanged = false;
+			boolean isTherapyChanged = false;
+
+			for (WriteInfo info : batch) {
+				if (info.dailyStatus != null) {
+					info.result = CalendarDatabase.applyDailyStatus(mContext,
+							info.dailyStatus, info.originalDailyStatus,
+							info.modification);
+					isDailyStatusChanged |= info.result;
+				} else if (info.therapy != null) {
+					info.result = CalendarDatabase.applyTherapy(mContext,
+							info.therapy, info.originalTherapy,
+							info.modification);
+					isTherapyChanged |= info.result;
+				}
+			}
+
+			// The changes of a failed write are still pending in the store,
+			// so they're written with the new ones.
+			boolean isDailyStatusSaved = !(isDailyStatusChanged || mRetryDailyStatus)
+					|| DailyStatusManager.getInstance(mContext).save();
+			boolean isTherapySaved = !(isTherapyChanged || mRetryTherapy)
+					|| TherapyManager.getInstance(mContext).save();
+
+			mRetryDailyStatus = !isDailyStatusSaved;
+			mRetryTherapy = !isTherapySaved;
+			if (mRetryDailyStatus || mRetryTherapy) {
+				mRetryDelay = (mRetryDelay == 0) ? RETRY_DELAY
+						: Math.min(mRetryDelay * 2, MAX_RETRY_DELAY);
+				Log.w(TAG, "Write failed, try again in " + mRetryDelay + " ms.");
+			} else {
+				mRetryDelay = 0;
+			}
+
+			Log.i(TAG, "Write " + batch.size() + " saves.");
+
+			for (WriteInfo info : batch) {
+				if (info.dailyStatus != null) {
+					info.delayed = info.result && !isDailyStatusSaved;
+					info.result &= isDailyStatusSaved;
+				} else if (info.therapy != null) {
+					info.delayed = info.result && !isTherapySaved;
+					info.result &= isTherapySaved;
+				}
+
+				Message reply = info.handler.obtainMessage(info.token);
+				reply.obj = info;
+				reply.sendToTarget();
+			}
+		}
+	}
+}
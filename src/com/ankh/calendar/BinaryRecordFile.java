@@ -0,0 +1,360 @@
+package com.ankh.calendar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A compact binary snapshot of the records of a {@link RecordStore}.
+ *
+ * The layout is:
+ * <pre>
+ * header    magic, version, codec type, row size, record count and the
+ *           offsets of the sections below, {@link #HEADER_SIZE} bytes
+ * rows      one fixed-width row per record, sorted by day; every row
+ *           starts with the day as a long
+ * strings   an offset table, then the UTF-8 bytes of every distinct string
+ *           prefixed by their length; rows refer to strings by index
+ * extras    variable-length data which rows refer to by offset
+ * </pre>
+ * All numbers are big endian. Because rows are fixed-width, a record can be
+ * decoded on its own without reading the records before it, so the file can
+ * be memory mapped and only the rows which are read are decoded.
+ */
+public class BinaryRecordFile<T> {
+
+	private static final int MAGIC = 0x414e4b52; // "ANKR"
+	private static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 32;
+	public static final int NO_STRING = -1;
+
+	/**
+	 * Encodes and decodes the fixed-width rows of a type of records.
+	 */
+	public interface Codec<T> {
+		/** Returns the identifier of the record type in the header. */
+		public int getType();
+
+		/** Returns the size of a row, which includes the leading day. */
+		public int getRowSize();
+
+		/**
+		 * Writes the row of the record at the current position of the
+		 * buffer, starting with its day.
+		 */
+		public void encode(T record, ByteBuffer row, Encoder encoder)
+				throws IOException;
+
+		/**
+		 * Decodes the row at the offset of the buffer.
+		 */
+		public T decode(ByteBuffer buffer, int offset, BinaryRecordFile<T> file);
+	}
+
+	/**
+	 * Collects the strings and the extra data while the rows are encoded.
+	 */
+	public static class Encoder {
+		private final HashMap<String, Integer> mStringIndexes = new HashMap<String, Integer>();
+		private final List<String> mStrings = new ArrayList<String>();
+		private final ByteArrayOutputStream mExtraBytes = new ByteArrayOutputStream();
+		private final DataOutputStream mExtras = new DataOutputStream(mExtraBytes);
+
+		/**
+		 * Returns the index of the string in the string table, or
+		 * {@link BinaryRecordFile#NO_STRING} for null.
+		 */
+		public int putString(String str) {
+			if (str == null) {
+				return NO_STRING;
+			}
+
+			Integer index = mStringIndexes.get(str);
+			if (index == null) {
+				index = mStrings.size();
+				mStrings.add(str);
+				mStringIndexes.put(str, index);
+			}
+			return index;
+		}
+
+		/** Returns the offset in the extras where the next write goes. */
+		public int getExtraOffset() {
+			return mExtras.size();
+		}
+
+		public DataOutputStream getExtras() {
+			return mExtras;
+		}
+	}
+
+	private final ByteBuffer mBuffer;
+	private final Codec<T> mCodec;
+	private final int mRowSize;
+	private final int mCount;
+	private final int mRowsOffset;
+	private final int mStringCount;
+	private final int mStringIndexOffset;
+	private final int mExtrasOffset;
+
+	private BinaryRecordFile(ByteBuffer buffer, Codec<T> codec) throws IOException {
+		mBuffer = buffer;
+		mCodec = codec;
+
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a record file");
+		}
+		if (buffer.getShort(4) != VERSION) {
+			throw new IOException("Unsupported version " + buffer.getShort(4));
+		}
+		if (buffer.getShort(6) != codec.getType()) {
+			throw new IOException("Unexpected record type " + buffer.getShort(6));
+		}
+
+		mRowSize = buffer.getInt(8);
+		mCount = buffer.getInt(12);
+		mRowsOffset = buffer.getInt(16);
+		mStringCount = buffer.getInt(20);
+		mStringIndexOffset = buffer.getInt(24);
+		mExtrasOffset = buffer.getInt(28);
+
+		if (mRowSize != codec.getRowSize()
+				|| mRowsOffset + (long) mCount * mRowSize > buffer.limit()
+				|| mStringIndexOffset + (long) mStringCount * 4 > buffer.limit()
+				|| mExtrasOffset > buffer.limit()) {
+			throw new IOException("Broken record file");
+		}
+	}
+
+	/**
+	 * Wraps the bytes of a record file.
+	 */
+	public static <T> BinaryRecordFile<T> wrap(ByteBuffer buffer, Codec<T> codec)
+			throws IOException {
+		return new BinaryRecordFile<T>(buffer, codec);
+	}
+
+	/**
+	 * Reads the whole file into memory.
+	 */
+	public static <T> BinaryRecordFile<T> read(File file, Codec<T> codec)
+			throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			buffer.flip();
+			return new BinaryRecordFile<T>(buffer, codec);
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Maps the file into memory read-only. The pages are loaded by the OS
+	 * when they are touched, and are shared with other processes which map
+	 * the same file. The mapping stays valid after the file is replaced.
+	 */
+	public static <T> BinaryRecordFile<T> map(File file, Codec<T> codec)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			return new BinaryRecordFile<T>(buffer, codec);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes the records, which must be sorted by day, to the file through a
+	 * temporary file which is renamed over it.
+	 */
+	public static <T> void write(File file, List<T> records, Codec<T> codec)
+			throws IOException {
+		Encoder encoder = new Encoder();
+
+		int rowSize = codec.getRowSize();
+		ByteBuffer rows = ByteBuffer.allocate(rowSize * records.size());
+		for (T record : records) {
+			int start = rows.position();
+			codec.encode(record, rows, encoder);
+			rows.position(start + rowSize);
+		}
+		encoder.mExtras.flush();
+
+		ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+		DataOutputStream strings = new DataOutputStream(stringBytes);
+		int stringCount = encoder.mStrings.size();
+		int stringIndexOffset = HEADER_SIZE + rows.capacity();
+		int stringDataOffset = stringIndexOffset + stringCount * 4;
+		int stringOffsets[] = new int[stringCount];
+		for (int i = 0; i < stringCount; i++) {
+			byte bytes[] = encoder.mStrings.get(i).getBytes("UTF-8");
+			stringOffsets[i] = stringDataOffset + strings.size();
+			strings.writeInt(bytes.length);
+			strings.write(bytes);
+		}
+		strings.flush();
+
+		int extrasOffset = stringDataOffset + strings.size();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + stringCount * 4);
+		header.putInt(MAGIC);
+		header.putShort((short) VERSION);
+		header.putShort((short) codec.getType());
+		header.putInt(rowSize);
+		header.putInt(records.size());
+		header.putInt(HEADER_SIZE);
+		header.putInt(stringCount);
+		header.putInt(stringIndexOffset);
+		header.putInt(extrasOffset);
+		for (int offset : stringOffsets) {
+			header.putInt(offset);
+		}
+
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(temp);
+		try {
+			// The header is followed by the rows, then the string offsets.
+			fos.write(header.array(), 0, HEADER_SIZE);
+			fos.write(rows.array());
+			fos.write(header.array(), HEADER_SIZE, stringCount * 4);
+			stringBytes.writeTo(fos);
+			encoder.mExtraBytes.writeTo(fos);
+			fos.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Failed to rename " + temp + " to " + file);
+		}
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	/**
+	 * Returns the day of the record at the position without decoding it.
+	 */
+	public long getDay(int position) {
+		return mBuffer.getLong(mRowsOffset + position * mRowSize);
+	}
+
+	/**
+	 * Decodes the record at the position.
+	 */
+	public T get(int position) {
+		if (position < 0 || position >= mCount) {
+			throw new IndexOutOfBoundsException("Position " + position
+					+ " of " + mCount);
+		}
+		return mCodec.decode(mBuffer, mRowsOffset + position * mRowSize, this);
+	}
+
+	/**
+	 * Returns the first position whose record takes place on or after the
+	 * Julian day, found by a binary search over the day column. The day is
+	 * converted to its start once, so the rows are compared as they are.
+	 */
+	private int lowerBound(int julianDay) {
+		long startMillis = JulianDayIndex.getStartMillis(julianDay);
+		int low = 0;
+		int high = mCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getDay(mid) < startMillis) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns a read-only list of the records from the Julian day startDay to
+	 * endDay inclusive. A record is decoded when it's got from the list.
+	 */
+	public List<T> query(int startDay, int endDay) {
+		final int from = lowerBound(startDay);
+		final int to = (endDay == Integer.MAX_VALUE) ? mCount : Math.max(from,
+				lowerBound(endDay + 1));
+
+		return new AbstractList<T>() {
+			@Override
+			public T get(int location) {
+				if (location < 0 || location >= to - from) {
+					throw new IndexOutOfBoundsException();
+				}
+				return BinaryRecordFile.this.get(from + location);
+			}
+
+			@Override
+			public int size() {
+				return to - from;
+			}
+		};
+	}
+
+	/**
+	 * Decodes all records in order.
+	 */
+	public List<T> getAll() {
+		List<T> records = new ArrayList<T>(mCount);
+		for (int i = 0; i < mCount; i++) {
+			records.add(get(i));
+		}
+		return records;
+	}
+
+	/**
+	 * Returns the string of the index in the string table, or null for
+	 * {@link #NO_STRING}.
+	 */
+	public String getString(int index) {
+		if (index < 0 || index >= mStringCount) {
+			return null;
+		}
+
+		int offset = mBuffer.getInt(mStringIndexOffset + index * 4);
+		int length = mBuffer.getInt(offset);
+		byte bytes[] = new byte[length];
+		ByteBuffer data = mBuffer.duplicate();
+		data.position(offset + 4);
+		data.get(bytes);
+
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the absolute offset of the offset in the extras.
+	 */
+	public int getExtraOffset(int offset) {
+		return mExtrasOffset + offset;
+	}
+}
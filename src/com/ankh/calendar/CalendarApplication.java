@@ -17,6 +17,9 @@
 package com.ankh.calendar;
 
 import android.app.Application;
+import android.content.res.Configuration;
+
+import com.ankh.calendar.alerts.TherapyReminderScheduler;
 
 public class CalendarApplication extends Application {
     @Override
@@ -36,5 +39,17 @@ public class CalendarApplication extends Application {
 
         // Initialize the registry mapping some custom behavior.
         ExtensionsFactory.init(getAssets());
+
+        // Follow the changes of the therapies, to keep the alarm of the
+        // next dose up to date.
+        TherapyReminderScheduler.getInstance(this);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+
+        // The color resources may be different in the new configuration.
+        Utils.clearColorCache();
     }
 }
@@ -359,7 +359,7 @@ public class CalendarDatabase {
 			int startDay, int endDay, String selection, String[] selectionArgs,
 			String orderBy) {
 
-		return new DailyStatusCursor(ctx);
+		return new DailyStatusCursor(ctx, startDay, endDay);
 	}
 
 	private static boolean isEventUri(Uri uri) {
@@ -417,9 +417,15 @@ public class CalendarDatabase {
 		}
 
 		public Loader init(OnLoaderListener listener) {
+			// -1 and +1 to ensure we get all day events from any time zone,
+			// the same as the range of the uri.
+			int startDay = mFirstLoadedJulianDay - 1;
+			int endDay = mFirstLoadedJulianDay + (mNumWeeks + 2 * WEEKS_BUFFER)
+					* 7 + 1;
+
 			listener.onLoadFinished(updateUri(),
-					new DailyStatusCursor(mContext),
-					new TherapyCursor(mContext));
+					new DailyStatusCursor(mContext, startDay, endDay),
+					new TherapyCursor(mContext, startDay, endDay));
 			return this;
 		}
 
@@ -479,23 +485,29 @@ public class CalendarDatabase {
 		}
 	}
 
+	/**
+	 * Saves the daily status on the calling thread. Use
+	 * {@link AsyncRecordWriter} on the UI thread.
+	 */
 	public static boolean saveDailyStatus(Context context, DailyStatus dailyStatus,
 			DailyStatus originalDailyStatus, int modification) {
-		DailyStatusManager manager = new DailyStatusManager();
-		
-		manager.setPathname(context.getResources().getString(
-				R.string.infor_filename));
-		manager.load();
-		
+		return applyDailyStatus(context, dailyStatus, originalDailyStatus,
+				modification) && DailyStatusManager.getInstance(context).save();
+	}
+
+	/**
+	 * Changes the daily status in memory only, it's written by the next
+	 * {@link RecordStore#save()}.
+	 */
+	static boolean applyDailyStatus(Context context, DailyStatus dailyStatus,
+			DailyStatus originalDailyStatus, int modification) {
+		DailyStatusManager manager = DailyStatusManager.getInstance(context);
+
 		if (originalDailyStatus != null) {
 			return manager.modify(originalDailyStatus, dailyStatus);
+		} else {
+			return manager.add(dailyStatus);
 		}
-		
-		boolean isOkay = manager.add(dailyStatus);
-		if (isOkay) {
-			manager.save();
-		}
-		return isOkay;
 	}
 
 	// ------------------------------------------------------------------------------
@@ -505,25 +517,31 @@ public class CalendarDatabase {
 			int startDay, int endDay, String selection, String[] selectionArgs,
 			String orderBy) {
 
-		return new TherapyCursor(ctx);
+		return new TherapyCursor(ctx, startDay, endDay);
 	}
 
+	/**
+	 * Saves the therapy on the calling thread. Use {@link AsyncRecordWriter}
+	 * on the UI thread.
+	 */
 	public static boolean saveTherapy(Context context, Therapy therapy,
 			Therapy originalTherapy, int modification) {
-		TherapyManager manager = new TherapyManager();
-		
-		manager.setPathname(context.getResources().getString(
-				R.string.therapy_filename));
-		manager.load();
-		
+		return applyTherapy(context, therapy, originalTherapy, modification)
+				&& TherapyManager.getInstance(context).save();
+	}
+
+	/**
+	 * Changes the therapy in memory only, it's written by the next
+	 * {@link RecordStore#save()}.
+	 */
+	static boolean applyTherapy(Context context, Therapy therapy,
+			Therapy originalTherapy, int modification) {
+		TherapyManager manager = TherapyManager.getInstance(context);
+
 		if (originalTherapy != null) {
 			return manager.modify(originalTherapy, therapy);
+		} else {
+			return manager.add(therapy);
 		}
-		
-		boolean isOkay = manager.add(therapy);
-		if (isOkay) {
-			manager.save();
-		}
-		return isOkay;
 	}
 }
@@ -557,6 +557,9 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     private boolean mIs24HourFormat;
 
     private final ArrayList<Event> mSelectedEvents = new ArrayList<Event>();
+    // Reused every frame to find the neighbors of the selected events
+    private final EventSpatialIndex mNeighborIndex = new EventSpatialIndex();
+    private Event[] mAllDayColumnEvents = new Event[0];
     private boolean mComputeSelectedEvents;
     private boolean mUpdateToast;
     private Event mSelectedEvent;
@@ -2031,6 +2034,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
 
             public void run() {
                 boolean fadeinEvents = mFirstJulianDay != mLoadedFirstJulianDay;
+                recycleEvents(mEvents);
                 mEvents = events;
                 mLoadedFirstJulianDay = mFirstJulianDay;
                 if (mAllDayEvents == null) {
@@ -2080,6 +2084,26 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         }, mCancelCallback);
     }
 
+    /**
+     * Gives the events of the previous load back to the loader to be
+     * refilled, except the ones the selection or a pending click still
+     * refers to.
+     */
+    private void recycleEvents(ArrayList<Event> events) {
+        if (events == null || events.isEmpty()) {
+            return;
+        }
+        mSelectedEvents.clear();
+        events.remove(mSelectedEvent);
+        events.remove(mPrevSelectedEvent);
+        events.remove(mClickedEvent);
+        events.remove(mSavedClickedEvent);
+        events.remove(mSelectedEventForAccessibility);
+        events.remove(mLastSelectedEventForAccessibility);
+        mEventLoader.recycleEvents(events);
+        events.clear();
+    }
+
     public void setEventsAlpha(int alpha) {
         mEventsAlpha = alpha;
         invalidate();
@@ -2814,18 +2838,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         // the width hasn't changed (due to vertical resizing which causes
         // re-layout of events at min height)
         if (layout == null || r.width() != layout.getWidth()) {
-            SpannableStringBuilder bob = new SpannableStringBuilder();
-            if (event.title != null) {
-                // MAX - 1 since we add a space
-                bob.append(drawTextSanitizer(event.title.toString(), MAX_EVENT_TEXT_LEN - 1));
-                bob.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), 0, bob.length(), 0);
-                bob.append(' ');
-            }
-            if (event.location != null) {
-                bob.append(drawTextSanitizer(event.location.toString(),
-                        MAX_EVENT_TEXT_LEN - bob.length()));
-            }
-
             switch (event.selfAttendeeStatus) {
                 case Attendees.ATTENDEE_STATUS_INVITED:
                     paint.setColor(event.color);
@@ -2842,9 +2854,28 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
                     break;
             }
 
-            // Leave a one pixel boundary on the left and right of the rectangle for the event
-            layout = new StaticLayout(bob, 0, bob.length(), new TextPaint(paint), r.width(),
-                    Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, null, r.width());
+            // The other DayView or an earlier load may have laid it out already
+            EventTextLayoutCache.Key key = new EventTextLayoutCache.Key(event, r.width(),
+                    paint.getColor(), paint.getTextSize());
+            layout = EventTextLayoutCache.get(key);
+            if (layout == null) {
+                SpannableStringBuilder bob = new SpannableStringBuilder();
+                if (event.title != null) {
+                    // MAX - 1 since we add a space
+                    bob.append(drawTextSanitizer(event.title.toString(), MAX_EVENT_TEXT_LEN - 1));
+                    bob.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), 0, bob.length(), 0);
+                    bob.append(' ');
+                }
+                if (event.location != null) {
+                    bob.append(drawTextSanitizer(event.location.toString(),
+                            MAX_EVENT_TEXT_LEN - bob.length()));
+                }
+
+                // Leave a one pixel boundary on the left and right of the rectangle for the event
+                layout = new StaticLayout(bob, 0, bob.length(), new TextPaint(paint), r.width(),
+                        Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, null, r.width());
+                EventTextLayoutCache.put(key, layout);
+            }
 
             layouts[i] = layout;
         }
@@ -3046,9 +3077,9 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         }
 
         // For each event in the selected event list "mSelectedEvents", find
-        // its neighbors in the up and down directions. This could be done
-        // more efficiently by sorting on the Event.getColumn() field, but
-        // the list is expected to be very small.
+        // its neighbors in the up and down directions. The neighbors are
+        // looked up by Event.getColumn(), in a table of the last event of
+        // every column.
 
         // Find the event in the same row as the previously selected all-day
         // event, if any.
@@ -3059,6 +3090,19 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         int maxPosition = -1;
         Event startEvent = null;
         Event maxPositionEvent = null;
+        int columns = 0;
+        for (int ii = 0; ii < len; ii++) {
+            columns = Math.max(columns, mSelectedEvents.get(ii).getColumn() + 1);
+        }
+        if (mAllDayColumnEvents.length < columns) {
+            mAllDayColumnEvents = new Event[columns];
+        }
+        Event[] columnEvents = mAllDayColumnEvents;
+        Arrays.fill(columnEvents, null);
+        for (int ii = 0; ii < len; ii++) {
+            Event ev = mSelectedEvents.get(ii);
+            columnEvents[ev.getColumn()] = ev;
+        }
         for (int ii = 0; ii < len; ii++) {
             Event ev = mSelectedEvents.get(ii);
             int position = ev.getColumn();
@@ -3068,17 +3112,11 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
                 maxPositionEvent = ev;
                 maxPosition = position;
             }
-            for (int jj = 0; jj < len; jj++) {
-                if (jj == ii) {
-                    continue;
-                }
-                Event neighbor = mSelectedEvents.get(jj);
-                int neighborPosition = neighbor.getColumn();
-                if (neighborPosition == position - 1) {
-                    ev.nextUp = neighbor;
-                } else if (neighborPosition == position + 1) {
-                    ev.nextDown = neighbor;
-                }
+            if (position > 0) {
+                ev.nextUp = columnEvents[position - 1];
+            }
+            if (position + 1 < columns) {
+                ev.nextDown = columnEvents[position + 1];
             }
         }
         if (startEvent != null) {
@@ -3228,14 +3266,14 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             prevCenter = (prevLeft + prevRight) / 2;
         }
 
-        // For each event in the selected event list "mSelectedEvents", search
-        // all the other events in that list for the nearest neighbor in 4
-        // directions.
+        // For each event in the selected event list "mSelectedEvents", look
+        // up the nearest neighbor in 4 directions in an index of the events
+        // rather than comparing it with all the others.
+        EventSpatialIndex index = mNeighborIndex;
+        index.build(mSelectedEvents);
         for (int ii = 0; ii < len; ii++) {
             Event ev = mSelectedEvents.get(ii);
 
-            int startTime = ev.startTime;
-            int endTime = ev.endTime;
             int left = (int) ev.left;
             int right = (int) ev.right;
             int top = (int) ev.top;
@@ -3257,15 +3295,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
 //                Log.i("Cal", "left: " + left + " right: " + right + " top: " + top + " bottom: "
 //                        + bottom + " ev: " + timeRange + " " + ev.title);
 //            }
-            int upDistanceMin = 10000; // any large number
-            int downDistanceMin = 10000; // any large number
-            int leftDistanceMin = 10000; // any large number
-            int rightDistanceMin = 10000; // any large number
-            Event upEvent = null;
-            Event downEvent = null;
-            Event leftEvent = null;
-            Event rightEvent = null;
-
             // Pick the starting event closest to the previously selected event,
             // if any. distance1 takes precedence over distance2.
             int distance1 = 0;
@@ -3306,133 +3335,12 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
                 startEventDistance2 = distance2;
             }
 
-            // For each neighbor, figure out if it is above or below or left
-            // or right of me and compute the distance.
-            for (int jj = 0; jj < len; jj++) {
-                if (jj == ii) {
-                    continue;
-                }
-                Event neighbor = mSelectedEvents.get(jj);
-                int neighborLeft = (int) neighbor.left;
-                int neighborRight = (int) neighbor.right;
-                if (neighbor.endTime <= startTime) {
-                    // This neighbor is entirely above me.
-                    // If we overlap the same column, then compute the distance.
-                    if (neighborLeft < right && neighborRight > left) {
-                        int distance = startTime - neighbor.endTime;
-                        if (distance < upDistanceMin) {
-                            upDistanceMin = distance;
-                            upEvent = neighbor;
-                        } else if (distance == upDistanceMin) {
-                            int center = (left + right) / 2;
-                            int currentDistance = 0;
-                            int currentLeft = (int) upEvent.left;
-                            int currentRight = (int) upEvent.right;
-                            if (currentRight <= center) {
-                                currentDistance = center - currentRight;
-                            } else if (currentLeft >= center) {
-                                currentDistance = currentLeft - center;
-                            }
-
-                            int neighborDistance = 0;
-                            if (neighborRight <= center) {
-                                neighborDistance = center - neighborRight;
-                            } else if (neighborLeft >= center) {
-                                neighborDistance = neighborLeft - center;
-                            }
-                            if (neighborDistance < currentDistance) {
-                                upDistanceMin = distance;
-                                upEvent = neighbor;
-                            }
-                        }
-                    }
-                } else if (neighbor.startTime >= endTime) {
-                    // This neighbor is entirely below me.
-                    // If we overlap the same column, then compute the distance.
-                    if (neighborLeft < right && neighborRight > left) {
-                        int distance = neighbor.startTime - endTime;
-                        if (distance < downDistanceMin) {
-                            downDistanceMin = distance;
-                            downEvent = neighbor;
-                        } else if (distance == downDistanceMin) {
-                            int center = (left + right) / 2;
-                            int currentDistance = 0;
-                            int currentLeft = (int) downEvent.left;
-                            int currentRight = (int) downEvent.right;
-                            if (currentRight <= center) {
-                                currentDistance = center - currentRight;
-                            } else if (currentLeft >= center) {
-                                currentDistance = currentLeft - center;
-                            }
-
-                            int neighborDistance = 0;
-                            if (neighborRight <= center) {
-                                neighborDistance = center - neighborRight;
-                            } else if (neighborLeft >= center) {
-                                neighborDistance = neighborLeft - center;
-                            }
-                            if (neighborDistance < currentDistance) {
-                                downDistanceMin = distance;
-                                downEvent = neighbor;
-                            }
-                        }
-                    }
-                }
-
-                if (neighborLeft >= right) {
-                    // This neighbor is entirely to the right of me.
-                    // Take the closest neighbor in the y direction.
-                    int center = (top + bottom) / 2;
-                    int distance = 0;
-                    int neighborBottom = (int) neighbor.bottom;
-                    int neighborTop = (int) neighbor.top;
-                    if (neighborBottom <= center) {
-                        distance = center - neighborBottom;
-                    } else if (neighborTop >= center) {
-                        distance = neighborTop - center;
-                    }
-                    if (distance < rightDistanceMin) {
-                        rightDistanceMin = distance;
-                        rightEvent = neighbor;
-                    } else if (distance == rightDistanceMin) {
-                        // Pick the closest in the x direction
-                        int neighborDistance = neighborLeft - right;
-                        int currentDistance = (int) rightEvent.left - right;
-                        if (neighborDistance < currentDistance) {
-                            rightDistanceMin = distance;
-                            rightEvent = neighbor;
-                        }
-                    }
-                } else if (neighborRight <= left) {
-                    // This neighbor is entirely to the left of me.
-                    // Take the closest neighbor in the y direction.
-                    int center = (top + bottom) / 2;
-                    int distance = 0;
-                    int neighborBottom = (int) neighbor.bottom;
-                    int neighborTop = (int) neighbor.top;
-                    if (neighborBottom <= center) {
-                        distance = center - neighborBottom;
-                    } else if (neighborTop >= center) {
-                        distance = neighborTop - center;
-                    }
-                    if (distance < leftDistanceMin) {
-                        leftDistanceMin = distance;
-                        leftEvent = neighbor;
-                    } else if (distance == leftDistanceMin) {
-                        // Pick the closest in the x direction
-                        int neighborDistance = left - neighborRight;
-                        int currentDistance = left - (int) leftEvent.right;
-                        if (neighborDistance < currentDistance) {
-                            leftDistanceMin = distance;
-                            leftEvent = neighbor;
-                        }
-                    }
-                }
-            }
-            ev.nextUp = upEvent;
-            ev.nextDown = downEvent;
-            ev.nextLeft = leftEvent;
-            ev.nextRight = rightEvent;
+            // Find the nearest neighbor above, below, to the left and to the
+            // right of me in the index.
+            ev.nextUp = index.findUp(ev);
+            ev.nextDown = index.findDown(ev);
+            ev.nextLeft = index.findLeft(ev, top, bottom);
+            ev.nextRight = index.findRight(ev, top, bottom);
         }
         setSelectedEvent(startEvent);
     }
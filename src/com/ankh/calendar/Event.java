@@ -30,19 +30,18 @@ import android.provider.CalendarContract.Events;
 import android.provider.CalendarContract.Instances;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
-import android.text.format.Time;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
-import java.util.Iterator;
-import java.util.TimeZone;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ankh.calendar.R;
 import com.ankh.calendar.infor.DailyStatus;
+import com.ankh.calendar.infor.DailyStatusCursor;
 import com.ankh.calendar.therapy.Therapy;
+import com.ankh.calendar.therapy.TherapyCursor;
 
 // TODO: should Event be Parcelable so it can be passed via Intents?
 public class Event implements Cloneable {
@@ -214,26 +213,46 @@ public class Event implements Cloneable {
 
     public static final Event newInstance() {
         Event e = new Event();
-
-        e.id = 0;
-        e.title = null;
-        e.color = 0;
-        e.location = null;
-        e.allDay = false;
-        e.startDay = 0;
-        e.endDay = 0;
-        e.startTime = 0;
-        e.endTime = 0;
-        e.startMillis = 0;
-        e.endMillis = 0;
-        e.hasAlarm = false;
-        e.isRepeating = false;
-        e.selfAttendeeStatus = Attendees.ATTENDEE_STATUS_NONE;
-		e.type = 0;
-
+        e.clear();
         return e;
     }
 
+    /**
+     * Clears all the fields as they are in a new instance, so the event can
+     * be refilled.
+     */
+    public final void clear() {
+        id = 0;
+        title = null;
+        color = 0;
+        location = null;
+        allDay = false;
+        organizer = null;
+        guestsCanModify = false;
+        startDay = 0;
+        endDay = 0;
+        startTime = 0;
+        endTime = 0;
+        startMillis = 0;
+        endMillis = 0;
+        mColumn = 0;
+        mMaxColumns = 0;
+        hasAlarm = false;
+        isRepeating = false;
+        selfAttendeeStatus = Attendees.ATTENDEE_STATUS_NONE;
+        left = 0;
+        right = 0;
+        top = 0;
+        bottom = 0;
+        nextRight = null;
+        nextLeft = null;
+        nextUp = null;
+        nextDown = null;
+		type = 0;
+		therapy = null;
+		dailyStatus = null;
+    }
+
     /**
      * Loads <i>days</i> days worth of instances starting at <i>startDay</i>.
      */
@@ -402,115 +421,13 @@ public class Event implements Cloneable {
      * rectangle depend on the maximum number of rectangles that occur at
      * the same time.
      *
-     * @param eventsList the list of events, sorted into increasing time order
+     * @param eventsList the list of events, in any order
      * @param minimumDurationMillis minimum duration acceptable as cell height of each event
      * rectangle in millisecond. Should be 0 when it is not determined.
      */
     /* package */ static void computePositions(ArrayList<Event> eventsList,
             long minimumDurationMillis) {
-        if (eventsList == null) {
-            return;
-        }
-
-        // Compute the column positions separately for the all-day events
-        doComputePositions(eventsList, minimumDurationMillis, false);
-        doComputePositions(eventsList, minimumDurationMillis, true);
-    }
-
-	/* XXX: The Column will be ERROR if the events aren't sorted. 
-	 * The function should be modified for therapy or daily status.
-	 */
-    private static void doComputePositions(ArrayList<Event> eventsList,
-            long minimumDurationMillis, boolean doAlldayEvents) {
-        final ArrayList<Event> activeList = new ArrayList<Event>();
-        final ArrayList<Event> groupList = new ArrayList<Event>();
-
-        if (minimumDurationMillis < 0) {
-            minimumDurationMillis = 0;
-        }
-
-        long colMask = 0;
-        int maxCols = 0;
-        for (Event event : eventsList) {
-            // Process all-day events separately
-            if (event.drawAsAllday() != doAlldayEvents)
-                continue;
-
-           if (!doAlldayEvents) {
-                colMask = removeNonAlldayActiveEvents(
-                        event, activeList.iterator(), minimumDurationMillis, colMask);
-            } else {
-                colMask = removeAlldayActiveEvents(event, activeList.iterator(), colMask);
-            }
-
-            // If the active list is empty, then reset the max columns, clear
-            // the column bit mask, and empty the groupList.
-            if (activeList.isEmpty()) {
-                for (Event ev : groupList) {
-                    ev.setMaxColumns(maxCols);
-                }
-                maxCols = 0;
-                colMask = 0;
-                groupList.clear();
-            }
-
-            // Find the first empty column.  Empty columns are represented by
-            // zero bits in the column mask "colMask".
-            int col = findFirstZeroBit(colMask);
-            if (col == 64)
-                col = 63;
-            colMask |= (1L << col);
-            event.setColumn(col);
-            activeList.add(event);
-            groupList.add(event);
-            int len = activeList.size();
-            if (maxCols < len)
-                maxCols = len;
-        }
-        for (Event ev : groupList) {
-            ev.setMaxColumns(maxCols);
-        }
-    }
-
-    private static long removeAlldayActiveEvents(Event event, Iterator<Event> iter, long colMask) {
-        // Remove the inactive allday events. An event on the active list
-        // becomes inactive when the end day is less than the current event's
-        // start day. Or the start day is more than the current event's end day.
-        while (iter.hasNext()) {
-            final Event active = iter.next();
-            if (active.endDay < event.startDay || active.startDay > event.endDay) {
-                colMask &= ~(1L << active.getColumn());
-                iter.remove();
-            }
-        }
-        return colMask;
-    }
-
-    private static long removeNonAlldayActiveEvents(
-            Event event, Iterator<Event> iter, long minDurationMillis, long colMask) {
-        long start = event.getStartMillis();
-        // Remove the inactive events. An event on the active list
-        // becomes inactive when its end time is less than or equal to
-        // the current event's start time.
-        while (iter.hasNext()) {
-            final Event active = iter.next();
-
-            final long duration = Math.max(
-                    active.getEndMillis() - active.getStartMillis(), minDurationMillis);
-            if ((active.getStartMillis() + duration) <= start) {
-                colMask &= ~(1L << active.getColumn());
-                iter.remove();
-            }
-        }
-        return colMask;
-    }
-
-    public static int findFirstZeroBit(long val) {
-        for (int ii = 0; ii < 64; ++ii) {
-            if ((val & (1L << ii)) == 0)
-                return ii;
-        }
-        return 64;
+        EventLayout.computePositions(eventsList, minimumDurationMillis);
     }
 
     public final void dump() {
@@ -644,7 +561,17 @@ public class Event implements Cloneable {
 	public static Event generateEventFromDailyStatus(Context context, long id,
 			DailyStatus dailyStatus) {
 		Event e = new Event();
+		fillEventFromDailyStatus(e, context, id, dailyStatus);
+		return e;
+	}
+
+	// Returns a recycled event of the loader if there is one.
+	private static Event obtainEvent(EventLoader pool) {
+		return (pool != null) ? pool.obtainEvent() : new Event();
+	}
 
+	private static void fillEventFromDailyStatus(Event e, Context context,
+			long id, DailyStatus dailyStatus) {
 		e.id = id;
 		e.title = dailyStatus.getName() + " (" + id + ")";
 		e.location = "";
@@ -656,16 +583,13 @@ public class Event implements Cloneable {
 			e.title = mNoTitleString;
 		}
 
-		e.color = Utils.getDisplayColorFromColor(context.getResources()
-				.getColor(getColorFromLevel(dailyStatus.getLevel())));
+		e.color = Utils.getDisplayColorFromResource(context,
+				getColorFromLevel(dailyStatus.getLevel()));
 
 		long eStart = dailyStatus.getDay();
 		long eEnd = eStart;
-		
-		Time t = new Time(); 
-		t.set(eStart);
 
-		int eDate = Time.getJulianDay(eStart, t.gmtoff);;
+		int eDate = dailyStatus.getJulianDay();
 
 		e.startMillis = eStart;
 		e.startTime = 0;
@@ -683,8 +607,6 @@ public class Event implements Cloneable {
 		e.selfAttendeeStatus = 0;
 
 		e.dailyStatus = dailyStatus;
-
-		return e;
 	}
 
     /**
@@ -703,6 +625,25 @@ public class Event implements Cloneable {
 			Context context,
 			int startDay,
 			int endDay) {
+		buildEventsFromCursor(events, cDailyStatuses, cTherapies, context,
+				startDay, endDay, null);
+	}
+
+    /**
+     * Adds all the events from the cursors to the events list, refilling the
+     * recycled events of the loader rather than allocating new ones.
+     *
+     * @param pool The loader to obtain the events from, or null to allocate
+     *            new ones
+     */
+    public static void buildEventsFromCursor(
+            ArrayList<Event> events,
+			Cursor cDailyStatuses,
+			Cursor cTherapies,
+			Context context,
+			int startDay,
+			int endDay,
+			EventLoader pool) {
 
         if (events == null) {
             Log.e(TAG, "buildEventsFromCursor: null events list!");
@@ -716,8 +657,12 @@ public class Event implements Cloneable {
 				// get sorted in the correct order
 				cDailyStatuses.moveToPosition(-1);
 				while (cDailyStatuses.moveToNext()) {
-					Event e = generateEventFromDailyStatusCursor(context, cDailyStatuses);
+					Event e = obtainEvent(pool);
+					fillEventFromDailyStatusCursor(e, context, cDailyStatuses);
 					if (e.startDay > endDay || e.endDay < startDay) {
+						if (pool != null) {
+							pool.recycleEvent(e);
+						}
 						continue;
 					}
 					events.add(e);
@@ -729,18 +674,15 @@ public class Event implements Cloneable {
 
 		if (cTherapies != null) {
 			if (cTherapies.getCount() > 0) {
+				// One iterator walks the doses of all the therapies.
+				Therapy.DoseIterator doses = new Therapy.DoseIterator();
+
 				// Sort events in two passes so we ensure the allday and standard events
 				// get sorted in the correct order
 				cTherapies.moveToPosition(-1);
 				while (cTherapies.moveToNext()) {
-					Event[] es = generateEventGroupFromTherapyCursor(context, cTherapies);
-					if (es[0].startDay > endDay || es[0].endDay < startDay) {
-						continue;
-					}
-
-					for (Event e : es) {
-						events.add(e);
-					}
+					addEventGroupFromTherapyCursor(events, context, cTherapies,
+							pool, doses, startDay, endDay);
 				}
 
 				count += cTherapies.getCount();
@@ -754,9 +696,12 @@ public class Event implements Cloneable {
 		mNoColorColor = res.getColor(R.color.event_center);
     }
 
-	private static Event generateEventFromDailyStatusCursor(Context context, Cursor cEvents) {
-		DailyStatus dailyStatus = DailyStatus.parse(cEvents);
-		return generateEventFromDailyStatus(context, cEvents.getPosition(), dailyStatus);
+	private static void fillEventFromDailyStatusCursor(Event e, Context context,
+			Cursor cEvents) {
+		// The records of our own cursor are shared, read-only and need no copy.
+		DailyStatus dailyStatus = (cEvents instanceof DailyStatusCursor) ? ((DailyStatusCursor) cEvents)
+				.getDailyStatus() : DailyStatus.parse(cEvents);
+		fillEventFromDailyStatus(e, context, dailyStatus.getId(), dailyStatus);
 	}
 
 	// ------------------------------------------------------------------------------
@@ -768,7 +713,20 @@ public class Event implements Cloneable {
 
 	public static Event[] generateEventGroupFromTherapy(Context context, long id,
 			Therapy therapy) {
-		Event e = new Event();
+		ArrayList<Event> events = new ArrayList<Event>();
+		addEventGroupFromTherapy(events, context, id, therapy, null, null,
+				Integer.MIN_VALUE, Integer.MAX_VALUE);
+		return events.toArray(new Event[events.size()]);
+	}
+
+	/**
+	 * Adds the events of the therapy, one for every reminder, if it takes
+	 * place between startDay and endDay.
+	 */
+	private static void addEventGroupFromTherapy(ArrayList<Event> events,
+			Context context, long id, Therapy therapy, EventLoader pool,
+			Therapy.DoseIterator doses, int startDay, int endDay) {
+		Event e = obtainEvent(pool);
 
 		e.id = id;
 		e.title = therapy.getName() + " (" + id + ")";
@@ -781,16 +739,13 @@ public class Event implements Cloneable {
 			e.title = mNoTitleString;
 		}
 
-		e.color = Utils.getDisplayColorFromColor(context.getResources()
-				.getColor(android.R.color.darker_gray));
+		e.color = Utils.getDisplayColorFromResource(context,
+				android.R.color.darker_gray);
 
 		long eStart = therapy.getDay();
 		long eEnd = eStart;
-		
-		Time t = new Time(); 
-		t.set(eStart);
 
-		int eDate = Time.getJulianDay(eStart, t.gmtoff);;
+		int eDate = therapy.getJulianDay();
 
 		e.startMillis = eStart;
 		e.startTime = 0;
@@ -800,7 +755,7 @@ public class Event implements Cloneable {
 		e.endTime = 1440;
 		e.endDay = eDate;
 
-		e.hasAlarm = false;
+		e.hasAlarm = therapy.getHasAlarm();
 
 		// Check if this is a repeating event
 		e.isRepeating = false;
@@ -809,53 +764,69 @@ public class Event implements Cloneable {
 
 		e.type = therapy.getType();
 
-		// To event group.
-		Event es[]; 
+		e.therapy = therapy;
 
-		long reminders[] = therapy.getRemindersGroup();
+		if (e.startDay > endDay || e.endDay < startDay) {
+			if (pool != null) {
+				pool.recycleEvent(e);
+			}
+			return;
+		}
 
-		if (reminders != null && reminders.length > 0) {
-			int num = reminders.length;
-			es = new Event[num]; 
+		// To event group.
+		long reminders[] = therapy.getRemindersGroup();
 
-			for (int i = 0; i < num; i ++) {
-				Event event = null;
-				try {
-					event = (Event) e.clone();
-				} catch (CloneNotSupportedException ex) {
-					Log.e(TAG, e.toString());
-				}
+		if (reminders == null || reminders.length == 0) {
+			events.add(e);
+			return;
+		}
 
-				Time when = new Time();
-				when.set(reminders[i]);
+		// Only the doses of the days are expanded into events.
+		if (doses == null) {
+			doses = new Therapy.DoseIterator();
+		}
+		doses.reset(therapy, startDay, endDay);
+
+		Event first = null;
+		while (doses.next()) {
+			// The base event itself becomes the first one.
+			Event event = e;
+			if (first == null) {
+				first = e;
+			} else {
+				event = obtainEvent(pool);
+				first.copyTo(event);
+			}
 
-				event.startTime = when.hour * 60 + when.minute;
-				event.endTime = event.startTime + 60;
+			event.startTime = doses.getStartMinute();
+			event.endTime = event.startTime + 60;
 
-				event.startMillis += reminders[i] + TimeZone.getDefault().getRawOffset();
-				event.endMillis = event.startMillis + 60 * 60 * 1000;
+			event.startMillis = doses.getStartMillis();
+			event.endMillis = event.startMillis + 60 * 60 * 1000;
 
-				event.therapy = therapy;
-				es[i] = event;
-			}
-		} else {
-			es = new Event[1]; 
-			es[0] = e;
+			event.therapy = therapy;
+			events.add(event);
 		}
 
-		return es;
+		if (first == null && pool != null) {
+			pool.recycleEvent(e);
+		}
 	}
 
-	private static Event[] generateEventGroupFromTherapyCursor(Context context, Cursor cEvents) {
-		Therapy therapy = Therapy.parse(cEvents);
-		return generateEventGroupFromTherapy(context, cEvents.getPosition(), therapy);
+	private static void addEventGroupFromTherapyCursor(ArrayList<Event> events,
+			Context context, Cursor cEvents, EventLoader pool,
+			Therapy.DoseIterator doses, int startDay, int endDay) {
+		Therapy therapy = (cEvents instanceof TherapyCursor) ? ((TherapyCursor) cEvents)
+				.getTherapy() : Therapy.parse(cEvents);
+		addEventGroupFromTherapy(events, context, therapy.getId(), therapy,
+				pool, doses, startDay, endDay);
 	}
 
     /**
      * Loads <i>days</i> days worth of instances starting at <i>startDay</i>.
      */
     public static void loadEvents(Context context, ArrayList<Event> events, int startDay, int days,
-            int requestId, AtomicInteger sequenceNumber) {
+            int requestId, AtomicInteger sequenceNumber, EventLoader pool) {
 
         if (PROFILE) {
             Debug.startMethodTracing("loadEvents");
@@ -903,7 +874,8 @@ public class Event implements Cloneable {
                 return;
             }
 
-            buildEventsFromCursor(events, cDailyStatus, cTherapies, context, startDay, endDay);
+            buildEventsFromCursor(events, cDailyStatus, cTherapies, context, startDay, endDay,
+                    pool);
 
         } finally {
             if (cTherapies != null) {
@@ -0,0 +1,133 @@
+package com.ankh.calendar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Assigns the side-by-side columns of overlapping events with a sweep line.
+ *
+ * The events are sorted by start, then swept in order while the active events
+ * are kept in a heap by end and the free columns in a heap of indexes, so
+ * the layout takes O(n log n) whatever the order of the input, and there is
+ * no limit on the number of overlapping events. Each event gets the lowest
+ * free column, and all events of a group of transitively overlapping events
+ * get the largest number of events which overlap at the same time as their
+ * max columns.
+ */
+public class EventLayout {
+
+    private static final Comparator<Event> START_ORDER = new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            long lhsStart = lhs.drawAsAllday() ? lhs.startDay : lhs.getStartMillis();
+            long rhsStart = rhs.drawAsAllday() ? rhs.startDay : rhs.getStartMillis();
+            return lhsStart < rhsStart ? -1 : (lhsStart == rhsStart ? 0 : 1);
+        }
+    };
+
+    /**
+     * An event which is being swept over, with the end where it stops
+     * overlapping later events.
+     */
+    private static class ActiveEvent implements Comparable<ActiveEvent> {
+        final Event event;
+        final long end;
+
+        ActiveEvent(Event event, long end) {
+            this.event = event;
+            this.end = end;
+        }
+
+        @Override
+        public int compareTo(ActiveEvent another) {
+            return end < another.end ? -1 : (end == another.end ? 0 : 1);
+        }
+    }
+
+    private EventLayout() {
+    }
+
+    /**
+     * Computes the column and the max columns of every event. The all-day
+     * events are laid out by day apart from the others, which are laid out by
+     * time. The list doesn't need to be sorted and isn't changed.
+     *
+     * @param events the events to lay out
+     * @param minimumDurationMillis minimum duration acceptable as cell height
+     *            of each event rectangle in millisecond. Should be 0 when it is
+     *            not determined.
+     */
+    public static void computePositions(List<Event> events, long minimumDurationMillis) {
+        if (events == null) {
+            return;
+        }
+
+        ArrayList<Event> allDayEvents = new ArrayList<Event>();
+        ArrayList<Event> timedEvents = new ArrayList<Event>();
+        for (Event event : events) {
+            if (event.drawAsAllday()) {
+                allDayEvents.add(event);
+            } else {
+                timedEvents.add(event);
+            }
+        }
+
+        layout(allDayEvents, Math.max(minimumDurationMillis, 0), true);
+        layout(timedEvents, Math.max(minimumDurationMillis, 0), false);
+    }
+
+    private static void layout(ArrayList<Event> events, long minimumDurationMillis,
+            boolean allDay) {
+        // The sort is stable, so events which start together keep their order.
+        Collections.sort(events, START_ORDER);
+
+        PriorityQueue<ActiveEvent> active = new PriorityQueue<ActiveEvent>();
+        PriorityQueue<Integer> freeColumns = new PriorityQueue<Integer>();
+        int nextColumn = 0;
+        int groupStart = 0;
+        int maxColumns = 0;
+
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            long start = allDay ? event.startDay : event.getStartMillis();
+
+            // An event stops overlapping when it ends at or before the start.
+            while (!active.isEmpty() && active.peek().end <= start) {
+                freeColumns.add(active.poll().event.getColumn());
+            }
+
+            // Nothing overlaps any more, so a new group starts.
+            if (active.isEmpty()) {
+                setMaxColumns(events, groupStart, i, maxColumns);
+                groupStart = i;
+                maxColumns = 0;
+                nextColumn = 0;
+                freeColumns.clear();
+            }
+
+            int column = freeColumns.isEmpty() ? nextColumn++ : freeColumns.poll();
+            event.setColumn(column);
+
+            long end;
+            if (allDay) {
+                end = event.endDay + 1L;
+            } else {
+                end = start + Math.max(event.getEndMillis() - start, minimumDurationMillis);
+            }
+            active.add(new ActiveEvent(event, end));
+            maxColumns = Math.max(maxColumns, active.size());
+        }
+
+        setMaxColumns(events, groupStart, events.size(), maxColumns);
+    }
+
+    private static void setMaxColumns(ArrayList<Event> events, int from, int to,
+            int maxColumns) {
+        for (int i = from; i < to; i++) {
+            events.get(i).setMaxColumns(maxColumns);
+        }
+    }
+}
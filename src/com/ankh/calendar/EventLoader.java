@@ -26,11 +26,15 @@ import android.provider.CalendarContract.EventDays;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class EventLoader {
 
+    // The most events kept to be refilled by the next loads.
+    private static final int MAX_POOLED_EVENTS = 1000;
+
     private Context mContext;
     private Handler mHandler = new Handler();
     private AtomicInteger mSequenceNumber = new AtomicInteger();
@@ -39,6 +43,10 @@ public class EventLoader {
     private LoaderThread mLoaderThread;
     private ContentResolver mResolver;
 
+    // Events of earlier loads which aren't shown any more, refilled on the
+    // loader thread instead of allocating new ones for every load.
+    private final ArrayList<Event> mEventPool = new ArrayList<Event>();
+
     private static interface LoadRequest {
         public void processRequest(EventLoader eventLoader);
         public void skipRequest(EventLoader eventLoader);
@@ -141,12 +149,15 @@ public class EventLoader {
 
         public void processRequest(EventLoader eventLoader) {
             Event.loadEvents(eventLoader.mContext, events, startDay,
-                    numDays, id, eventLoader.mSequenceNumber);
+                    numDays, id, eventLoader.mSequenceNumber, eventLoader);
 
             // Check if we are still the most recent request.
             if (id == eventLoader.mSequenceNumber.get()) {
                 eventLoader.mHandler.post(successCallback);
             } else {
+                // Nobody gets these events, so they can be refilled right away.
+                eventLoader.recycleEvents(events);
+                events.clear();
                 eventLoader.mHandler.post(cancelCallback);
             }
         }
@@ -257,6 +268,48 @@ public class EventLoader {
         }
     }
 
+    /**
+     * Gives the events of an earlier load back to be refilled by the next
+     * loads. The caller must not use the events any more.
+     */
+    public void recycleEvents(List<Event> events) {
+        synchronized (mEventPool) {
+            int count = Math.min(events.size(), MAX_POOLED_EVENTS - mEventPool.size());
+            for (int i = 0; i < count; i++) {
+                mEventPool.add(events.get(i));
+            }
+        }
+    }
+
+    /**
+     * Gives an event which isn't used any more back to be refilled.
+     */
+    void recycleEvent(Event event) {
+        synchronized (mEventPool) {
+            if (mEventPool.size() < MAX_POOLED_EVENTS) {
+                mEventPool.add(event);
+            }
+        }
+    }
+
+    /**
+     * Returns a recycled event cleared as by {@link Event#newInstance()}, or
+     * a new one if there is none.
+     */
+    Event obtainEvent() {
+        Event e = null;
+        synchronized (mEventPool) {
+            if (!mEventPool.isEmpty()) {
+                e = mEventPool.remove(mEventPool.size() - 1);
+            }
+        }
+        if (e == null) {
+            return Event.newInstance();
+        }
+        e.clear();
+        return e;
+    }
+
     /**
      * Sends a request for the days with events to be marked. Loads "numDays"
      * worth of days, starting at start, and fills in eventDays to express which
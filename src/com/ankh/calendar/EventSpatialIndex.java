@@ -0,0 +1,309 @@
+package com.ankh.calendar;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the nearest neighbors of the laid out event rectangles in a day
+ * view, in the four directions of the D-pad.
+ *
+ * The events are kept sorted by start and by end time to find the neighbors
+ * above and below with a binary search, and in a grid of horizontal bands to
+ * find the neighbors on the left and right by searching outwards from the
+ * band of the event. The neighbors are the same as the ones a comparison of
+ * every pair of events finds, including the ties. The index is built over
+ * the rectangles of one frame, and reuses its arrays from frame to frame.
+ */
+class EventSpatialIndex {
+    private static final int MAX_BANDS = 32;
+
+    private static final Comparator<Event> START_TIME_ORDER = new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            return lhs.startTime - rhs.startTime;
+        }
+    };
+
+    private static final Comparator<Event> END_TIME_ORDER = new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            return lhs.endTime - rhs.endTime;
+        }
+    };
+
+    private Event[] mEvents = new Event[16];
+    private Event[] mByStartTime = new Event[16];
+    private Event[] mByEndTime = new Event[16];
+    private int mCount;
+
+    // The events which overlap band i are mEvents[mBandEvents[j]] for j from
+    // mBandOffsets[i] to mBandOffsets[i + 1] - 1, in order of position.
+    private int[] mBandOffsets = new int[MAX_BANDS + 1];
+    private int[] mBandEvents = new int[16];
+    private int mBandCount;
+    private float mTop;
+    private float mBandHeight;
+
+    /**
+     * Indexes the current rectangles of the events.
+     */
+    void build(List<Event> events) {
+        mCount = events.size();
+        if (mEvents.length < mCount) {
+            int size = Math.max(mCount, mEvents.length * 2);
+            mEvents = new Event[size];
+            mByStartTime = new Event[size];
+            mByEndTime = new Event[size];
+        }
+
+        float top = Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            Event event = events.get(i);
+            mEvents[i] = event;
+            top = Math.min(top, event.top);
+            bottom = Math.max(bottom, event.bottom);
+        }
+        Arrays.fill(mEvents, mCount, mEvents.length, null);
+
+        // The sorts are stable, so events with the same time keep their order.
+        System.arraycopy(mEvents, 0, mByStartTime, 0, mCount);
+        System.arraycopy(mEvents, 0, mByEndTime, 0, mCount);
+        Arrays.sort(mByStartTime, 0, mCount, START_TIME_ORDER);
+        Arrays.sort(mByEndTime, 0, mCount, END_TIME_ORDER);
+        Arrays.fill(mByStartTime, mCount, mByStartTime.length, null);
+        Arrays.fill(mByEndTime, mCount, mByEndTime.length, null);
+
+        mBandCount = Math.max(1, Math.min(mCount, MAX_BANDS));
+        mTop = mCount == 0 ? 0 : top;
+        mBandHeight = mCount == 0 ? 1 : Math.max(1, (bottom - top) / mBandCount);
+
+        // Count the events of each band, then turn the counts into offsets.
+        Arrays.fill(mBandOffsets, 0);
+        int total = 0;
+        for (int i = 0; i < mCount; i++) {
+            int last = getBand(mEvents[i].bottom);
+            for (int band = getBand(mEvents[i].top); band <= last; band++) {
+                mBandOffsets[band + 1]++;
+                total++;
+            }
+        }
+        for (int band = 0; band < mBandCount; band++) {
+            mBandOffsets[band + 1] += mBandOffsets[band];
+        }
+        if (mBandEvents.length < total) {
+            mBandEvents = new int[Math.max(total, mBandEvents.length * 2)];
+        }
+        int[] positions = Arrays.copyOf(mBandOffsets, mBandCount);
+        for (int i = 0; i < mCount; i++) {
+            int last = getBand(mEvents[i].bottom);
+            for (int band = getBand(mEvents[i].top); band <= last; band++) {
+                mBandEvents[positions[band]++] = i;
+            }
+        }
+    }
+
+    private int getBand(float y) {
+        int band = (int) ((y - mTop) / mBandHeight);
+        return Math.max(0, Math.min(band, mBandCount - 1));
+    }
+
+    /**
+     * Returns the event which ends nearest before the event starts and shares
+     * some of its width, or null. Among events which end at the same time,
+     * the one nearest to its center wins.
+     */
+    Event findUp(Event event) {
+        int left = (int) event.left;
+        int right = (int) event.right;
+        int center = (left + right) / 2;
+
+        // The events which end at or before the start come before index.
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mByEndTime[mid].endTime <= event.startTime) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        // Search backwards, so a tie goes to the earlier event.
+        Event upEvent = null;
+        int upDistance = 0;
+        for (int i = low - 1; i >= 0; i--) {
+            Event neighbor = mByEndTime[i];
+            if (upEvent != null && neighbor.endTime != upEvent.endTime) {
+                break;
+            }
+            if (neighbor == event || !overlapsHorizontally(neighbor, left, right)) {
+                continue;
+            }
+            int distance = getHorizontalDistance(neighbor, center);
+            if (upEvent == null || distance <= upDistance) {
+                upEvent = neighbor;
+                upDistance = distance;
+            }
+        }
+        return upEvent;
+    }
+
+    /**
+     * Returns the event which starts nearest after the event ends and shares
+     * some of its width, or null. Among events which start at the same time,
+     * the one nearest to its center wins.
+     */
+    Event findDown(Event event) {
+        int left = (int) event.left;
+        int right = (int) event.right;
+        int center = (left + right) / 2;
+
+        // The events which start at or after the end come from index.
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mByStartTime[mid].startTime < event.endTime) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        Event downEvent = null;
+        int downDistance = 0;
+        for (int i = low; i < mCount; i++) {
+            Event neighbor = mByStartTime[i];
+            if (downEvent != null && neighbor.startTime != downEvent.startTime) {
+                break;
+            }
+            if (neighbor == event || !overlapsHorizontally(neighbor, left, right)) {
+                continue;
+            }
+            int distance = getHorizontalDistance(neighbor, center);
+            if (downEvent == null || distance < downDistance) {
+                downEvent = neighbor;
+                downDistance = distance;
+            }
+        }
+        return downEvent;
+    }
+
+    /**
+     * Returns the event entirely on the left of the event which is nearest to
+     * the vertical center of top and bottom, or null. Among events which are
+     * as near, the one nearest in the x direction wins.
+     */
+    Event findLeft(Event event, int top, int bottom) {
+        return findBeside(event, (top + bottom) / 2, false);
+    }
+
+    /**
+     * Returns the event entirely on the right of the event which is nearest
+     * to the vertical center of top and bottom, or null. Among events which
+     * are as near, the one nearest in the x direction wins.
+     */
+    Event findRight(Event event, int top, int bottom) {
+        return findBeside(event, (top + bottom) / 2, true);
+    }
+
+    private Event findBeside(Event event, int center, boolean toRight) {
+        if (mCount == 0) {
+            return null;
+        }
+
+        int left = (int) event.left;
+        int right = (int) event.right;
+        int centerBand = getBand(center);
+
+        int best = -1;
+        int bestDistance = 0;
+        int bestGap = 0;
+        // Search the bands outwards from the center, until every event in the
+        // bands which are left is farther than the nearest one.
+        for (int ring = 0; ; ring++) {
+            int above = centerBand - ring;
+            int below = centerBand + ring;
+            if (above < 0 && below >= mBandCount) {
+                break;
+            }
+
+            for (int band = above; band <= below; band += Math.max(below - above, 1)) {
+                if (band < 0 || band >= mBandCount) {
+                    continue;
+                }
+                for (int j = mBandOffsets[band]; j < mBandOffsets[band + 1]; j++) {
+                    int i = mBandEvents[j];
+                    Event neighbor = mEvents[i];
+                    if (neighbor == event) {
+                        continue;
+                    }
+                    int neighborLeft = (int) neighbor.left;
+                    int neighborRight = (int) neighbor.right;
+                    int gap;
+                    if (toRight && neighborLeft >= right) {
+                        gap = neighborLeft - right;
+                    } else if (!toRight && neighborRight <= left) {
+                        gap = left - neighborRight;
+                    } else {
+                        continue;
+                    }
+                    int distance = getVerticalDistance(neighbor, center);
+                    if (best == -1 || distance < bestDistance
+                            || (distance == bestDistance
+                                    && (gap < bestGap || (gap == bestGap && i < best)))) {
+                        best = i;
+                        bestDistance = distance;
+                        bestGap = gap;
+                    }
+                }
+            }
+
+            if (best != -1) {
+                // The events which haven't been seen are entirely in the
+                // bands beyond the ring.
+                int nearestUnseen = Integer.MAX_VALUE;
+                if (above > 0) {
+                    nearestUnseen = center - (int) (mTop + above * mBandHeight);
+                }
+                if (below < mBandCount - 1) {
+                    nearestUnseen = Math.min(nearestUnseen,
+                            (int) (mTop + (below + 1) * mBandHeight) - center);
+                }
+                if (bestDistance < nearestUnseen) {
+                    break;
+                }
+            }
+        }
+        return best == -1 ? null : mEvents[best];
+    }
+
+    private static boolean overlapsHorizontally(Event neighbor, int left, int right) {
+        return (int) neighbor.left < right && (int) neighbor.right > left;
+    }
+
+    private static int getHorizontalDistance(Event neighbor, int center) {
+        int neighborLeft = (int) neighbor.left;
+        int neighborRight = (int) neighbor.right;
+        if (neighborRight <= center) {
+            return center - neighborRight;
+        } else if (neighborLeft >= center) {
+            return neighborLeft - center;
+        }
+        return 0;
+    }
+
+    private static int getVerticalDistance(Event neighbor, int center) {
+        int neighborTop = (int) neighbor.top;
+        int neighborBottom = (int) neighbor.bottom;
+        if (neighborBottom <= center) {
+            return center - neighborBottom;
+        } else if (neighborTop >= center) {
+            return neighborTop - center;
+        }
+        return 0;
+    }
+}
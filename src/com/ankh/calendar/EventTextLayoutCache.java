@@ -0,0 +1,86 @@
+package com.ankh.calendar;
+
+import android.text.StaticLayout;
+import android.util.LruCache;
+
+/**
+ * A bounded LRU cache of the laid out text of events, shared by every
+ * {@link DayView} and its all-day row. The views keep the layouts of their
+ * current events by index, and fall back to the cache when they reload events
+ * or get swapped in, so the text of an event which was shown before isn't
+ * measured again.
+ *
+ * A layout is keyed by everything it's built from: the event, its title and
+ * location, the width and the state of the paint. The cache is only used
+ * from the UI thread.
+ */
+class EventTextLayoutCache {
+
+    private static final int MAX_LAYOUTS = 256;
+
+    private static final LruCache<Key, StaticLayout> sLayouts =
+            new LruCache<Key, StaticLayout>(MAX_LAYOUTS);
+
+    static final class Key {
+        private final long mId;
+        private final String mTitle;
+        private final String mLocation;
+        private final int mWidth;
+        private final int mColor;
+        private final float mTextSize;
+        private final int mHashCode;
+
+        Key(Event event, int width, int color, float textSize) {
+            mId = event.id;
+            mTitle = (event.title == null) ? null : event.title.toString();
+            mLocation = (event.location == null) ? null : event.location.toString();
+            mWidth = width;
+            mColor = color;
+            mTextSize = textSize;
+
+            int hash = (int) (mId ^ (mId >>> 32));
+            hash = 31 * hash + (mTitle == null ? 0 : mTitle.hashCode());
+            hash = 31 * hash + (mLocation == null ? 0 : mLocation.hashCode());
+            hash = 31 * hash + mWidth;
+            hash = 31 * hash + mColor;
+            hash = 31 * hash + Float.floatToIntBits(mTextSize);
+            mHashCode = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return mHashCode == other.mHashCode && mId == other.mId
+                    && mWidth == other.mWidth && mColor == other.mColor
+                    && mTextSize == other.mTextSize && equals(mTitle, other.mTitle)
+                    && equals(mLocation, other.mLocation);
+        }
+
+        private static boolean equals(String lhs, String rhs) {
+            return lhs == null ? rhs == null : lhs.equals(rhs);
+        }
+    }
+
+    private EventTextLayoutCache() {
+    }
+
+    static StaticLayout get(Key key) {
+        return sLayouts.get(key);
+    }
+
+    static void put(Key key, StaticLayout layout) {
+        sLayouts.put(key, layout);
+    }
+}
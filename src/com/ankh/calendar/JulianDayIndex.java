@@ -0,0 +1,210 @@
+package com.ankh.calendar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import android.text.format.Time;
+
+/**
+ * A sorted index of records keyed by their Julian day.
+ *
+ * Records are bucketed by day in a navigable map, so point lookups, range
+ * queries and inserts are logarithmic in the number of days and never shift
+ * the whole data set. Records of the same day are kept in the order given by
+ * the comparator.
+ *
+ * The class isn't thread safe; the owner should synchronize the access.
+ */
+public class JulianDayIndex<T> implements Iterable<T> {
+
+	private final TreeMap<Integer, ArrayList<T>> mDays = new TreeMap<Integer, ArrayList<T>>();
+	private final Comparator<? super T> mComparator;
+	private int mSize = 0;
+
+	// The flattened order of all records, rebuilt lazily after a change.
+	private ArrayList<T> mOrderedRecords = null;
+
+	// The default time zone the Julian days are computed in, and a stamp
+	// which changes with it. A record which caches its Julian day keeps the
+	// stamp it was computed with, so a new time zone is found by comparing
+	// two integers. The stamp starts above 0, which a record never has.
+	private static String sTimeZoneId = null;
+	private static volatile int sTimeZoneStamp = 1;
+
+	public JulianDayIndex(Comparator<? super T> comparator) {
+		mComparator = comparator;
+	}
+
+	/**
+	 * Returns the Julian day of the UTC milliseconds in the local time zone.
+	 */
+	public static int getJulianDay(long millis) {
+		Time t = new Time();
+		t.set(millis);
+		return Time.getJulianDay(millis, t.gmtoff);
+	}
+
+	/**
+	 * Returns the UTC milliseconds of the start of the Julian day in the
+	 * local time zone.
+	 */
+	public static long getStartMillis(int julianDay) {
+		Time t = new Time();
+		return t.setJulianDay(julianDay);
+	}
+
+	/**
+	 * Returns the stamp of the default time zone, as it was when
+	 * {@link #checkTimeZone()} was last called.
+	 */
+	public static int getTimeZoneStamp() {
+		return sTimeZoneStamp;
+	}
+
+	/**
+	 * Looks up the default time zone, and changes the stamp if it isn't the
+	 * one the Julian days have been computed in. It's cheap enough to call
+	 * once per query, but not once per record.
+	 *
+	 * @return the current stamp
+	 */
+	public static synchronized int checkTimeZone() {
+		String id = TimeZone.getDefault().getID();
+		if (sTimeZoneId == null) {
+			sTimeZoneId = id;
+		} else if (!sTimeZoneId.equals(id)) {
+			sTimeZoneId = id;
+			sTimeZoneStamp++;
+		}
+		return sTimeZoneStamp;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	public void clear() {
+		mDays.clear();
+		mSize = 0;
+		mOrderedRecords = null;
+	}
+
+	/**
+	 * Inserts the record into its day, after any record which is equal to it
+	 * in the comparator order.
+	 */
+	public void add(int julianDay, T record) {
+		ArrayList<T> records = mDays.get(julianDay);
+		if (records == null) {
+			records = new ArrayList<T>(1);
+			mDays.put(julianDay, records);
+		}
+
+		int low = 0;
+		int high = records.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (mComparator.compare(records.get(mid), record) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		records.add(low, record);
+
+		mSize++;
+		mOrderedRecords = null;
+	}
+
+	/**
+	 * Removes the record instance from its day.
+	 *
+	 * @return true if the record was in the index
+	 */
+	public boolean remove(int julianDay, T record) {
+		ArrayList<T> records = mDays.get(julianDay);
+		if (records == null) {
+			return false;
+		}
+
+		for (int i = 0; i < records.size(); i++) {
+			if (records.get(i) == record) {
+				records.remove(i);
+				if (records.isEmpty()) {
+					mDays.remove(julianDay);
+				}
+
+				mSize--;
+				mOrderedRecords = null;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the records of the day, or an empty list.
+	 */
+	public List<T> getRecords(int julianDay) {
+		ArrayList<T> records = mDays.get(julianDay);
+		if (records == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(records);
+	}
+
+	/**
+	 * Returns the records from startDay to endDay inclusive, in order.
+	 */
+	public List<T> query(int startDay, int endDay) {
+		ArrayList<T> result = new ArrayList<T>();
+		if (startDay > endDay) {
+			return result;
+		}
+
+		NavigableMap<Integer, ArrayList<T>> days = mDays.subMap(startDay, true,
+				endDay, true);
+		for (Map.Entry<Integer, ArrayList<T>> entry : days.entrySet()) {
+			result.addAll(entry.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the record at the position of the whole ordered index.
+	 */
+	public T get(int position) {
+		return asList().get(position);
+	}
+
+	/**
+	 * Returns all records in order. The list must not be modified.
+	 */
+	public List<T> asList() {
+		if (mOrderedRecords == null) {
+			ArrayList<T> records = new ArrayList<T>(mSize);
+			for (ArrayList<T> day : mDays.values()) {
+				records.addAll(day);
+			}
+			mOrderedRecords = records;
+		}
+		return mOrderedRecords;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return Collections.unmodifiableList(asList()).iterator();
+	}
+}
@@ -0,0 +1,155 @@
+package com.ankh.calendar;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * An append-only journal of changes to a {@link RecordStore}.
+ *
+ * Every entry is a JSON object on its own line, and entries are only ever
+ * appended, so an edit costs one small sequential write. If the process dies
+ * while appending, only the last line can be incomplete, and it's skipped
+ * when the journal is read.
+ */
+public class RecordJournal {
+
+	private static final String TAG = "RecordJournal";
+
+	public static final String OP = "op";
+	public static final String OP_ADD = "add";
+	public static final String OP_DELETE = "del";
+	public static final String OP_MODIFY = "modify";
+	public static final String RECORD = "record";
+	public static final String ORIGINAL = "original";
+
+	private final File mFile;
+
+	public RecordJournal(String pathname) {
+		mFile = new File(pathname);
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+
+	public static JSONObject createEntry(String op, JSONObject original,
+			JSONObject record) {
+		try {
+			JSONObject entry = new JSONObject();
+			entry.put(OP, op);
+			if (original != null) {
+				entry.put(ORIGINAL, original);
+			}
+			if (record != null) {
+				entry.put(RECORD, record);
+			}
+			return entry;
+		} catch (JSONException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Appends the entries with one write, and syncs them to the storage.
+	 */
+	public void append(List<JSONObject> entries) throws IOException {
+		if (entries.isEmpty()) {
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (JSONObject entry : entries) {
+			sb.append(entry.toString()).append('\n');
+		}
+
+		FileOutputStream fos = new FileOutputStream(mFile, true);
+		try {
+			fos.write(sb.toString().getBytes("UTF-8"));
+			fos.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+	}
+
+	/**
+	 * Reads all complete entries in order.
+	 */
+	public List<JSONObject> read() {
+		List<JSONObject> entries = new ArrayList<JSONObject>();
+
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new InputStreamReader(new FileInputStream(
+					mFile), "UTF-8"));
+
+			String line = null;
+			while ((line = br.readLine()) != null) {
+				if (line.length() == 0) {
+					continue;
+				}
+
+				try {
+					entries.add(new JSONObject(line));
+				} catch (JSONException e) {
+					// A torn write of the last entry.
+					Log.w(TAG, "Skip a broken entry in " + mFile + ": " + line);
+				}
+			}
+		} catch (FileNotFoundException e) {
+			// Nothing is journaled.
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		return entries;
+	}
+
+	public void clear() {
+		if (mFile.exists() && !mFile.delete()) {
+			Log.e(TAG, "Failed to delete " + mFile);
+		}
+	}
+
+	/**
+	 * Writes the data to the file through a temporary file which is renamed
+	 * over it, so the file is either the old or the new one after a crash.
+	 */
+	public static void writeAtomically(File file, String data)
+			throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+
+		FileOutputStream fos = new FileOutputStream(temp);
+		try {
+			fos.write(data.getBytes("UTF-8"));
+			fos.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Failed to rename " + temp + " to " + file);
+		}
+	}
+}
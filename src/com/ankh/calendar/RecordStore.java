@@ -0,0 +1,853 @@
+package com.ankh.calendar;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.SparseArray;
+
+/**
+ * An in-memory store of day based records which are persisted to a JSON file.
+ *
+ * The file is parsed once and kept in a {@link JulianDayIndex}. It's parsed
+ * again only if the file is changed by somebody else, which is found by its
+ * modification time and length. Queries return read-only snapshots, so
+ * cursors over them can't be affected by later writes.
+ *
+ * Changes aren't written to the file directly. {@link #save()} appends them
+ * to a {@link RecordJournal} next to the file, which is replayed on load, and
+ * the journal is compacted into the file once it grows long enough.
+ *
+ * If the subclass has a {@link BinaryRecordFile.Codec}, the journal is
+ * also compacted into a binary snapshot next to the JSON file, which is
+ * written after it and loaded as long as it isn't older than the JSON file.
+ * So the JSON file keeps every compacted change and can still be imported
+ * by replacing it. Until the records are loaded for a change, queries are answered
+ * from a memory mapping of the snapshot without parsing the records into
+ * memory, with the saved changes of the journal laid over it.
+ *
+ * All public methods are synchronized, so a store can be shared by the whole
+ * process. The store keeps copies of the records which are added or modified
+ * through it, so the callers can go on changing theirs. Every change made
+ * through the store is reported to the {@link OnRecordChangedListener}s, so
+ * views can patch what they show instead of querying again.
+ */
+public abstract class RecordStore<T extends RecordStore.Record> {
+
+	/**
+	 * A record in a store.
+	 */
+	public interface Record {
+		/** Returns the id which is unique in the store. */
+		public int getId();
+
+		/** Set the id. */
+		public void setId(int id);
+
+		/** Returns the UTC milliseconds when the record takes place. */
+		public long getDay();
+
+		/**
+		 * Returns the Julian day when the record takes place in the default
+		 * time zone. It should be cached until the day is set again or
+		 * {@link JulianDayIndex#getTimeZoneStamp()} changes.
+		 */
+		public int getJulianDay();
+	}
+
+	/**
+	 * Listens to the changes made through a store.
+	 */
+	public interface OnRecordChangedListener<T> {
+		public static final int INSERTED = 1;
+		public static final int UPDATED = 2;
+		public static final int REMOVED = 3;
+
+		/**
+		 * Called after a record is inserted, updated or removed. The original
+		 * is null for an insert and the record is null for a remove; their
+		 * days tell which days are affected. Both must not be modified.
+		 *
+		 * It's called on the thread which made the change while the store is
+		 * locked, so it should only hand the change over, e.g. to a handler.
+		 */
+		public void onRecordChanged(int change, T original, T record);
+	}
+
+	// The number of journaled changes which triggers a compaction.
+	private static final int COMPACT_THRESHOLD = 64;
+
+	private final String mTag;
+	private final Comparator<? super T> mOrder;
+	private final JulianDayIndex<T> mIndex;
+	private final SparseArray<T> mRecordsById = new SparseArray<T>();
+	private int mNextId = 1;
+	private String mPathname;
+	// The time zone stamp the records were indexed by day in.
+	private int mTimeZoneStamp = 0;
+
+	// Set when the JSON file couldn't be read to its end, so the records
+	// aren't complete and mustn't be compacted over the file.
+	private boolean mPartial = false;
+
+	private RecordJournal mJournal;
+	private int mJournalSize = 0;
+	// The changes which haven't been appended to the journal.
+	private final List<JSONObject> mPendingEntries = new ArrayList<JSONObject>();
+
+	private final List<OnRecordChangedListener<T>> mListeners = new CopyOnWriteArrayList<OnRecordChangedListener<T>>();
+
+	private File mBinaryFile;
+	private BinaryRecordFile<T> mMappedFile;
+	private final FileState mMappedFileState = new FileState();
+	// The records of the journal by id, null for the removed ones, which
+	// are laid over the mapped snapshot, and the state of the journal they
+	// were read from.
+	private SparseArray<T> mOverlay;
+	private final FileState mOverlayState = new FileState();
+
+	// The states of the files when they were loaded or saved.
+	private final FileState mFileState = new FileState();
+	private final FileState mBinaryFileState = new FileState();
+	private final FileState mJournalState = new FileState();
+
+	/**
+	 * The modification time and length of a file.
+	 */
+	private static class FileState {
+		long lastModified = -1;
+		long length = -1;
+
+		void reset() {
+			lastModified = -1;
+			length = -1;
+		}
+
+		void update(File file) {
+			if (file == null) {
+				return;
+			}
+			lastModified = file.lastModified();
+			length = file.length();
+		}
+
+		boolean matches(File file) {
+			return file == null
+					|| (lastModified == file.lastModified() && length == file
+							.length());
+		}
+	}
+
+	protected RecordStore(String tag, Comparator<? super T> order) {
+		mTag = tag;
+		mOrder = order;
+		mIndex = new JulianDayIndex<T>(order);
+	}
+
+	protected abstract T parse(JSONObject object);
+
+	/**
+	 * Reads the next record of the JSON array from the reader.
+	 */
+	protected abstract T read(JsonReader reader) throws IOException;
+
+	protected abstract JSONObject toJSONObject(T record);
+
+	/**
+	 * Returns a new copy of the record, which shares nothing mutable with it.
+	 */
+	protected abstract T copy(T record);
+
+	/**
+	 * Returns the codec of the binary snapshot, or null to keep the records
+	 * in the JSON file only.
+	 */
+	protected BinaryRecordFile.Codec<T> getCodec() {
+		return null;
+	}
+
+	public synchronized void setPathname(String path) {
+		if (path != null && path.equals(mPathname)) {
+			return;
+		}
+
+		mPathname = path;
+		mJournal = (path == null) ? null : new RecordJournal(path + ".journal");
+		mBinaryFile = (path == null || getCodec() == null) ? null : new File(
+				getBinaryPathname(path));
+		mFileState.reset();
+		mBinaryFileState.reset();
+		mJournalState.reset();
+		mMappedFile = null;
+		mOverlay = null;
+	}
+
+	private static String getBinaryPathname(String path) {
+		if (path.endsWith(".json")) {
+			return path.substring(0, path.length() - ".json".length()) + ".dat";
+		}
+		return path + ".dat";
+	}
+
+	public void registerListener(OnRecordChangedListener<T> listener) {
+		if (!mListeners.contains(listener)) {
+			mListeners.add(listener);
+		}
+	}
+
+	public void unregisterListener(OnRecordChangedListener<T> listener) {
+		mListeners.remove(listener);
+	}
+
+	private void notifyChanged(int change, T original, T record) {
+		for (OnRecordChangedListener<T> listener : mListeners) {
+			listener.onRecordChanged(change, original, record);
+		}
+	}
+
+	public synchronized String getPathname() {
+		return mPathname;
+	}
+
+	public synchronized int getSize() {
+		refresh();
+		return mIndex.size();
+	}
+
+	/**
+	 * Loads the file again if it hasn't been loaded or has been changed since
+	 * it was loaded or saved by this store.
+	 *
+	 * @return true if the file was loaded
+	 */
+	public synchronized boolean refresh() {
+		if (mPathname == null) {
+			return false;
+		}
+
+		if (isLoaded()) {
+			return false;
+		}
+
+		load();
+		return true;
+	}
+
+	/**
+	 * Returns true if the records in memory are the ones of the files.
+	 */
+	private boolean isLoaded() {
+		// The days of the records move with the time zone, so they're
+		// indexed again in a new one.
+		return mFileState.matches(new File(mPathname))
+				&& mBinaryFileState.matches(mBinaryFile)
+				&& mJournalState.matches(mJournal.getFile())
+				&& mTimeZoneStamp == JulianDayIndex.checkTimeZone();
+	}
+
+	/**
+	 * Loads the snapshot and replays the journal on it. The changes which
+	 * haven't been saved yet are kept.
+	 */
+	public synchronized void load() {
+		clear();
+		mTimeZoneStamp = JulianDayIndex.checkTimeZone();
+		// The journal is in the loaded records from now on.
+		mOverlay = null;
+
+		boolean imported = false;
+		mPartial = false;
+		if (!isBinaryCurrent() || !loadBinary()) {
+			clear();
+			mPartial = !loadJson();
+			imported = (mBinaryFile != null);
+		}
+
+		List<JSONObject> entries = mJournal.read();
+		for (JSONObject entry : entries) {
+			replay(entry);
+		}
+		mJournalSize = entries.size();
+
+		for (JSONObject entry : mPendingEntries) {
+			replay(entry);
+		}
+
+		Log.i(mTag, "Load " + mIndex.size() + " records from " + mPathname
+				+ " with " + mJournalSize + " journaled changes");
+
+		if (imported && !mPartial && !mIndex.isEmpty()) {
+			// Convert the JSON file, so the next load is from the snapshot.
+			compact();
+		} else {
+			updateFileState();
+		}
+	}
+
+	/**
+	 * Returns true if there is a binary snapshot which isn't older than the
+	 * JSON file.
+	 */
+	private boolean isBinaryCurrent() {
+		if (mBinaryFile == null || !mBinaryFile.exists()) {
+			return false;
+		}
+
+		File file = new File(mPathname);
+		return !file.exists() || mBinaryFile.lastModified() >= file.lastModified();
+	}
+
+	private boolean loadBinary() {
+		try {
+			BinaryRecordFile<T> binary = BinaryRecordFile.read(mBinaryFile,
+					getCodec());
+			// The rows keep the ids of the records.
+			for (int i = 0; i < binary.size(); i++) {
+				T record = binary.get(i);
+				insert(record, record.getId());
+			}
+			return true;
+		} catch (IOException e) {
+			Log.e(mTag, "Failed to load " + mBinaryFile, e);
+			return false;
+		} catch (RuntimeException e) {
+			Log.e(mTag, "Broken " + mBinaryFile, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Decodes the JSON file as a stream, straight into records, without
+	 * holding its text or a JSON tree in memory. The records keep the ids
+	 * they were written with, the ones without get new ids.
+	 *
+	 * @return false if the file couldn't be read to its end, the records
+	 *         which have been read before the error are kept
+	 */
+	private boolean loadJson() {
+		List<T> records = new ArrayList<T>();
+		boolean complete = false;
+
+		JsonReader reader = null;
+		try {
+			reader = new JsonReader(new BufferedReader(new InputStreamReader(
+					new FileInputStream(mPathname), "UTF-8")));
+
+			reader.beginArray();
+			while (reader.hasNext()) {
+				if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+					reader.skipValue();
+					continue;
+				}
+
+				T record = read(reader);
+				if (record == null) {
+					continue;
+				}
+
+				if (record.getId() > 0 && mRecordsById.get(record.getId()) == null) {
+					insert(record, record.getId());
+				} else {
+					records.add(record);
+				}
+			}
+			reader.endArray();
+			complete = true;
+		} catch (FileNotFoundException e) {
+			Log.d(mTag, "No file " + mPathname);
+			complete = true;
+		} catch (IOException e) {
+			// Keep what has been read before the error.
+			Log.e(mTag, "Failed to read " + mPathname + " to its end", e);
+		} catch (IllegalStateException e) {
+			Log.e(mTag, "Broken " + mPathname, e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		// After all the ids in the file are taken.
+		for (T record : records) {
+			insert(record, mNextId++);
+		}
+		return complete;
+	}
+
+	/**
+	 * Appends the changes since the last save to the journal, and compacts
+	 * the journal into the file if it's long enough.
+	 *
+	 * @return false if the changes couldn't be written, they're kept for the
+	 *         next save
+	 */
+	public synchronized boolean save() {
+		if (mPendingEntries.isEmpty()) {
+			Log.e(mTag, "Nothing is needed to save.");
+			return true;
+		}
+
+		try {
+			mJournal.append(mPendingEntries);
+			mJournalSize += mPendingEntries.size();
+			mPendingEntries.clear();
+
+			Log.i(mTag, "Save " + mJournalSize + " changes to " + mJournal.getFile());
+		} catch (IOException e) {
+			// Keep the changes to try again in the next save.
+			e.printStackTrace();
+			return false;
+		}
+
+		if (mJournalSize >= COMPACT_THRESHOLD) {
+			compact();
+		} else {
+			updateFileState();
+		}
+		return true;
+	}
+
+	/**
+	 * Writes all records to the JSON file and the snapshot, then drops the
+	 * journal. The journal is replayed in an idempotent way, so a crash
+	 * between the steps doesn't apply its changes twice.
+	 */
+	public synchronized void compact() {
+		if (mPartial) {
+			// The journal keeps the changes until the file can be read.
+			Log.w(mTag, "Not compacting the partially loaded " + mPathname);
+			updateFileState();
+			return;
+		}
+
+		try {
+			RecordJournal.writeAtomically(new File(mPathname), toJSONArray()
+					.toString());
+			Log.i(mTag, "Save " + mIndex.size() + " records to " + mPathname);
+
+			// After the JSON file, so the snapshot isn't older than it.
+			if (mBinaryFile != null) {
+				BinaryRecordFile.write(mBinaryFile, mIndex.asList(), getCodec());
+				Log.i(mTag, "Save " + mIndex.size() + " records to " + mBinaryFile);
+			}
+
+			mJournal.clear();
+			mJournalSize = 0;
+			mPendingEntries.clear();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		updateFileState();
+	}
+
+	/**
+	 * Writes all records to a JSON file which can be imported again.
+	 */
+	public synchronized void exportJson(String pathname) {
+		refresh();
+
+		try {
+			RecordJournal.writeAtomically(new File(pathname), toJSONArray()
+					.toString());
+			Log.i(mTag, "Export " + mIndex.size() + " records to " + pathname);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		updateFileState();
+	}
+
+	private void updateFileState() {
+		mFileState.update(new File(mPathname));
+		mBinaryFileState.update(mBinaryFile);
+		mJournalState.update(mJournal.getFile());
+	}
+
+	private void journal(String op, T original, T record) {
+		JSONObject entry = RecordJournal.createEntry(op,
+				original == null ? null : toJSONObject(original),
+				record == null ? null : toJSONObject(record));
+		if (entry != null) {
+			mPendingEntries.add(entry);
+		}
+	}
+
+	private T parseEntry(JSONObject entry, String name) {
+		JSONObject object = entry.optJSONObject(name);
+		return object == null ? null : parse(object);
+	}
+
+	/**
+	 * Applies a journaled change. The records of an entry carry their ids,
+	 * so the change is applied to the record it was made to, even if others
+	 * have the same day and name. Applying a change which is already in the
+	 * records leaves them as they are.
+	 */
+	private void replay(JSONObject entry) {
+		String op = entry.optString(RecordJournal.OP);
+		T original = parseEntry(entry, RecordJournal.ORIGINAL);
+		T record = parseEntry(entry, RecordJournal.RECORD);
+
+		int id = (original != null) ? original.getId()
+				: (record != null ? record.getId() : 0);
+		if (id <= 0 && original != null) {
+			// The entry was journaled before the ids were.
+			T stored = find(original);
+			id = (stored == null) ? 0 : stored.getId();
+		}
+
+		if (id > 0 && mRecordsById.get(id) != null) {
+			remove(id);
+		}
+
+		if (RecordJournal.OP_ADD.equals(op) || RecordJournal.OP_MODIFY.equals(op)) {
+			if (record != null) {
+				insert(record, id > 0 ? id : mNextId++);
+			}
+		}
+	}
+
+	private JSONArray toJSONArray() {
+		JSONArray jsonArray = new JSONArray();
+		for (T record : mIndex) {
+			jsonArray.put(toJSONObject(record));
+		}
+		return jsonArray;
+	}
+
+	private void clear() {
+		mIndex.clear();
+		mRecordsById.clear();
+		mNextId = 1;
+	}
+
+	private void insert(T record, int id) {
+		if (id >= mNextId) {
+			mNextId = id + 1;
+		}
+		record.setId(id);
+		mIndex.add(record.getJulianDay(), record);
+		mRecordsById.put(id, record);
+	}
+
+	private T remove(int id) {
+		T record = mRecordsById.get(id);
+		if (record == null) {
+			Log.e(mTag, "No record " + id);
+			return null;
+		}
+
+		mRecordsById.remove(id);
+		mIndex.remove(record.getJulianDay(), record);
+		return record;
+	}
+
+	public synchronized boolean add(T record) {
+		if (record == null) {
+			return false;
+		}
+
+		refresh();
+		T stored = copy(record);
+		insert(stored, mNextId++);
+		journal(RecordJournal.OP_ADD, null, stored);
+		notifyChanged(OnRecordChangedListener.INSERTED, null, stored);
+		return true;
+	}
+
+	public synchronized boolean del(int id) {
+		refresh();
+
+		T record = remove(id);
+		if (record == null) {
+			return false;
+		}
+
+		journal(RecordJournal.OP_DELETE, record, null);
+		notifyChanged(OnRecordChangedListener.REMOVED, record, null);
+		return true;
+	}
+
+	/**
+	 * Replaces the record of the id, the new record keeps the id.
+	 */
+	public synchronized boolean modify(int id, T record) {
+		refresh();
+
+		T original = remove(id);
+		if (original == null) {
+			return false;
+		}
+
+		T stored = copy(record);
+		insert(stored, id);
+		journal(RecordJournal.OP_MODIFY, original, stored);
+		notifyChanged(OnRecordChangedListener.UPDATED, original, stored);
+		return true;
+	}
+
+	public synchronized boolean modify(T originalRecord, T record) {
+		refresh();
+
+		T stored = find(originalRecord);
+		if (stored == null) {
+			Log.e(mTag, "No record " + originalRecord);
+			return false;
+		}
+
+		return modify(stored.getId(), record);
+	}
+
+	/**
+	 * Finds the stored record by id, or by equality in its day if it comes
+	 * from somewhere which doesn't keep the id.
+	 */
+	private T find(T record) {
+		T stored = mRecordsById.get(record.getId());
+		if (stored != null && stored.equals(record)) {
+			return stored;
+		}
+
+		for (T r : mIndex.getRecords(record.getJulianDay())) {
+			if (r.equals(record)) {
+				return r;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the record at the position of the whole ordered store, or null.
+	 */
+	public synchronized T get(int position) {
+		refresh();
+
+		if (position < 0 || position >= mIndex.size()) {
+			return null;
+		}
+		return mIndex.get(position);
+	}
+
+	/**
+	 * Returns a read-only snapshot of the records of the Julian day.
+	 */
+	public synchronized List<T> getRecords(int julianDay) {
+		return query(julianDay, julianDay);
+	}
+
+	/**
+	 * Returns a read-only snapshot of the records from the Julian day
+	 * startDay to endDay inclusive, in order.
+	 *
+	 * If the records haven't been loaded into memory, the list comes from
+	 * the memory mapping of the binary snapshot, and only the records of the
+	 * days are decoded. The records of the journal take the place of the
+	 * rows with their ids.
+	 */
+	public synchronized List<T> query(int startDay, int endDay) {
+		JulianDayIndex.checkTimeZone();
+		// The changes which haven't been saved are only in memory.
+		if (mPathname != null && mPendingEntries.isEmpty() && !isLoaded()) {
+			BinaryRecordFile<T> mapped = getMappedFile();
+			SparseArray<T> overlay = (mapped == null) ? null : getOverlay();
+			if (overlay != null) {
+				return query(mapped, overlay, startDay, endDay);
+			}
+		}
+
+		refresh();
+		return Collections.unmodifiableList(mIndex.query(startDay, endDay));
+	}
+
+	private List<T> query(BinaryRecordFile<T> mapped, SparseArray<T> overlay,
+			int startDay, int endDay) {
+		List<T> rows = mapped.query(startDay, endDay);
+		if (overlay.size() == 0) {
+			return rows;
+		}
+
+		List<T> records = new ArrayList<T>(rows.size());
+		for (T record : rows) {
+			if (overlay.indexOfKey(record.getId()) < 0) {
+				records.add(record);
+			}
+		}
+		for (int i = 0; i < overlay.size(); i++) {
+			T record = overlay.valueAt(i);
+			if (record != null && record.getJulianDay() >= startDay
+					&& record.getJulianDay() <= endDay) {
+				records.add(record);
+			}
+		}
+		// The orders of the stores go by the day first.
+		Collections.sort(records, mOrder);
+		return Collections.unmodifiableList(records);
+	}
+
+	/**
+	 * Returns the records of the saved journal by id, null for the removed
+	 * ones, or null if the journal has entries without ids, which can only
+	 * be replayed on all the records.
+	 */
+	private SparseArray<T> getOverlay() {
+		File file = mJournal.getFile();
+		if (mOverlay != null && mOverlayState.matches(file)) {
+			return mOverlay;
+		}
+
+		SparseArray<T> overlay = new SparseArray<T>();
+		for (JSONObject entry : mJournal.read()) {
+			String op = entry.optString(RecordJournal.OP);
+			T original = parseEntry(entry, RecordJournal.ORIGINAL);
+			T record = parseEntry(entry, RecordJournal.RECORD);
+
+			int id = (original != null) ? original.getId()
+					: (record != null ? record.getId() : 0);
+			if (id <= 0) {
+				mOverlay = null;
+				return null;
+			}
+
+			if (record != null && (RecordJournal.OP_ADD.equals(op)
+					|| RecordJournal.OP_MODIFY.equals(op))) {
+				record.setId(id);
+				overlay.put(id, record);
+			} else {
+				overlay.put(id, null);
+			}
+		}
+
+		mOverlay = overlay;
+		mOverlayState.update(file);
+		return mOverlay;
+	}
+
+	/**
+	 * Returns the mapping of the binary snapshot if it's the one the records
+	 * are loaded from, or null.
+	 */
+	private BinaryRecordFile<T> getMappedFile() {
+		if (mPathname == null || !isBinaryCurrent()) {
+			mMappedFile = null;
+			return null;
+		}
+
+		if (mMappedFile == null || !mMappedFileState.matches(mBinaryFile)) {
+			try {
+				mMappedFile = BinaryRecordFile.map(mBinaryFile, getCodec());
+				mMappedFileState.update(mBinaryFile);
+			} catch (IOException e) {
+				Log.e(mTag, "Failed to map " + mBinaryFile, e);
+				mMappedFile = null;
+			}
+		}
+		return mMappedFile;
+	}
+
+	/**
+	 * Moves into the next value if it's an array, or skips it and returns
+	 * false if it's anything else, e.g. a null.
+	 */
+	public static boolean beginArray(JsonReader reader) throws IOException {
+		if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+			reader.skipValue();
+			return false;
+		}
+		reader.beginArray();
+		return true;
+	}
+
+	/**
+	 * Moves into the next value if it's an object, or skips it and returns
+	 * false if it's anything else.
+	 */
+	public static boolean beginObject(JsonReader reader) throws IOException {
+		if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+			reader.skipValue();
+			return false;
+		}
+		reader.beginObject();
+		return true;
+	}
+
+	/**
+	 * Reads the next value as a string, whatever its JSON type is, the same
+	 * as {@link JSONObject#getString(String)}. Returns null for a null, an
+	 * object or an array.
+	 */
+	public static String readString(JsonReader reader) throws IOException {
+		JsonToken token = reader.peek();
+		switch (token) {
+		case STRING:
+		case NUMBER:
+			return reader.nextString();
+		case BOOLEAN:
+			return Boolean.toString(reader.nextBoolean());
+		case NULL:
+			reader.nextNull();
+			return null;
+		default:
+			reader.skipValue();
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the next value as an integer, or 0 if it isn't one.
+	 */
+	public static int readInt(JsonReader reader) throws IOException {
+		try {
+			return Integer.parseInt(readString(reader));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Reads the next value as a long, or 0 if it isn't one.
+	 */
+	public static long readLong(JsonReader reader) throws IOException {
+		try {
+			return Long.parseLong(readString(reader));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	public synchronized String toString() {
+
+		String str = "\n-------------------------------------------------------------------------------\n";
+		str += "Pathname: " + mPathname + "\n";
+
+		try {
+			str += toJSONArray().toString(2);
+		} catch (JSONException e) {
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+
+		str += "\n-------------------------------------------------------------------------------\n";
+
+		return str;
+	}
+}
@@ -48,6 +48,7 @@ import android.text.format.DateUtils;
 import android.text.format.Time;
 import android.text.style.URLSpan;
 import android.text.util.Linkify;
+import android.util.SparseIntArray;
 import android.widget.SearchView;
 
 import com.ankh.calendar.R;
@@ -60,9 +61,7 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Formatter;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -818,6 +817,14 @@ public class Utils {
         return c.getResources().getBoolean(key);
     }
 
+    // The display colors of the raw colors and of the color resources which
+    // have been resolved, since every generated event needs one. The
+    // resources can change with the configuration, so the cache is cleared
+    // by clearColorCache() on a configuration change.
+    private static final int MAX_CACHED_COLORS = 256;
+    private static final SparseIntArray sDisplayColors = new SparseIntArray();
+    private static final SparseIntArray sResourceDisplayColors = new SparseIntArray();
+
     /**
      * For devices with Jellybean or later, darkens the given color to ensure that white text is
      * clearly visible on top of it.  For devices prior to Jellybean, does nothing, as the
@@ -830,11 +837,63 @@ public class Utils {
             return color;
         }
 
+        synchronized (sDisplayColors) {
+            int index = sDisplayColors.indexOfKey(color);
+            if (index >= 0) {
+                return sDisplayColors.valueAt(index);
+            }
+        }
+
         float[] hsv = new float[3];
         Color.colorToHSV(color, hsv);
         hsv[1] = Math.min(hsv[1] * SATURATION_ADJUST, 1.0f);
         hsv[2] = hsv[2] * INTENSITY_ADJUST;
-        return Color.HSVToColor(hsv);
+        int displayColor = Color.HSVToColor(hsv);
+
+        synchronized (sDisplayColors) {
+            if (sDisplayColors.size() >= MAX_CACHED_COLORS) {
+                sDisplayColors.clear();
+            }
+            sDisplayColors.put(color, displayColor);
+        }
+        return displayColor;
+    }
+
+    /**
+     * Returns the display color of the color resource, as
+     * {@link #getDisplayColorFromColor(int)} does for its color in the
+     * current configuration.
+     */
+    public static int getDisplayColorFromResource(Context context, int colorId) {
+        synchronized (sResourceDisplayColors) {
+            int index = sResourceDisplayColors.indexOfKey(colorId);
+            if (index >= 0) {
+                return sResourceDisplayColors.valueAt(index);
+            }
+        }
+
+        int displayColor = getDisplayColorFromColor(context.getResources().getColor(colorId));
+
+        synchronized (sResourceDisplayColors) {
+            if (sResourceDisplayColors.size() >= MAX_CACHED_COLORS) {
+                sResourceDisplayColors.clear();
+            }
+            sResourceDisplayColors.put(colorId, displayColor);
+        }
+        return displayColor;
+    }
+
+    /**
+     * Forgets the resolved display colors, call it when the configuration
+     * changes.
+     */
+    public static void clearColorCache() {
+        synchronized (sDisplayColors) {
+            sDisplayColors.clear();
+        }
+        synchronized (sResourceDisplayColors) {
+            sResourceDisplayColors.clear();
+        }
     }
 
     // This takes a color and computes what it would look like blended with
@@ -858,15 +917,480 @@ public class Utils {
         int position;
         public int color;
         int count;
+
+        /**
+         * Returns the number of values in points which are in use, the array
+         * may be longer when it's reused.
+         */
+        public int getPointCount() {
+            return position;
+        }
+
+        /**
+         * Returns a copy of the strand which keeps only the points in use, so
+         * the buffers of a builder can be reused after it's copied.
+         */
+        public DNAStrand trimmedCopy() {
+            DNAStrand strand = new DNAStrand();
+            strand.color = color;
+            strand.count = count;
+            strand.position = position;
+            strand.points = (points == null) ? null : Arrays.copyOf(points, position);
+            strand.allDays = (allDays == null) ? null : allDays.clone();
+            return strand;
+        }
     }
 
-    // A segment is a single continuous length of time occupied by a single
-    // color. Segments should never span multiple days.
-    private static class DNASegment {
-        int startMinute; // in minutes since the start of the week
-        int endMinute;
-        int color; // Calendar color or black for conflicts
-        int day; // quick reference to the day this segment is on
+    /**
+     * Builds the dna strands of a week. A builder keeps its segments in
+     * parallel primitive arrays and reuses them together with its strands, so
+     * a view which keeps one builder allocates nothing once the buffers are
+     * big enough. Segments are kept in order of start time, and as events come
+     * sorted by start time only the segments at the end of the arrays are
+     * split, merged or shifted, so the work grows with the overlaps instead of
+     * the number of segments.
+     */
+    public static class DNAStrandBuilder {
+        // A segment is a single continuous length of time occupied by a single
+        // color. Segments should never span multiple days.
+        private int[] mSegmentStarts = new int[16]; // in minutes since the start of the week
+        private int[] mSegmentEnds = new int[16];
+        private int[] mSegmentColors = new int[16]; // Calendar color or black for conflicts
+        private int[] mSegmentDays = new int[16]; // the day this segment is on
+        private int mSegmentCount;
+
+        private final DNAStrand mConflictStrand = new DNAStrand();
+        private boolean mHasAllDays;
+        private DNAStrand[] mStrands = new DNAStrand[8];
+        private int mStrandCount;
+
+        /**
+         * Returns the number of strands of event colors.
+         */
+        public int getStrandCount() {
+            return mStrandCount;
+        }
+
+        /**
+         * Returns the strand of an event color.
+         */
+        public DNAStrand getStrand(int index) {
+            return mStrands[index];
+        }
+
+        /**
+         * Returns the strand of the conflicts and all day events, or null if
+         * there isn't any.
+         */
+        public DNAStrand getConflictStrand() {
+            return (mConflictStrand.count > 0 || mHasAllDays) ? mConflictStrand : null;
+        }
+
+        private void reset(int numDays) {
+            mSegmentCount = 0;
+            mStrandCount = 0;
+            mHasAllDays = false;
+            mConflictStrand.color = CONFLICT_COLOR;
+            mConflictStrand.count = 0;
+            mConflictStrand.position = 0;
+            if (mConflictStrand.allDays != null) {
+                if (mConflictStrand.allDays.length == numDays) {
+                    Arrays.fill(mConflictStrand.allDays, 0);
+                } else {
+                    mConflictStrand.allDays = null;
+                }
+            }
+        }
+
+        /**
+         * Returns the strand of the color, which is added if there isn't one.
+         * There are only a few colors, so a scan is faster than a map.
+         */
+        private DNAStrand getOrCreateStrand(int color) {
+            if (color == CONFLICT_COLOR) {
+                return mConflictStrand;
+            }
+            for (int i = 0; i < mStrandCount; i++) {
+                if (mStrands[i].color == color) {
+                    return mStrands[i];
+                }
+            }
+
+            if (mStrandCount == mStrands.length) {
+                mStrands = Arrays.copyOf(mStrands, mStrandCount * 2);
+            }
+            DNAStrand strand = mStrands[mStrandCount];
+            if (strand == null) {
+                strand = new DNAStrand();
+                mStrands[mStrandCount] = strand;
+            }
+            mStrandCount++;
+            strand.color = color;
+            strand.count = 0;
+            strand.position = 0;
+            return strand;
+        }
+
+        private void insertSegment(int index, int startMinute, int endMinute, int color,
+                int day) {
+            if (mSegmentCount == mSegmentStarts.length) {
+                int capacity = mSegmentCount * 2;
+                mSegmentStarts = Arrays.copyOf(mSegmentStarts, capacity);
+                mSegmentEnds = Arrays.copyOf(mSegmentEnds, capacity);
+                mSegmentColors = Arrays.copyOf(mSegmentColors, capacity);
+                mSegmentDays = Arrays.copyOf(mSegmentDays, capacity);
+            }
+
+            int moved = mSegmentCount - index;
+            if (moved > 0) {
+                System.arraycopy(mSegmentStarts, index, mSegmentStarts, index + 1, moved);
+                System.arraycopy(mSegmentEnds, index, mSegmentEnds, index + 1, moved);
+                System.arraycopy(mSegmentColors, index, mSegmentColors, index + 1, moved);
+                System.arraycopy(mSegmentDays, index, mSegmentDays, index + 1, moved);
+            }
+            mSegmentStarts[index] = startMinute;
+            mSegmentEnds[index] = endMinute;
+            mSegmentColors[index] = color;
+            mSegmentDays[index] = day;
+            mSegmentCount++;
+        }
+
+        private void removeSegment(int index) {
+            int moved = mSegmentCount - index - 1;
+            if (moved > 0) {
+                System.arraycopy(mSegmentStarts, index + 1, mSegmentStarts, index, moved);
+                System.arraycopy(mSegmentEnds, index + 1, mSegmentEnds, index, moved);
+                System.arraycopy(mSegmentColors, index + 1, mSegmentColors, index, moved);
+                System.arraycopy(mSegmentDays, index + 1, mSegmentDays, index, moved);
+            }
+            mSegmentCount--;
+        }
+
+        /**
+         * Converts the events to strands, see
+         * {@link Utils#createDNAStrands(int, ArrayList, int, int, int, int[], Context)}
+         * for the layout.
+         *
+         * @return false if there is nothing to draw
+         */
+        public boolean build(int firstJulianDay, ArrayList<Event> events, int top, int bottom,
+                int minPixels, int[] dayXs, Context context) {
+            loadDNAMinutes(context);
+
+            if (events == null || events.isEmpty() || dayXs == null || dayXs.length < 1
+                    || bottom - top < 8 || minPixels < 0) {
+                Log.e(TAG,
+                        "Bad values for createDNAStrands! events:" + events + " dayXs:"
+                                + Arrays.toString(dayXs) + " bot-top:" + (bottom - top)
+                                + " minPixels:" + minPixels);
+                return false;
+            }
+
+            int numDays = dayXs.length;
+            reset(numDays);
+
+            // the min length is the number of minutes that will occupy
+            // MIN_SEGMENT_PIXELS in the 'work day' time slot. This computes the
+            // minutes/pixel * minpx where the number of pixels are 3/4 the total
+            // dna height: 4*(mins/(px * 3/4))
+            int minMinutes = minPixels * 4 * WORK_DAY_MINUTES / (3 * (bottom - top));
+
+            // There are slightly fewer than half as many pixels in 1/6 the space,
+            // so round to 2.5x for the min minutes in the non-work area
+            int minOtherMinutes = minMinutes * 5 / 2;
+            int lastJulianDay = firstJulianDay + numDays - 1;
+
+            // Go through all the events for the week
+            for (int e = 0; e < events.size(); e++) {
+                Event event = events.get(e);
+                // if this event is outside the weeks range skip it
+                if (event.endDay < firstJulianDay || event.startDay > lastJulianDay) {
+                    continue;
+                }
+                if (event.drawAsAllday()) {
+                    addAllDay(event, firstJulianDay, numDays);
+                    continue;
+                }
+
+                // Clip the start and end of the event to our range
+                int startDay = event.startDay;
+                int startTime = event.startTime;
+                int endDay = event.endDay;
+                int endTime = event.endTime;
+                if (startDay < firstJulianDay) {
+                    startDay = firstJulianDay;
+                    startTime = 0;
+                }
+                // If it starts after the work day make sure the start is at least
+                // minPixels from midnight
+                if (startTime > DAY_IN_MINUTES - minOtherMinutes) {
+                    startTime = DAY_IN_MINUTES - minOtherMinutes;
+                }
+                if (endDay > lastJulianDay) {
+                    endDay = lastJulianDay;
+                    endTime = DAY_IN_MINUTES - 1;
+                }
+                // If the end time is before the work day make sure it ends at least
+                // minPixels after midnight
+                if (endTime < minOtherMinutes) {
+                    endTime = minOtherMinutes;
+                }
+                // If the start and end are on the same day make sure they are at
+                // least minPixels apart. This only needs to be done for times
+                // outside the work day as the min distance for within the work day
+                // is enforced in the segment code.
+                if (startDay == endDay && endTime - startTime < minOtherMinutes) {
+                    // If it's less than minPixels in an area before the work
+                    // day
+                    if (startTime < WORK_DAY_START_MINUTES) {
+                        // extend the end to the first easy guarantee that it's
+                        // minPixels
+                        endTime = Math.min(startTime + minOtherMinutes,
+                                WORK_DAY_START_MINUTES + minMinutes);
+                        // if it's in the area after the work day
+                    } else if (endTime > WORK_DAY_END_MINUTES) {
+                        // First try shifting the end but not past midnight
+                        endTime = Math.min(endTime + minOtherMinutes, DAY_IN_MINUTES - 1);
+                        // if it's still too small move the start back
+                        if (endTime - startTime < minOtherMinutes) {
+                            startTime = endTime - minOtherMinutes;
+                        }
+                    }
+                }
+
+                // This handles adding the first segment
+                if (mSegmentCount == 0) {
+                    addNewSegments(startDay, startTime, endDay, endTime, event.color,
+                            firstJulianDay, 0, minMinutes);
+                    continue;
+                }
+                // Now compare our current start time to the end time of the last
+                // segment in the list
+                int lastSegmentEnd = mSegmentEnds[mSegmentCount - 1];
+                int startMinute = (startDay - firstJulianDay) * DAY_IN_MINUTES + startTime;
+                int endMinute = Math.max((endDay - firstJulianDay) * DAY_IN_MINUTES + endTime,
+                        startMinute + minMinutes);
+
+                if (startMinute < 0) {
+                    startMinute = 0;
+                }
+                if (endMinute >= WEEK_IN_MINUTES) {
+                    endMinute = WEEK_IN_MINUTES - 1;
+                }
+                // If we start before the last segment in the list ends we need to
+                // go back through the list as this may conflict with other events
+                if (startMinute < lastSegmentEnd) {
+                    int i = mSegmentCount;
+                    // find the last segment this event intersects with
+                    while (--i >= 0 && endMinute < mSegmentStarts[i]);
+
+                    // for each segment this event intersects with
+                    for (; i >= 0 && startMinute <= mSegmentEnds[i]; i--) {
+                        // if the segment is already a conflict ignore it
+                        if (mSegmentColors[i] == CONFLICT_COLOR) {
+                            continue;
+                        }
+                        // if the event ends before the segment and wouldn't create
+                        // a segment that is too small split off the right side
+                        if (endMinute < mSegmentEnds[i] - minMinutes) {
+                            insertSegment(i + 1, endMinute + 1, mSegmentEnds[i],
+                                    mSegmentColors[i], mSegmentDays[i]);
+                            mSegmentEnds[i] = endMinute;
+                            getOrCreateStrand(mSegmentColors[i]).count++;
+                        }
+                        // if the event starts after the segment and wouldn't create
+                        // a segment that is too small split off the left side
+                        if (startMinute > mSegmentStarts[i] + minMinutes) {
+                            int segmentStart = mSegmentStarts[i];
+                            mSegmentStarts[i] = startMinute;
+                            insertSegment(i, segmentStart, startMinute - 1,
+                                    mSegmentColors[i], mSegmentDays[i]);
+                            // the current segment is shifted to the right
+                            i++;
+                            getOrCreateStrand(mSegmentColors[i]).count++;
+                        }
+                        // if the right side is black merge this with the segment to
+                        // the right if they're on the same day and overlap
+                        if (i + 1 < mSegmentCount) {
+                            int rhs = i + 1;
+                            if (mSegmentColors[rhs] == CONFLICT_COLOR
+                                    && mSegmentDays[i] == mSegmentDays[rhs]
+                                    && mSegmentStarts[rhs] <= mSegmentEnds[i] + 1) {
+                                mSegmentStarts[rhs] = Math.min(mSegmentStarts[i],
+                                        mSegmentStarts[rhs]);
+                                getOrCreateStrand(mSegmentColors[i]).count--;
+                                // the segment to the right becomes the current one
+                                removeSegment(i);
+                            }
+                        }
+                        // if the left side is black merge this with the segment to
+                        // the left if they're on the same day and overlap
+                        if (i - 1 >= 0) {
+                            int lhs = i - 1;
+                            if (mSegmentColors[lhs] == CONFLICT_COLOR
+                                    && mSegmentDays[i] == mSegmentDays[lhs]
+                                    && mSegmentEnds[lhs] >= mSegmentStarts[i] - 1) {
+                                mSegmentEnds[lhs] = Math.max(mSegmentEnds[i], mSegmentEnds[lhs]);
+                                getOrCreateStrand(mSegmentColors[i]).count--;
+                                removeSegment(i);
+                                // point at the new current segment
+                                i--;
+                            }
+                        }
+                        // if we're still not black, decrement the count for the
+                        // color being removed, change this to black, and increment
+                        // the black count
+                        if (mSegmentColors[i] != CONFLICT_COLOR) {
+                            getOrCreateStrand(mSegmentColors[i]).count--;
+                            mSegmentColors[i] = CONFLICT_COLOR;
+                            mConflictStrand.count++;
+                        }
+                    }
+                }
+                // If this event extends beyond the last segment add a new segment
+                if (endMinute > lastSegmentEnd) {
+                    addNewSegments(startDay, startTime, endDay, endTime, event.color,
+                            firstJulianDay, lastSegmentEnd, minMinutes);
+                }
+            }
+            weave(firstJulianDay, top, bottom, dayXs);
+            return true;
+        }
+
+        // This figures out allDay colors as allDay events are found
+        private void addAllDay(Event event, int firstJulianDay, int numDays) {
+            if (mConflictStrand.allDays == null) {
+                mConflictStrand.allDays = new int[numDays];
+            }
+            mHasAllDays = true;
+
+            // For each day this event is on update the color
+            int[] allDays = mConflictStrand.allDays;
+            int end = Math.min(event.endDay - firstJulianDay, numDays - 1);
+            for (int i = Math.max(event.startDay - firstJulianDay, 0); i <= end; i++) {
+                if (allDays[i] != 0) {
+                    // if this day already had a color, it is now a conflict
+                    allDays[i] = CONFLICT_COLOR;
+                } else {
+                    // else it's just the color of the event
+                    allDays[i] = event.color;
+                }
+            }
+        }
+
+        /**
+         * Adds new segments for the event, one for each day it's on, and
+         * ensures a minimum size for segments.
+         */
+        private void addNewSegments(int startDay, int startTime, int endDay, int endTime,
+                int color, int firstJulianDay, int minStart, int minMinutes) {
+            if (startDay > endDay) {
+                Log.wtf(TAG, "Event starts after it ends: " + startDay + " > " + endDay);
+                return;
+            }
+            // If this is a multiday event split it up by day. The days in
+            // between are all day, even though that shouldn't actually happen
+            // due to the allday filtering
+            while (startDay != endDay) {
+                addNewSegment(startDay, startTime, DAY_IN_MINUTES - 1, color, firstJulianDay,
+                        minStart, minMinutes);
+                startDay++;
+                startTime = 0;
+                minStart = 0;
+            }
+            addNewSegment(startDay, startTime, endTime, color, firstJulianDay, minStart,
+                    minMinutes);
+        }
+
+        private void addNewSegment(int day, int startTime, int endTime, int color,
+                int firstJulianDay, int minStart, int minMinutes) {
+            int dayOffset = (day - firstJulianDay) * DAY_IN_MINUTES;
+            int endOfDay = dayOffset + DAY_IN_MINUTES - 1;
+            // clip the start if needed
+            int startMinute = Math.max(dayOffset + startTime, minStart);
+            // and extend the end if it's too small, but not beyond the end of the
+            // day
+            int minEnd = Math.min(startMinute + minMinutes, endOfDay);
+            int endMinute = Math.max(dayOffset + endTime, minEnd);
+            if (endMinute > endOfDay) {
+                endMinute = endOfDay;
+            }
+
+            insertSegment(mSegmentCount, startMinute, endMinute, color, day);
+            // increment the count for the correct color or add a new strand if we
+            // don't have that color yet
+            getOrCreateStrand(color).count++;
+        }
+
+        // This processes all the segments, sorts them by color, and generates a
+        // list of points to draw
+        private void weave(int firstJulianDay, int top, int bottom, int[] dayXs) {
+            // First, get rid of any colors that ended up with no segments
+            int kept = 0;
+            for (int i = 0; i < mStrandCount; i++) {
+                DNAStrand strand = mStrands[i];
+                if (strand.count < 1) {
+                    continue;
+                }
+                // Swap rather than drop so the strand object is reused later
+                mStrands[i] = mStrands[kept];
+                mStrands[kept++] = strand;
+                preparePoints(strand);
+            }
+            mStrandCount = kept;
+            preparePoints(mConflictStrand);
+
+            int height = bottom - top;
+            int workDayHeight = height * 3 / 4;
+            int remainderHeight = (height - workDayHeight) / 2;
+
+            // Go through each segment and compute its points
+            for (int i = 0; i < mSegmentCount; i++) {
+                // Add the points to the strand of that color
+                DNAStrand strand = getOrCreateStrand(mSegmentColors[i]);
+                int dayIndex = mSegmentDays[i] - firstJulianDay;
+                int dayStartMinute = mSegmentStarts[i] % DAY_IN_MINUTES;
+                int dayEndMinute = mSegmentEnds[i] % DAY_IN_MINUTES;
+
+                int x = dayXs[dayIndex];
+                int y0 = top + getPixelOffsetFromMinutes(dayStartMinute, workDayHeight,
+                        remainderHeight);
+                int y1 = top + getPixelOffsetFromMinutes(dayEndMinute, workDayHeight,
+                        remainderHeight);
+                if (DEBUG) {
+                    Log.d(TAG, "Adding " + Integer.toHexString(strand.color) + " at x,y0,y1: "
+                            + x + " " + y0 + " " + y1 + " for " + dayStartMinute + " "
+                            + dayEndMinute);
+                }
+                strand.points[strand.position++] = x;
+                strand.points[strand.position++] = y0;
+                strand.points[strand.position++] = x;
+                strand.points[strand.position++] = y1;
+            }
+        }
+
+        private static void preparePoints(DNAStrand strand) {
+            int size = strand.count * 4;
+            if (strand.points == null || strand.points.length < size) {
+                strand.points = new float[size];
+            }
+            strand.position = 0;
+        }
+    }
+
+    private static void loadDNAMinutes(Context context) {
+        if (!mMinutesLoaded) {
+            if (context == null) {
+                Log.wtf(TAG, "No context and haven't loaded parameters yet! Can't create DNA.");
+            }
+            Resources res = context.getResources();
+            CONFLICT_COLOR = res.getColor(R.color.month_dna_conflict_time_color);
+            WORK_DAY_START_MINUTES = res.getInteger(R.integer.work_start_minutes);
+            WORK_DAY_END_MINUTES = res.getInteger(R.integer.work_end_minutes);
+            WORK_DAY_END_LENGTH = DAY_IN_MINUTES - WORK_DAY_END_MINUTES;
+            WORK_DAY_MINUTES = WORK_DAY_END_MINUTES - WORK_DAY_START_MINUTES;
+            mMinutesLoaded = true;
+        }
     }
 
     /**
@@ -901,283 +1425,36 @@ public class Utils {
     public static HashMap<Integer, DNAStrand> createDNAStrands(int firstJulianDay,
             ArrayList<Event> events, int top, int bottom, int minPixels, int[] dayXs,
             Context context) {
-
-        if (!mMinutesLoaded) {
-            if (context == null) {
-                Log.wtf(TAG, "No context and haven't loaded parameters yet! Can't create DNA.");
-            }
-            Resources res = context.getResources();
-            CONFLICT_COLOR = res.getColor(R.color.month_dna_conflict_time_color);
-            WORK_DAY_START_MINUTES = res.getInteger(R.integer.work_start_minutes);
-            WORK_DAY_END_MINUTES = res.getInteger(R.integer.work_end_minutes);
-            WORK_DAY_END_LENGTH = DAY_IN_MINUTES - WORK_DAY_END_MINUTES;
-            WORK_DAY_MINUTES = WORK_DAY_END_MINUTES - WORK_DAY_START_MINUTES;
-            mMinutesLoaded = true;
-        }
-
-        if (events == null || events.isEmpty() || dayXs == null || dayXs.length < 1
-                || bottom - top < 8 || minPixels < 0) {
-            Log.e(TAG,
-                    "Bad values for createDNAStrands! events:" + events + " dayXs:"
-                            + Arrays.toString(dayXs) + " bot-top:" + (bottom - top) + " minPixels:"
-                            + minPixels);
+        DNAStrandBuilder builder = createDNAStrands(firstJulianDay, events, top, bottom,
+                minPixels, dayXs, context, new DNAStrandBuilder());
+        if (builder == null) {
             return null;
         }
 
-        LinkedList<DNASegment> segments = new LinkedList<DNASegment>();
         HashMap<Integer, DNAStrand> strands = new HashMap<Integer, DNAStrand>();
-        // add a black strand by default, other colors will get added in
-        // the loop
-        DNAStrand blackStrand = new DNAStrand();
-        blackStrand.color = CONFLICT_COLOR;
-        strands.put(CONFLICT_COLOR, blackStrand);
-        // the min length is the number of minutes that will occupy
-        // MIN_SEGMENT_PIXELS in the 'work day' time slot. This computes the
-        // minutes/pixel * minpx where the number of pixels are 3/4 the total
-        // dna height: 4*(mins/(px * 3/4))
-        int minMinutes = minPixels * 4 * WORK_DAY_MINUTES / (3 * (bottom - top));
-
-        // There are slightly fewer than half as many pixels in 1/6 the space,
-        // so round to 2.5x for the min minutes in the non-work area
-        int minOtherMinutes = minMinutes * 5 / 2;
-        int lastJulianDay = firstJulianDay + dayXs.length - 1;
-
-        Event event = new Event();
-        // Go through all the events for the week
-        for (Event currEvent : events) {
-            // if this event is outside the weeks range skip it
-            if (currEvent.endDay < firstJulianDay || currEvent.startDay > lastJulianDay) {
-                continue;
-            }
-            if (currEvent.drawAsAllday()) {
-                addAllDayToStrands(currEvent, strands, firstJulianDay, dayXs.length);
-                continue;
-            }
-            // Copy the event over so we can clip its start and end to our range
-            currEvent.copyTo(event);
-            if (event.startDay < firstJulianDay) {
-                event.startDay = firstJulianDay;
-                event.startTime = 0;
-            }
-            // If it starts after the work day make sure the start is at least
-            // minPixels from midnight
-            if (event.startTime > DAY_IN_MINUTES - minOtherMinutes) {
-                event.startTime = DAY_IN_MINUTES - minOtherMinutes;
-            }
-            if (event.endDay > lastJulianDay) {
-                event.endDay = lastJulianDay;
-                event.endTime = DAY_IN_MINUTES - 1;
-            }
-            // If the end time is before the work day make sure it ends at least
-            // minPixels after midnight
-            if (event.endTime < minOtherMinutes) {
-                event.endTime = minOtherMinutes;
-            }
-            // If the start and end are on the same day make sure they are at
-            // least minPixels apart. This only needs to be done for times
-            // outside the work day as the min distance for within the work day
-            // is enforced in the segment code.
-            if (event.startDay == event.endDay &&
-                    event.endTime - event.startTime < minOtherMinutes) {
-                // If it's less than minPixels in an area before the work
-                // day
-                if (event.startTime < WORK_DAY_START_MINUTES) {
-                    // extend the end to the first easy guarantee that it's
-                    // minPixels
-                    event.endTime = Math.min(event.startTime + minOtherMinutes,
-                            WORK_DAY_START_MINUTES + minMinutes);
-                    // if it's in the area after the work day
-                } else if (event.endTime > WORK_DAY_END_MINUTES) {
-                    // First try shifting the end but not past midnight
-                    event.endTime = Math.min(event.endTime + minOtherMinutes, DAY_IN_MINUTES - 1);
-                    // if it's still too small move the start back
-                    if (event.endTime - event.startTime < minOtherMinutes) {
-                        event.startTime = event.endTime - minOtherMinutes;
-                    }
-                }
-            }
-
-            // This handles adding the first segment
-            if (segments.size() == 0) {
-                addNewSegment(segments, event, strands, firstJulianDay, 0, minMinutes);
-                continue;
-            }
-            // Now compare our current start time to the end time of the last
-            // segment in the list
-            DNASegment lastSegment = segments.getLast();
-            int startMinute = (event.startDay - firstJulianDay) * DAY_IN_MINUTES + event.startTime;
-            int endMinute = Math.max((event.endDay - firstJulianDay) * DAY_IN_MINUTES
-                    + event.endTime, startMinute + minMinutes);
-
-            if (startMinute < 0) {
-                startMinute = 0;
-            }
-            if (endMinute >= WEEK_IN_MINUTES) {
-                endMinute = WEEK_IN_MINUTES - 1;
-            }
-            // If we start before the last segment in the list ends we need to
-            // start going through the list as this may conflict with other
-            // events
-            if (startMinute < lastSegment.endMinute) {
-                int i = segments.size();
-                // find the last segment this event intersects with
-                while (--i >= 0 && endMinute < segments.get(i).startMinute);
-
-                DNASegment currSegment;
-                // for each segment this event intersects with
-                for (; i >= 0 && startMinute <= (currSegment = segments.get(i)).endMinute; i--) {
-                    // if the segment is already a conflict ignore it
-                    if (currSegment.color == CONFLICT_COLOR) {
-                        continue;
-                    }
-                    // if the event ends before the segment and wouldn't create
-                    // a segment that is too small split off the right side
-                    if (endMinute < currSegment.endMinute - minMinutes) {
-                        DNASegment rhs = new DNASegment();
-                        rhs.endMinute = currSegment.endMinute;
-                        rhs.color = currSegment.color;
-                        rhs.startMinute = endMinute + 1;
-                        rhs.day = currSegment.day;
-                        currSegment.endMinute = endMinute;
-                        segments.add(i + 1, rhs);
-                        strands.get(rhs.color).count++;
-                        if (DEBUG) {
-                            Log.d(TAG, "Added rhs, curr:" + currSegment.toString() + " i:"
-                                    + segments.get(i).toString());
-                        }
-                    }
-                    // if the event starts after the segment and wouldn't create
-                    // a segment that is too small split off the left side
-                    if (startMinute > currSegment.startMinute + minMinutes) {
-                        DNASegment lhs = new DNASegment();
-                        lhs.startMinute = currSegment.startMinute;
-                        lhs.color = currSegment.color;
-                        lhs.endMinute = startMinute - 1;
-                        lhs.day = currSegment.day;
-                        currSegment.startMinute = startMinute;
-                        // increment i so that we are at the right position when
-                        // referencing the segments to the right and left of the
-                        // current segment.
-                        segments.add(i++, lhs);
-                        strands.get(lhs.color).count++;
-                        if (DEBUG) {
-                            Log.d(TAG, "Added lhs, curr:" + currSegment.toString() + " i:"
-                                    + segments.get(i).toString());
-                        }
-                    }
-                    // if the right side is black merge this with the segment to
-                    // the right if they're on the same day and overlap
-                    if (i + 1 < segments.size()) {
-                        DNASegment rhs = segments.get(i + 1);
-                        if (rhs.color == CONFLICT_COLOR && currSegment.day == rhs.day
-                                && rhs.startMinute <= currSegment.endMinute + 1) {
-                            rhs.startMinute = Math.min(currSegment.startMinute, rhs.startMinute);
-                            segments.remove(currSegment);
-                            strands.get(currSegment.color).count--;
-                            // point at the new current segment
-                            currSegment = rhs;
-                        }
-                    }
-                    // if the left side is black merge this with the segment to
-                    // the left if they're on the same day and overlap
-                    if (i - 1 >= 0) {
-                        DNASegment lhs = segments.get(i - 1);
-                        if (lhs.color == CONFLICT_COLOR && currSegment.day == lhs.day
-                                && lhs.endMinute >= currSegment.startMinute - 1) {
-                            lhs.endMinute = Math.max(currSegment.endMinute, lhs.endMinute);
-                            segments.remove(currSegment);
-                            strands.get(currSegment.color).count--;
-                            // point at the new current segment
-                            currSegment = lhs;
-                            // point i at the new current segment in case new
-                            // code is added
-                            i--;
-                        }
-                    }
-                    // if we're still not black, decrement the count for the
-                    // color being removed, change this to black, and increment
-                    // the black count
-                    if (currSegment.color != CONFLICT_COLOR) {
-                        strands.get(currSegment.color).count--;
-                        currSegment.color = CONFLICT_COLOR;
-                        strands.get(CONFLICT_COLOR).count++;
-                    }
-                }
-
-            }
-            // If this event extends beyond the last segment add a new segment
-            if (endMinute > lastSegment.endMinute) {
-                addNewSegment(segments, event, strands, firstJulianDay, lastSegment.endMinute,
-                        minMinutes);
-            }
+        for (int i = 0; i < builder.getStrandCount(); i++) {
+            DNAStrand strand = builder.getStrand(i);
+            strands.put(strand.color, strand);
         }
-        weaveDNAStrands(segments, firstJulianDay, strands, top, bottom, dayXs);
-        return strands;
-    }
-
-    // This figures out allDay colors as allDay events are found
-    private static void addAllDayToStrands(Event event, HashMap<Integer, DNAStrand> strands,
-            int firstJulianDay, int numDays) {
-        DNAStrand strand = getOrCreateStrand(strands, CONFLICT_COLOR);
-        // if we haven't initialized the allDay portion create it now
-        if (strand.allDays == null) {
-            strand.allDays = new int[numDays];
-        }
-
-        // For each day this event is on update the color
-        int end = Math.min(event.endDay - firstJulianDay, numDays - 1);
-        for (int i = Math.max(event.startDay - firstJulianDay, 0); i <= end; i++) {
-            if (strand.allDays[i] != 0) {
-                // if this day already had a color, it is now a conflict
-                strand.allDays[i] = CONFLICT_COLOR;
-            } else {
-                // else it's just the color of the event
-                strand.allDays[i] = event.color;
-            }
+        DNAStrand conflictStrand = builder.getConflictStrand();
+        if (conflictStrand != null) {
+            strands.put(conflictStrand.color, conflictStrand);
         }
+        return strands;
     }
 
-    // This processes all the segments, sorts them by color, and generates a
-    // list of points to draw
-    private static void weaveDNAStrands(LinkedList<DNASegment> segments, int firstJulianDay,
-            HashMap<Integer, DNAStrand> strands, int top, int bottom, int[] dayXs) {
-        // First, get rid of any colors that ended up with no segments
-        Iterator<DNAStrand> strandIterator = strands.values().iterator();
-        while (strandIterator.hasNext()) {
-            DNAStrand strand = strandIterator.next();
-            if (strand.count < 1 && strand.allDays == null) {
-                strandIterator.remove();
-                continue;
-            }
-            strand.points = new float[strand.count * 4];
-            strand.position = 0;
-        }
-        // Go through each segment and compute its points
-        for (DNASegment segment : segments) {
-            // Add the points to the strand of that color
-            DNAStrand strand = strands.get(segment.color);
-            int dayIndex = segment.day - firstJulianDay;
-            int dayStartMinute = segment.startMinute % DAY_IN_MINUTES;
-            int dayEndMinute = segment.endMinute % DAY_IN_MINUTES;
-            int height = bottom - top;
-            int workDayHeight = height * 3 / 4;
-            int remainderHeight = (height - workDayHeight) / 2;
-
-            int x = dayXs[dayIndex];
-            int y0 = 0;
-            int y1 = 0;
-
-            y0 = top + getPixelOffsetFromMinutes(dayStartMinute, workDayHeight, remainderHeight);
-            y1 = top + getPixelOffsetFromMinutes(dayEndMinute, workDayHeight, remainderHeight);
-            if (DEBUG) {
-                Log.d(TAG, "Adding " + Integer.toHexString(segment.color) + " at x,y0,y1: " + x
-                        + " " + y0 + " " + y1 + " for " + dayStartMinute + " " + dayEndMinute);
-            }
-            strand.points[strand.position++] = x;
-            strand.points[strand.position++] = y0;
-            strand.points[strand.position++] = x;
-            strand.points[strand.position++] = y1;
-        }
+    /**
+     * The same as
+     * {@link #createDNAStrands(int, ArrayList, int, int, int, int[], Context)},
+     * but the strands are built into the reusable builder.
+     *
+     * @return the builder, or null if there is nothing to draw
+     */
+    public static DNAStrandBuilder createDNAStrands(int firstJulianDay,
+            ArrayList<Event> events, int top, int bottom, int minPixels, int[] dayXs,
+            Context context, DNAStrandBuilder builder) {
+        return builder.build(firstJulianDay, events, top, bottom, minPixels, dayXs, context)
+                ? builder : null;
     }
 
     /**
@@ -1199,75 +1476,6 @@ public class Utils {
         return y;
     }
 
-    /**
-     * Add a new segment based on the event provided. This will handle splitting
-     * segments across day boundaries and ensures a minimum size for segments.
-     */
-    private static void addNewSegment(LinkedList<DNASegment> segments, Event event,
-            HashMap<Integer, DNAStrand> strands, int firstJulianDay, int minStart, int minMinutes) {
-        if (event.startDay > event.endDay) {
-            Log.wtf(TAG, "Event starts after it ends: " + event.toString());
-        }
-        // If this is a multiday event split it up by day
-        if (event.startDay != event.endDay) {
-            Event lhs = new Event();
-            lhs.color = event.color;
-            lhs.startDay = event.startDay;
-            // the first day we want the start time to be the actual start time
-            lhs.startTime = event.startTime;
-            lhs.endDay = lhs.startDay;
-            lhs.endTime = DAY_IN_MINUTES - 1;
-            // Nearly recursive iteration!
-            while (lhs.startDay != event.endDay) {
-                addNewSegment(segments, lhs, strands, firstJulianDay, minStart, minMinutes);
-                // The days in between are all day, even though that shouldn't
-                // actually happen due to the allday filtering
-                lhs.startDay++;
-                lhs.endDay = lhs.startDay;
-                lhs.startTime = 0;
-                minStart = 0;
-            }
-            // The last day we want the end time to be the actual end time
-            lhs.endTime = event.endTime;
-            event = lhs;
-        }
-        // Create the new segment and compute its fields
-        DNASegment segment = new DNASegment();
-        int dayOffset = (event.startDay - firstJulianDay) * DAY_IN_MINUTES;
-        int endOfDay = dayOffset + DAY_IN_MINUTES - 1;
-        // clip the start if needed
-        segment.startMinute = Math.max(dayOffset + event.startTime, minStart);
-        // and extend the end if it's too small, but not beyond the end of the
-        // day
-        int minEnd = Math.min(segment.startMinute + minMinutes, endOfDay);
-        segment.endMinute = Math.max(dayOffset + event.endTime, minEnd);
-        if (segment.endMinute > endOfDay) {
-            segment.endMinute = endOfDay;
-        }
-
-        segment.color = event.color;
-        segment.day = event.startDay;
-        segments.add(segment);
-        // increment the count for the correct color or add a new strand if we
-        // don't have that color yet
-        DNAStrand strand = getOrCreateStrand(strands, segment.color);
-        strand.count++;
-    }
-
-    /**
-     * Try to get a strand of the given color. Create it if it doesn't exist.
-     */
-    private static DNAStrand getOrCreateStrand(HashMap<Integer, DNAStrand> strands, int color) {
-        DNAStrand strand = strands.get(color);
-        if (strand == null) {
-            strand = new DNAStrand();
-            strand.color = color;
-            strand.count = 0;
-            strands.put(strand.color, strand);
-        }
-        return strand;
-    }
-
     /**
      * Sends an intent to launch the top level Calendar view.
      *
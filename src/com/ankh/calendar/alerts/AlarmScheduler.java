@@ -34,20 +34,23 @@ import android.text.format.Time;
 import com.ankh.calendar.Log;
 import com.ankh.calendar.Utils;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Schedules the next EVENT_REMINDER_APP broadcast with AlarmManager, by querying the events
- * and reminders tables for the next upcoming alert.
+ * Schedules the next EVENT_REMINDER_APP broadcast with AlarmManager, from an index of the
+ * upcoming alerts which is built by querying the events and reminders tables.
  */
 public class AlarmScheduler {
     private static final String TAG = "AlarmScheduler";
 
     private static final String INSTANCES_WHERE = Events.VISIBLE + "=? AND "
-            + Instances.BEGIN + ">=? AND " + Instances.BEGIN + "<=? AND "
+            + Instances.BEGIN + ">=? AND " + Instances.BEGIN + "<? AND "
             + Events.ALL_DAY + "=?";
     static final String[] INSTANCES_PROJECTION = new String[] {
         Instances.EVENT_ID,
@@ -82,60 +85,128 @@ public class AlarmScheduler {
     // limit the SQL query length.
     private static final int REMINDER_QUERY_BATCH_SIZE = 50;
 
-    // We really need to query for reminder times that fall in some interval, but
-    // the Reminders table only stores the reminder interval (10min, 15min, etc), and
+    // The Reminders table only stores the reminder interval (10min, 15min, etc), and
     // we cannot do the join with the Events table to calculate the actual alert time
-    // from outside of the provider.  So the best we can do for now consider events
-    // whose start times begin within some interval (ie. 1 week out).  This means
-    // reminders which are configured for more than 1 week out won't fire on time.  We
-    // can minimize this to being only 1 day late by putting a 1 day max on the alarm time.
-    private static final long EVENT_LOOKAHEAD_WINDOW_MS = DateUtils.WEEK_IN_MILLIS;
+    // from outside of the provider.  So the reminders are indexed for the events whose
+    // start times begin within a window from now, which is extended as time goes on.
+    // A reminder configured for up to MAX_EXACT_LEAD_MS before its event fires on
+    // time, because the alarm is never set past the window end minus that lead.
+    static final long MAX_EXACT_LEAD_MS = 4 * DateUtils.WEEK_IN_MILLIS;
+    static final long INDEX_WINDOW_MS = MAX_EXACT_LEAD_MS + DateUtils.WEEK_IN_MILLIS;
+    // The window is extended once it falls this far behind, so at most once a day.
+    private static final long INDEX_SLIDE_MS = DateUtils.DAY_IN_MILLIS;
+    // After the events have changed, only this much of the window is read again at once,
+    // and the rest is read by the next schedules, as much at a time.
+    static final long NEAR_WINDOW_MS = DateUtils.WEEK_IN_MILLIS;
+    // The latest alarm when the window couldn't be extended.
     private static final long MAX_ALARM_ELAPSED_MS = DateUtils.DAY_IN_MILLIS;
 
+    private static final String INDEX_FILE_NAME = "reminder_index";
+
+    // The index of the process, it's read from the file the first time it's needed.
+    private static ReminderIndex sIndex = null;
+
     /**
      * Schedules the nearest upcoming alarm, to refresh notifications.
      *
      * This is historically done in the provider but we dupe this here so the unbundled
-     * app will work on devices that have modified this portion of the provider.  This
-     * has the limitation of querying events within some interval from now (ie. looks at
-     * reminders for all events occurring in the next week).  This means for example,
-     * a 2 week notification will not fire on time.
+     * app will work on devices that have modified this portion of the provider.  The
+     * upcoming reminders are kept in an index which is saved across restarts, so this
+     * only reads the first reminder unless the window of the index has to be extended.
      */
     public static void scheduleNextAlarm(Context context) {
-        scheduleNextAlarm(context, AlertUtils.createAlarmManager(context),
-                REMINDER_QUERY_BATCH_SIZE, System.currentTimeMillis());
+        scheduleNextAlarm(context, false);
+    }
+
+    /**
+     * Schedules the nearest upcoming alarm, reading the reminders from the provider
+     * again first if the events may have changed.  The provider doesn't tell which
+     * events have changed, so the window is read again, from its near part, and the rest
+     * of it is read as the window slides.
+     */
+    public static synchronized void scheduleNextAlarm(Context context, boolean eventsChanged) {
+        File file = new File(context.getFilesDir(), INDEX_FILE_NAME);
+        if (sIndex == null) {
+            sIndex = ReminderIndex.read(file);
+            if (sIndex == null) {
+                sIndex = new ReminderIndex();
+            }
+        }
+
+        scheduleNextAlarm(context, AlertUtils.createAlarmManager(context), sIndex,
+                eventsChanged, REMINDER_QUERY_BATCH_SIZE, System.currentTimeMillis());
+
+        if (sIndex.isDirty()) {
+            try {
+                sIndex.write(file);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write " + file, e);
+            }
+        }
     }
 
     // VisibleForTesting
     static void scheduleNextAlarm(Context context, AlarmManagerInterface alarmManager,
             int batchSize, long currentMillis) {
-        Cursor instancesCursor = null;
-        try {
-            instancesCursor = queryUpcomingEvents(context, context.getContentResolver(),
-                    currentMillis);
-            if (instancesCursor != null) {
-                queryNextReminderAndSchedule(instancesCursor, context,
-                        context.getContentResolver(), alarmManager, batchSize, currentMillis);
+        scheduleNextAlarm(context, alarmManager, new ReminderIndex(), true, batchSize,
+                currentMillis);
+    }
+
+    // VisibleForTesting
+    static void scheduleNextAlarm(Context context, AlarmManagerInterface alarmManager,
+            ReminderIndex index, boolean eventsChanged, int batchSize, long currentMillis) {
+        // All-day events are indexed in local time, so they move with the time zone.
+        String timezone = Time.getCurrentTimezone();
+        long windowEnd = currentMillis + INDEX_WINDOW_MS;
+        if (!index.covers(currentMillis, timezone)) {
+            index.reset(currentMillis, timezone);
+        } else {
+            if (eventsChanged) {
+                index.reset(currentMillis, timezone);
             }
-        } finally {
-            if (instancesCursor != null) {
-                instancesCursor.close();
+            // Every change would read the whole window again otherwise, so it's grown
+            // from the near part.  The alarms are capped to a day meanwhile.
+            windowEnd = Math.min(windowEnd, index.getWindowEnd() + NEAR_WINDOW_MS);
+        }
+        index.removeUpTo(currentMillis);
+
+        if (windowEnd - index.getWindowEnd() >= INDEX_SLIDE_MS) {
+            ContentResolver contentResolver = context.getContentResolver();
+            Cursor instancesCursor = null;
+            try {
+                instancesCursor = queryUpcomingEvents(context, contentResolver,
+                        index.getWindowEnd(), windowEnd);
+                if (instancesCursor != null) {
+                    queryRemindersAndExtend(instancesCursor, contentResolver, index, windowEnd,
+                            batchSize, currentMillis);
+                }
+            } finally {
+                if (instancesCursor != null) {
+                    instancesCursor.close();
+                }
             }
         }
+
+        // Schedule the alarm for the next reminder time.
+        long nextAlarmTime = index.getNextAlarmTime();
+        if (nextAlarmTime < Long.MAX_VALUE) {
+            long maxAlarmTime = Math.max(index.getWindowEnd() - MAX_EXACT_LEAD_MS,
+                    currentMillis + MAX_ALARM_ELAPSED_MS);
+            scheduleAlarm(context, index.getNextEventId(), nextAlarmTime, maxAlarmTime,
+                    alarmManager);
+        }
     }
 
     /**
-     * Queries events starting within a fixed interval from now.
+     * Queries events starting from localStartMin until before localStartMax.
      */
     private static Cursor queryUpcomingEvents(Context context, ContentResolver contentResolver,
-            long currentMillis) {
+            long localStartMin, long localStartMax) {
         Time time = new Time();
         time.normalize(false);
         long localOffset = time.gmtoff * 1000;
-        final long localStartMin = currentMillis;
-        final long localStartMax = localStartMin + EVENT_LOOKAHEAD_WINDOW_MS;
         final long utcStartMin = localStartMin - localOffset;
-        final long utcStartMax = utcStartMin + EVENT_LOOKAHEAD_WINDOW_MS;
+        final long utcStartMax = localStartMax - localOffset;
 
         // Expand Instances table range by a day on either end to account for
         // all-day events.
@@ -143,7 +214,7 @@ public class AlarmScheduler {
         ContentUris.appendId(uriBuilder, localStartMin - DateUtils.DAY_IN_MILLIS);
         ContentUris.appendId(uriBuilder, localStartMax + DateUtils.DAY_IN_MILLIS);
 
-        // Build query for all events starting within the fixed interval.
+        // Build query for all events starting within the interval.
         StringBuilder queryBuilder = new StringBuilder();
         queryBuilder.append("(");
         queryBuilder.append(INSTANCES_WHERE);
@@ -154,13 +225,13 @@ public class AlarmScheduler {
                 // allday selection
                 "1",                           /* visible = ? */
                 String.valueOf(utcStartMin),   /* begin >= ? */
-                String.valueOf(utcStartMax),   /* begin <= ? */
+                String.valueOf(utcStartMax),   /* begin < ? */
                 "1",                           /* allDay = ? */
 
                 // non-allday selection
                 "1",                           /* visible = ? */
                 String.valueOf(localStartMin), /* begin >= ? */
-                String.valueOf(localStartMax), /* begin <= ? */
+                String.valueOf(localStartMax), /* begin < ? */
                 "0"                            /* allDay = ? */
         };
 
@@ -170,27 +241,32 @@ public class AlarmScheduler {
     }
 
     /**
-     * Queries for all the reminders of the events in the instancesCursor, and schedules
-     * the alarm for the next upcoming reminder.
+     * Queries for all the reminders of the events in the instancesCursor, and adds the
+     * upcoming ones to the index, whose window then ends at windowEnd.
      */
-    private static void queryNextReminderAndSchedule(Cursor instancesCursor, Context context,
-            ContentResolver contentResolver, AlarmManagerInterface alarmManager,
+    private static void queryRemindersAndExtend(Cursor instancesCursor,
+            ContentResolver contentResolver, ReminderIndex reminderIndex, long windowEnd,
             int batchSize, long currentMillis) {
         if (AlertService.DEBUG) {
             int eventCount = instancesCursor.getCount();
             if (eventCount == 0) {
-                Log.d(TAG, "No events found starting within 1 week.");
+                Log.d(TAG, "No events found starting until " + windowEnd);
             } else {
-                Log.d(TAG, "Query result count for events starting within 1 week: " + eventCount);
+                Log.d(TAG, "Query result count for events starting until " + windowEnd + ": "
+                        + eventCount);
             }
         }
 
+        // The upcoming reminders, which are added to the index at once.
+        int count = 0;
+        long[] alarmTimes = new long[16];
+        long[] eventIds = new long[16];
+        long[] begins = new long[16];
+
         // Put query results of all events starting within some interval into map of event ID to
         // local start time.
         Map<Integer, List<Long>> eventMap = new HashMap<Integer, List<Long>>();
         Time timeObj = new Time();
-        long nextAlarmTime = Long.MAX_VALUE;
-        int nextAlarmEventId = 0;
         instancesCursor.moveToPosition(-1);
         while (!instancesCursor.isAfterLast()) {
             int index = 0;
@@ -250,9 +326,16 @@ public class AlarmScheduler {
                         for (Long startTime : startTimes) {
                             long alarmTime = startTime -
                                     reminderMinutes * DateUtils.MINUTE_IN_MILLIS;
-                            if (alarmTime > currentMillis && alarmTime < nextAlarmTime) {
-                                nextAlarmTime = alarmTime;
-                                nextAlarmEventId = eventId;
+                            if (alarmTime > currentMillis) {
+                                if (count == alarmTimes.length) {
+                                    alarmTimes = Arrays.copyOf(alarmTimes, count * 2);
+                                    eventIds = Arrays.copyOf(eventIds, count * 2);
+                                    begins = Arrays.copyOf(begins, count * 2);
+                                }
+                                alarmTimes[count] = alarmTime;
+                                eventIds[count] = eventId;
+                                begins[count] = startTime;
+                                count++;
                             }
 
                             if (Log.isLoggable(TAG, Log.DEBUG)) {
@@ -276,10 +359,7 @@ public class AlarmScheduler {
             }
         }
 
-        // Schedule the alarm for the next reminder time.
-        if (nextAlarmTime < Long.MAX_VALUE) {
-            scheduleAlarm(context, nextAlarmEventId, nextAlarmTime, currentMillis, alarmManager);
-        }
+        reminderIndex.extend(windowEnd, alarmTimes, eventIds, begins, count);
     }
 
     /**
@@ -288,11 +368,10 @@ public class AlarmScheduler {
      * from the provider).
      */
     private static void scheduleAlarm(Context context, long eventId, long alarmTime,
-            long currentMillis, AlarmManagerInterface alarmManager) {
-        // Max out the alarm time to 1 day out, so an alert for an event far in the future
-        // (not present in our event query results for a limited range) can only be at
-        // most 1 day late.
-        long maxAlarmTime = currentMillis + MAX_ALARM_ELAPSED_MS;
+            long maxAlarmTime, AlarmManagerInterface alarmManager) {
+        // Max out the alarm time, so the reminders of the events which begin after the
+        // window, and aren't indexed yet, can't come before it.  The window is extended
+        // when the alarm goes off.
         if (alarmTime > maxAlarmTime) {
             alarmTime = maxAlarmTime;
         }
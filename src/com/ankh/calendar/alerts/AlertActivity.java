@@ -282,6 +282,7 @@ public class AlertActivity extends Activity implements OnClickListener {
             NotificationManager nm =
                 (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
             nm.cancelAll();
+            AlertService.onNotificationsCancelled();
 
             dismissFiredAlarms();
 
@@ -39,6 +39,7 @@ import android.text.TextUtils;
 import android.text.style.RelativeSizeSpan;
 import android.text.style.TextAppearanceSpan;
 import android.text.style.URLSpan;
+import android.util.LruCache;
 import android.view.View;
 import android.widget.RemoteViews;
 
@@ -90,6 +91,39 @@ public class AlertReceiver extends BroadcastReceiver {
     private static final String TEL_PREFIX = "tel:";
     private static final int MAX_NOTIF_ACTIONS = 3;
 
+    // The prepared contents of the notifications of the latest events.  They're read
+    // again after the provider has changed, since the events don't tell when they were
+    // modified.
+    private static final int MAX_CACHED_CONTENTS = 2 * AlertService.MAX_NOTIFICATIONS;
+    private static final LruCache<Long, EventContent> sContentCache =
+            new LruCache<Long, EventContent>(MAX_CACHED_CONTENTS);
+    // Incremented when the cache is cleared, so the contents which were being read
+    // before aren't cached.
+    private static int sContentGeneration = 0;
+
+    /**
+     * What the notification of an event shows besides the alert: the links in the
+     * location for the map and call actions, the attendees who can be emailed, and the
+     * description without blank lines.
+     */
+    private static class EventContent {
+        URLSpan[] urlSpans;
+        List<String> emails;
+        private String mRawDescription;
+        private String mDescription;
+
+        synchronized String getDescription(String description) {
+            if (description == null) {
+                return null;
+            }
+            if (!description.equals(mRawDescription)) {
+                mRawDescription = description;
+                mDescription = mBlankLinePattern.matcher(description).replaceAll("").trim();
+            }
+            return mDescription;
+        }
+    }
+
     private static Handler sAsyncHandler;
     static {
         HandlerThread thr = new HandlerThread("AlertReceiver async");
@@ -118,6 +152,7 @@ public class AlertReceiver extends BroadcastReceiver {
                     // No location was found, so update all notifications.
                     // Our alert service does not currently allow us to specify only one
                     // specific notification to refresh.
+                    sContentCache.remove(eventId);
                     AlertService.updateAlertNotification(context);
                 }
             }
@@ -137,6 +172,7 @@ public class AlertReceiver extends BroadcastReceiver {
                     // No call location was found, so update all notifications.
                     // Our alert service does not currently allow us to specify only one
                     // specific notification to refresh.
+                    sContentCache.remove(eventId);
                     AlertService.updateAlertNotification(context);
                 }
             }
@@ -261,14 +297,14 @@ public class AlertReceiver extends BroadcastReceiver {
             int notificationId, boolean doPopup, int priority) {
         Notification n = buildBasicNotification(new Notification.Builder(context),
                 context, title, summaryText, startMillis, endMillis, eventId, notificationId,
-                doPopup, priority, false);
+                doPopup, priority, null);
         return new NotificationWrapper(n, notificationId, eventId, startMillis, endMillis, doPopup);
     }
 
     private static Notification buildBasicNotification(Notification.Builder notificationBuilder,
             Context context, String title, String summaryText, long startMillis, long endMillis,
             long eventId, int notificationId, boolean doPopup, int priority,
-            boolean addActionButtons) {
+            EventContent actionContent) {
         Resources resources = context.getResources();
         if (title == null || title.length() == 0) {
             title = resources.getString(R.string.no_title_label);
@@ -294,19 +330,19 @@ public class AlertReceiver extends BroadcastReceiver {
         }
 
         PendingIntent mapIntent = null, callIntent = null, snoozeIntent = null, emailIntent = null;
-        if (addActionButtons) {
+        if (actionContent != null) {
             // Send map, call, and email intent back to ourself first for a couple reasons:
             // 1) Workaround issue where clicking action button in notification does
             //    not automatically close the notification shade.
             // 2) Event information will always be up to date.
 
             // Create map and/or call intents.
-            URLSpan[] urlSpans = getURLSpans(context, eventId);
+            URLSpan[] urlSpans = actionContent.urlSpans;
             mapIntent = createMapBroadcastIntent(context, urlSpans, eventId);
             callIntent = createCallBroadcastIntent(context, urlSpans, eventId);
 
             // Create email intent for emailing attendees.
-            emailIntent = createBroadcastMailIntent(context, eventId, title);
+            emailIntent = createBroadcastMailIntent(context, eventId, actionContent.emails);
 
             // Create snooze intent.  TODO: change snooze to 10 minutes.
             snoozeIntent = createSnoozeIntent(context, eventId, startMillis, endMillis,
@@ -411,17 +447,15 @@ public class AlertReceiver extends BroadcastReceiver {
     public static NotificationWrapper makeExpandingNotification(Context context, String title,
             String summaryText, String description, long startMillis, long endMillis, long eventId,
             int notificationId, boolean doPopup, int priority) {
+        EventContent content = getEventContent(context, eventId);
         Notification.Builder basicBuilder = new Notification.Builder(context);
         Notification notification = buildBasicNotification(basicBuilder, context, title,
                 summaryText, startMillis, endMillis, eventId, notificationId, doPopup,
-                priority, true);
+                priority, content);
         if (Utils.isJellybeanOrLater()) {
             // Create a new-style expanded notification
             Notification.BigTextStyle expandedBuilder = new Notification.BigTextStyle();
-            if (description != null) {
-                description = mBlankLinePattern.matcher(description).replaceAll("");
-                description = description.trim();
-            }
+            description = content.getDescription(description);
             CharSequence text;
             if (TextUtils.isEmpty(description)) {
                 text = summaryText;
@@ -623,11 +657,47 @@ public class AlertReceiver extends BroadcastReceiver {
     }
 
     /**
-     * Creates a broadcast pending intent that fires to AlertReceiver when the email button
-     * is clicked.
+     * Returns the prepared content of the notification of the event, reading it from the
+     * provider if it isn't cached.
      */
-    private static PendingIntent createBroadcastMailIntent(Context context, long eventId,
-            String eventTitle) {
+    private static EventContent getEventContent(Context context, long eventId) {
+        int generation;
+        synchronized (sContentCache) {
+            EventContent content = sContentCache.get(eventId);
+            if (content != null) {
+                return content;
+            }
+            generation = sContentGeneration;
+        }
+
+        EventContent content = new EventContent();
+        content.urlSpans = getURLSpans(context, eventId);
+        content.emails = getEmailableAttendees(context, eventId);
+
+        synchronized (sContentCache) {
+            if (generation == sContentGeneration) {
+                sContentCache.put(eventId, content);
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Drops the prepared contents of the notifications, after the events may have
+     * changed.
+     */
+    static void clearContentCache() {
+        synchronized (sContentCache) {
+            sContentCache.evictAll();
+            sContentGeneration++;
+        }
+    }
+
+    /**
+     * Returns the emails of the attendees of the event which can be emailed from its
+     * account.
+     */
+    private static List<String> getEmailableAttendees(Context context, long eventId) {
         // Query for viewer account.
         String syncAccount = null;
         Cursor eventCursor = getEventCursor(context, eventId);
@@ -642,28 +712,37 @@ public class AlertReceiver extends BroadcastReceiver {
         }
 
         // Query attendees to see if there are any to email.
+        List<String> emails = new ArrayList<String>();
         Cursor attendeesCursor = getAttendeesCursor(context, eventId);
         try {
             if (attendeesCursor != null && attendeesCursor.moveToFirst()) {
                 do {
-                    String email = attendeesCursor.getString(ATTENDEES_INDEX_EMAIL);
-                    if (Utils.isEmailableFrom(email, syncAccount)) {
-                        Intent broadcastIntent = new Intent(MAIL_ACTION);
-                        broadcastIntent.setClass(context, AlertReceiver.class);
-                        broadcastIntent.putExtra(EXTRA_EVENT_ID, eventId);
-                        return PendingIntent.getBroadcast(context,
-                                Long.valueOf(eventId).hashCode(), broadcastIntent,
-                                PendingIntent.FLAG_CANCEL_CURRENT);
-                    }
+                    addIfEmailable(emails, attendeesCursor.getString(ATTENDEES_INDEX_EMAIL),
+                            syncAccount);
                 } while (attendeesCursor.moveToNext());
             }
-            return null;
-
         } finally {
             if (attendeesCursor != null) {
                 attendeesCursor.close();
             }
         }
+        return emails;
+    }
+
+    /**
+     * Creates a broadcast pending intent that fires to AlertReceiver when the email button
+     * is clicked, or null if there are no attendees to email.
+     */
+    private static PendingIntent createBroadcastMailIntent(Context context, long eventId,
+            List<String> emails) {
+        if (emails.isEmpty()) {
+            return null;
+        }
+        Intent broadcastIntent = new Intent(MAIL_ACTION);
+        broadcastIntent.setClass(context, AlertReceiver.class);
+        broadcastIntent.putExtra(EXTRA_EVENT_ID, eventId);
+        return PendingIntent.getBroadcast(context, Long.valueOf(eventId).hashCode(),
+                broadcastIntent, PendingIntent.FLAG_CANCEL_CURRENT);
     }
 
     /**
@@ -48,6 +48,7 @@ import com.ankh.calendar.R;
 import com.ankh.calendar.Utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.TimeZone;
@@ -170,6 +171,111 @@ public class AlertService extends Service {
         }
     }
 
+    /**
+     * The notifications which are posted, by notification id, so a refresh only posts
+     * and cancels the notifications which have changed.  Until a refresh has posted or
+     * cancelled an id, it may be posted with anything.
+     */
+    static class PostedNotifications {
+        // The key of an id which may or may not be posted.
+        private static final Object UNKNOWN = new Object();
+
+        // The key of the notification of every id, or null if it isn't posted.
+        private final Object[] mKeys = new Object[MAX_NOTIFICATIONS + 1];
+
+        PostedNotifications() {
+            Arrays.fill(mKeys, UNKNOWN);
+        }
+
+        /**
+         * Returns whether the id is posted with the key.
+         */
+        synchronized boolean isPosted(int id, Object key) {
+            return key.equals(mKeys[id]);
+        }
+
+        /**
+         * Returns whether the id may be posted, so it has to be cancelled.
+         */
+        synchronized boolean mayBePosted(int id) {
+            return mKeys[id] != null;
+        }
+
+        synchronized void setPosted(int id, Object key) {
+            mKeys[id] = key;
+        }
+
+        /**
+         * Records that every notification has been cancelled.
+         */
+        synchronized void clear() {
+            Arrays.fill(mKeys, null);
+        }
+    }
+
+    /**
+     * Tells the notifications of the alerts apart, by the instance, the priority and the
+     * texts which are shown.
+     */
+    private static class NotificationKey {
+        private final long mEventId;
+        private final long mStartMillis;
+        private final long mEndMillis;
+        private final boolean mHighPriority;
+        private final String mSummaryText;
+        private final String mEventName;
+        private final String mDescription;
+
+        NotificationKey(NotificationInfo info, boolean highPriority, String summaryText) {
+            mEventId = info.eventId;
+            mStartMillis = info.startMillis;
+            mEndMillis = info.endMillis;
+            mHighPriority = highPriority;
+            mSummaryText = summaryText;
+            mEventName = info.eventName;
+            mDescription = info.description;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NotificationKey)) {
+                return false;
+            }
+            NotificationKey other = (NotificationKey) o;
+            return mEventId == other.mEventId && mStartMillis == other.mStartMillis
+                    && mEndMillis == other.mEndMillis && mHighPriority == other.mHighPriority
+                    && TextUtils.equals(mSummaryText, other.mSummaryText)
+                    && TextUtils.equals(mEventName, other.mEventName)
+                    && TextUtils.equals(mDescription, other.mDescription);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (mEventId ^ (mEventId >>> 32)) * 31
+                    + (int) (mStartMillis ^ (mStartMillis >>> 32));
+        }
+    }
+
+    // The notifications posted by updateAlertNotification.
+    private static final PostedNotifications sPostedNotifications = new PostedNotifications();
+
+    /**
+     * Records that the notifications of the alerts have been cancelled outside of a
+     * refresh.
+     */
+    static void onNotificationsCancelled() {
+        sPostedNotifications.clear();
+    }
+
+    /**
+     * Records that the notification has been cancelled outside of a refresh.
+     */
+    static void onNotificationCancelled(int notificationId) {
+        if (notificationId >= 0 && notificationId <= MAX_NOTIFICATIONS) {
+            sPostedNotifications.setPosted(notificationId, null);
+        }
+    }
+
     void processMessage(Message msg) {
         Bundle bundle = (Bundle) msg.obj;
 
@@ -223,6 +329,11 @@ public class AlertService extends Service {
             // TODO(psliwowski): Find a quicker way to be notified when the data provider has the
             // syncId for event.
             GlobalDismissManager.syncSenderDismissCache(this);
+            if (action.equals(Intent.ACTION_PROVIDER_CHANGED)
+                    || action.equals(Intent.ACTION_LOCALE_CHANGED)) {
+                // The events may have changed, or the links are found differently.
+                AlertReceiver.clearContentCache();
+            }
             updateAlertNotification(this);
         } else if (action.equals(Intent.ACTION_BOOT_COMPLETED)) {
             // The provider usually initiates this setting up of alarms on startup,
@@ -240,15 +351,38 @@ public class AlertService extends Service {
             doTimeChanged();
         } else if (action.equals(AlertReceiver.ACTION_DISMISS_OLD_REMINDERS)) {
             dismissOldAlerts(this);
-        } else {
+        } else if (!action.equals(TherapyReminderScheduler.ACTION_THERAPY_REMINDER)
+                && !action.equals(Intent.ACTION_TIMEZONE_CHANGED)) {
             Log.w(TAG, "Invalid action: " + action);
         }
 
+        // The therapy doses aren't in the provider, they're scheduled apart.
+        TherapyReminderScheduler therapyScheduler = TherapyReminderScheduler.getInstance(this);
+        if (action.equals(TherapyReminderScheduler.ACTION_THERAPY_REMINDER)) {
+            long currentMillis = System.currentTimeMillis();
+            therapyScheduler.onAlarm(bundle.getLong(CalendarContract.CalendarAlerts.ALARM_TIME,
+                    currentMillis), currentMillis);
+        } else if (action.equals(Intent.ACTION_BOOT_COMPLETED)
+                || action.equals(Intent.ACTION_TIME_CHANGED)
+                || action.equals(Intent.ACTION_TIMEZONE_CHANGED)) {
+            // The alarms are gone after a reboot, and the doses are at other
+            // times after the clock or the time zone is changed.
+            therapyScheduler.reload(System.currentTimeMillis());
+        } else {
+            therapyScheduler.scheduleNextAlarm(System.currentTimeMillis());
+        }
+
         // Schedule the alarm for the next upcoming reminder, if not done by the provider.
         if (sReceivedProviderReminderBroadcast == null || !sReceivedProviderReminderBroadcast) {
             Log.d(TAG, "Scheduling next alarm with AlarmScheduler. "
                    + "sEventReminderReceived: " + sReceivedProviderReminderBroadcast);
-            AlarmScheduler.scheduleNextAlarm(this);
+            // The upcoming reminders are read again only when the events may have
+            // changed, or the alarm times moved, since they were indexed.
+            boolean eventsChanged = action.equals(Intent.ACTION_PROVIDER_CHANGED)
+                    || action.equals(Intent.ACTION_BOOT_COMPLETED)
+                    || action.equals(Intent.ACTION_TIME_CHANGED)
+                    || action.equals(Intent.ACTION_TIMEZONE_CHANGED);
+            AlarmScheduler.scheduleNextAlarm(this, eventsChanged);
         }
     }
 
@@ -281,6 +415,7 @@ public class AlertService extends Service {
             // If we shouldn't be showing notifications cancel any existing ones
             // and return.
             nm.cancelAll();
+            sPostedNotifications.clear();
             return true;
         }
 
@@ -297,16 +432,32 @@ public class AlertService extends Service {
 
             if (DEBUG) Log.d(TAG, "No fired or scheduled alerts");
             nm.cancelAll();
+            sPostedNotifications.clear();
             return false;
         }
 
-        return generateAlerts(context, nm, AlertUtils.createAlarmManager(context), prefs,
-                alertCursor, currentTime, MAX_NOTIFICATIONS);
+        // The refreshes are run one at a time, so they see the notifications posted
+        // by the one before.
+        synchronized (sPostedNotifications) {
+            return generateAlerts(context, nm, AlertUtils.createAlarmManager(context), prefs,
+                    alertCursor, currentTime, MAX_NOTIFICATIONS, sPostedNotifications);
+        }
     }
 
     public static boolean generateAlerts(Context context, NotificationMgr nm,
             AlarmManagerInterface alarmMgr, SharedPreferences prefs, Cursor alertCursor,
             final long currentTime, final int maxNotifications) {
+        return generateAlerts(context, nm, alarmMgr, prefs, alertCursor, currentTime,
+                maxNotifications, new PostedNotifications());
+    }
+
+    /**
+     * Posts the notifications of the alerts, except the ones which are posted already as
+     * they are, and cancels the other ones which are posted.
+     */
+    static boolean generateAlerts(Context context, NotificationMgr nm,
+            AlarmManagerInterface alarmMgr, SharedPreferences prefs, Cursor alertCursor,
+            final long currentTime, final int maxNotifications, PostedNotifications posted) {
         if (DEBUG) {
             Log.d(TAG, "alertCursor count:" + alertCursor.getCount());
         }
@@ -321,6 +472,7 @@ public class AlertService extends Service {
         if (highPriorityEvents.size() + mediumPriorityEvents.size()
                 + lowPriorityEvents.size() == 0) {
             nm.cancelAll();
+            posted.clear();
             return true;
         }
 
@@ -341,8 +493,14 @@ public class AlertService extends Service {
             NotificationInfo info = highPriorityEvents.get(i);
             String summaryText = AlertUtils.formatTimeLocation(context, info.startMillis,
                     info.allDay, info.location);
-            postNotification(info, summaryText, context, true, notificationPrefs, nm,
-                    currentNotificationId++);
+            int notificationId = currentNotificationId++;
+            NotificationKey key = new NotificationKey(info, true, summaryText);
+            // A new alert is posted again to ring.
+            if (info.newAlert || !posted.isPosted(notificationId, key)) {
+                postNotification(info, summaryText, context, true, notificationPrefs, nm,
+                        notificationId);
+                posted.setPosted(notificationId, key);
+            }
 
             // Keep concurrent events high priority (to appear higher in the notification list)
             // until 15 minutes into the event.
@@ -360,8 +518,13 @@ public class AlertService extends Service {
             // This requires constant refreshing to the message as time goes.
             String summaryText = AlertUtils.formatTimeLocation(context, info.startMillis,
                     info.allDay, info.location);
-            postNotification(info, summaryText, context, false, notificationPrefs, nm,
-                    currentNotificationId++);
+            int notificationId = currentNotificationId++;
+            NotificationKey key = new NotificationKey(info, false, summaryText);
+            if (info.newAlert || !posted.isPosted(notificationId, key)) {
+                postNotification(info, summaryText, context, false, notificationPrefs, nm,
+                        notificationId);
+                posted.setPosted(notificationId, key);
+            }
 
             // Refresh when concurrent event ends so it will drop into the expired digest.
             nextRefreshTime = Math.min(nextRefreshTime, getNextRefreshTime(info, currentTime));
@@ -371,48 +534,63 @@ public class AlertService extends Service {
         int numLowPriority = lowPriorityEvents.size();
         if (numLowPriority > 0) {
             String expiredDigestTitle = getDigestTitle(lowPriorityEvents);
-            NotificationWrapper notification;
-            if (numLowPriority == 1) {
-                // If only 1 expired event, display an "old-style" basic alert.
-                NotificationInfo info = lowPriorityEvents.get(0);
-                String summaryText = AlertUtils.formatTimeLocation(context, info.startMillis,
-                        info.allDay, info.location);
-                notification = AlertReceiver.makeBasicNotification(context, info.eventName,
-                        summaryText, info.startMillis, info.endMillis, info.eventId,
-                        AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, false,
-                        Notification.PRIORITY_MIN);
-            } else {
-                // Multiple expired events are listed in a digest.
-                notification = AlertReceiver.makeDigestNotification(context,
-                    lowPriorityEvents, expiredDigestTitle, false);
+
+            // The digest is the same as long as the lines of its events are.
+            ArrayList<NotificationKey> digestKey = new ArrayList<NotificationKey>();
+            for (NotificationInfo info : lowPriorityEvents) {
+                digestKey.add(new NotificationKey(info, false,
+                        AlertUtils.formatTimeLocation(context, info.startMillis, info.allDay,
+                                info.location)));
             }
 
-            // Add options for a quiet update.
-            addNotificationOptions(notification, true, expiredDigestTitle,
-                    notificationPrefs.getDefaultVibrate(),
-                    notificationPrefs.getRingtoneAndSilence(),
-                    false); /* Do not show the LED for the expired events. */
+            if (!posted.isPosted(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, digestKey)) {
+                NotificationWrapper notification;
+                if (numLowPriority == 1) {
+                    // If only 1 expired event, display an "old-style" basic alert.
+                    NotificationInfo info = lowPriorityEvents.get(0);
+                    String summaryText = digestKey.get(0).mSummaryText;
+                    notification = AlertReceiver.makeBasicNotification(context,
+                            info.eventName, summaryText, info.startMillis, info.endMillis,
+                            info.eventId, AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, false,
+                            Notification.PRIORITY_MIN);
+                } else {
+                    // Multiple expired events are listed in a digest.
+                    notification = AlertReceiver.makeDigestNotification(context,
+                        lowPriorityEvents, expiredDigestTitle, false);
+                }
 
-            if (DEBUG) {
-              Log.d(TAG, "Quietly posting digest alarm notification, numEvents:" + numLowPriority
-                      + ", notificationId:" + AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID);
-          }
+                // Add options for a quiet update.
+                addNotificationOptions(notification, true, expiredDigestTitle,
+                        notificationPrefs.getDefaultVibrate(),
+                        notificationPrefs.getRingtoneAndSilence(),
+                        false); /* Do not show the LED for the expired events. */
 
-            // Post the new notification for the group.
-            nm.notify(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, notification);
-        } else {
+                if (DEBUG) {
+                    Log.d(TAG, "Quietly posting digest alarm notification, numEvents:"
+                            + numLowPriority + ", notificationId:"
+                            + AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID);
+                }
+
+                // Post the new notification for the group.
+                nm.notify(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, notification);
+                posted.setPosted(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, digestKey);
+            }
+        } else if (posted.mayBePosted(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID)) {
             nm.cancel(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID);
+            posted.setPosted(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, null);
             if (DEBUG) {
                 Log.d(TAG, "No low priority events, canceling the digest notification.");
             }
         }
 
         // Remove the notifications that are hanging around from the previous refresh.
-        if (currentNotificationId <= maxNotifications) {
-            nm.cancelAllBetween(currentNotificationId, maxNotifications);
-            if (DEBUG) {
-                Log.d(TAG, "Canceling leftover notification IDs " + currentNotificationId + "-"
-                        + maxNotifications);
+        for (int id = currentNotificationId; id <= maxNotifications; id++) {
+            if (posted.mayBePosted(id)) {
+                nm.cancel(id);
+                posted.setPosted(id, null);
+                if (DEBUG) {
+                    Log.d(TAG, "Canceling leftover notification ID " + id);
+                }
             }
         }
 
@@ -659,10 +837,10 @@ public class AlertService extends Service {
                 if (AlertUtils.BYPASS_DB && ((currentTime - alarmTime) / MINUTE_MS < 1)) {
                     // To avoid re-firing alerts, only fire if alarmTime is very recent.  Otherwise
                     // we can get refires for non-dismissed alerts after app installation, or if the
-                    // SharedPrefs was cleared too early.  This means alerts that were timed while
+                    // ledger was flushed too early.  This means alerts that were timed while
                     // the phone was off may show up silently in the notification bar.
-                    boolean alreadyFired = AlertUtils.hasAlertFiredInSharedPrefs(context, eventId,
-                            beginTime, alarmTime);
+                    boolean alreadyFired = AlertUtils.hasAlertFired(context, eventId, beginTime,
+                            alarmTime);
                     if (!alreadyFired) {
                         newAlertOverride = true;
                     }
@@ -732,8 +910,7 @@ public class AlertService extends Service {
                     state = newState;
 
                     if (AlertUtils.BYPASS_DB) {
-                        AlertUtils.setAlertFiredInSharedPrefs(context, eventId, beginTime,
-                                alarmTime);
+                        AlertUtils.setAlertFired(context, eventId, beginTime, alarmTime);
                     }
                 }
 
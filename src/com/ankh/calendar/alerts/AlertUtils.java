@@ -36,8 +36,9 @@ import com.ankh.calendar.Log;
 import com.ankh.calendar.R;
 import com.ankh.calendar.Utils;
 
+import java.io.File;
 import java.util.Locale;
-import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 public class AlertUtils {
@@ -62,23 +63,25 @@ public class AlertUtils {
     // alerts from other apps.
     static boolean BYPASS_DB = true;
 
-    // SharedPrefs table name for storing fired alerts.  This prevents other installed
-    // Calendar apps from eating the alerts.
+    // SharedPrefs table name where the fired alerts were stored before the ledger.
     private static final String ALERTS_SHARED_PREFS_NAME = "calendar_alerts";
 
-    // Keyname prefix for the alerts data in SharedPrefs.  The key will contain a combo
-    // of event ID, begin time, and alarm time.  The value will be the fired time.
+    // Keyname prefix for the alerts data in SharedPrefs.  The key contains a combo
+    // of event ID, begin time, and alarm time.  The value is the alarm time.
     private static final String KEY_FIRED_ALERT_PREFIX = "preference_alert_";
 
-    // The last time the SharedPrefs was scanned and flushed of old alerts data.
-    private static final String KEY_LAST_FLUSH_TIME_MS = "preference_flushTimeMs";
+    // File name of the ledger of fired alerts.  This prevents other installed
+    // Calendar apps from eating the alerts.
+    private static final String FIRED_ALERTS_FILE_NAME = "fired_alerts";
 
-    // The # of days to save alert states in the shared prefs table, before flushing.  This
+    // The # of days to save alert states in the ledger, before flushing.  This
     // can be any value, since AlertService will also check for a recent alertTime before
     // ringing the alert.
     private static final int FLUSH_INTERVAL_DAYS = 1;
     private static final int FLUSH_INTERVAL_MS = FLUSH_INTERVAL_DAYS * 24 * 60 * 60 * 1000;
 
+    private static FiredAlertLedger sFiredAlerts = null;
+
     /**
      * Creates an AlarmManagerInterface that wraps a real AlarmManager.  The alarm code
      * was abstracted to an interface to make it testable.
@@ -230,98 +233,80 @@ public class AlertUtils {
         return context.getSharedPreferences(ALERTS_SHARED_PREFS_NAME, Context.MODE_PRIVATE);
     }
 
-    private static String getFiredAlertsKey(long eventId, long beginTime,
-            long alarmTime) {
-        StringBuilder sb = new StringBuilder(KEY_FIRED_ALERT_PREFIX);
-        sb.append(eventId);
-        sb.append("_");
-        sb.append(beginTime);
-        sb.append("_");
-        sb.append(alarmTime);
-        return sb.toString();
+    /**
+     * Returns the ledger of the fired alerts, which takes over the alerts stored in
+     * the SharedPrefs by earlier versions the first time.
+     */
+    private static synchronized FiredAlertLedger getFiredAlerts(Context context) {
+        if (sFiredAlerts == null) {
+            File file = new File(context.getFilesDir(), FIRED_ALERTS_FILE_NAME);
+            boolean exists = file.exists();
+            sFiredAlerts = new FiredAlertLedger(file);
+            if (!exists) {
+                migrateFiredAlertsTable(context, sFiredAlerts);
+            }
+        }
+        return sFiredAlerts;
+    }
+
+    private static void migrateFiredAlertsTable(Context context, FiredAlertLedger ledger) {
+        SharedPreferences prefs = getFiredAlertsTable(context);
+        Set<String> keys = prefs.getAll().keySet();
+        // The keys aren't in order of alarm time, so the alerts are added
+        // together and the ledger is written once.
+        long[] eventIds = new long[keys.size()];
+        long[] begins = new long[keys.size()];
+        long[] alarmTimes = new long[keys.size()];
+        int count = 0;
+        for (String key : keys) {
+            if (!key.startsWith(KEY_FIRED_ALERT_PREFIX)) {
+                continue;
+            }
+            String[] parts = key.substring(KEY_FIRED_ALERT_PREFIX.length()).split("_");
+            try {
+                eventIds[count] = Long.parseLong(parts[0]);
+                begins[count] = Long.parseLong(parts[1]);
+                alarmTimes[count] = Long.parseLong(parts[2]);
+                count++;
+            } catch (RuntimeException e) {
+                // Should never occur.
+                Log.e(TAG, "SharedPrefs key " + key + " is not a fired alert");
+            }
+        }
+        ledger.addAll(eventIds, begins, alarmTimes, count);
+        prefs.edit().clear().apply();
     }
 
     /**
-     * Returns whether the SharedPrefs storage indicates we have fired the alert before.
+     * Returns whether the ledger indicates we have fired the alert before.
      */
-    static boolean hasAlertFiredInSharedPrefs(Context context, long eventId, long beginTime,
+    static boolean hasAlertFired(Context context, long eventId, long beginTime,
             long alarmTime) {
-        SharedPreferences prefs = getFiredAlertsTable(context);
-        return prefs.contains(getFiredAlertsKey(eventId, beginTime, alarmTime));
+        return getFiredAlerts(context).contains(eventId, beginTime, alarmTime);
     }
 
     /**
-     * Store fired alert info in the SharedPrefs.
+     * Store fired alert info in the ledger.
      */
-    static void setAlertFiredInSharedPrefs(Context context, long eventId, long beginTime,
+    static void setAlertFired(Context context, long eventId, long beginTime,
             long alarmTime) {
-        // Store alarm time as the value too so we don't have to parse all the keys to flush
-        // old alarms out of the table later.
-        SharedPreferences prefs = getFiredAlertsTable(context);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putLong(getFiredAlertsKey(eventId, beginTime, alarmTime), alarmTime);
-        editor.apply();
+        getFiredAlerts(context).add(eventId, beginTime, alarmTime);
     }
 
     /**
-     * Scans and flushes the internal storage of old alerts.  Looks up the previous flush
-     * time in SharedPrefs, and performs the flush if overdue.  Otherwise, no-op.
+     * Flushes the internal storage of old alerts.  The alerts are sorted by alarm time,
+     * so only the ones which are old enough are touched.
      */
     static void flushOldAlertsFromInternalStorage(Context context) {
         if (BYPASS_DB) {
-            SharedPreferences prefs = getFiredAlertsTable(context);
-
-            // Only flush if it hasn't been done in a while.
+            FiredAlertLedger ledger = getFiredAlerts(context);
             long nowTime = System.currentTimeMillis();
-            long lastFlushTimeMs = prefs.getLong(KEY_LAST_FLUSH_TIME_MS, 0);
-            if (nowTime - lastFlushTimeMs > FLUSH_INTERVAL_MS) {
-                if (DEBUG) {
-                    Log.d(TAG, "Flushing old alerts from shared prefs table");
-                }
-
-                // Scan through all fired alert entries, removing old ones.
-                SharedPreferences.Editor editor = prefs.edit();
-                Time timeObj = new Time();
-                for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
-                    String key = entry.getKey();
-                    Object value = entry.getValue();
-                    if (key.startsWith(KEY_FIRED_ALERT_PREFIX)) {
-                        long alertTime;
-                        if (value instanceof Long) {
-                            alertTime = (Long) value;
-                        } else {
-                            // Should never occur.
-                            Log.e(TAG,"SharedPrefs key " + key + " did not have Long value: " +
-                                    value);
-                            continue;
-                        }
-
-                        if (nowTime - alertTime >= FLUSH_INTERVAL_MS) {
-                            editor.remove(key);
-                            if (DEBUG) {
-                                int ageInDays = getIntervalInDays(alertTime, nowTime, timeObj);
-                                Log.d(TAG, "SharedPrefs key " + key + ": removed (" + ageInDays +
-                                        " days old)");
-                            }
-                        } else {
-                            if (DEBUG) {
-                                int ageInDays = getIntervalInDays(alertTime, nowTime, timeObj);
-                                Log.d(TAG, "SharedPrefs key " + key + ": keep (" + ageInDays +
-                                        " days old)");
-                            }
-                        }
-                    }
-                }
-                editor.putLong(KEY_LAST_FLUSH_TIME_MS, nowTime);
-                editor.apply();
+            int count = ledger.size();
+            ledger.removeBefore(nowTime - FLUSH_INTERVAL_MS);
+            if (DEBUG && ledger.size() != count) {
+                Log.d(TAG, "Flushed " + (count - ledger.size()) + " old alerts, kept "
+                        + ledger.size());
             }
         }
     }
-
-    private static int getIntervalInDays(long startMillis, long endMillis, Time timeObj) {
-        timeObj.set(startMillis);
-        int startDay = Time.getJulianDay(startMillis, timeObj.gmtoff);
-        timeObj.set(endMillis);
-        return Time.getJulianDay(endMillis, timeObj.gmtoff) - startDay;
-    }
 }
@@ -101,6 +101,7 @@ public class DismissAlarmsService extends IntentService {
             NotificationManager nm =
                     (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
             nm.cancel(notificationId);
+            AlertService.onNotificationCancelled(notificationId);
         }
 
         if (SHOW_ACTION.equals(intent.getAction())) {
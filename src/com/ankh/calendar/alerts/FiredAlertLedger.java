@@ -0,0 +1,332 @@
+package com.ankh.calendar.alerts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import com.ankh.calendar.Log;
+
+/**
+ * The alerts which have been fired by the app, so an alert isn't fired again
+ * when the notifications are refreshed.
+ *
+ * Every alert is a fixed-width row of the alarm time, the event id and the
+ * begin time, sorted by alarm time, in memory and in the file:
+ * <pre>
+ * header    magic and version
+ * rows      alarm time, event id and begin as longs, sorted by alarm time
+ * </pre>
+ * Alerts mostly fire in order of alarm time, so marking an alert appends a
+ * row to the file, and expiring the old alerts drops the rows before a time.
+ * A bloom filter over the rows answers most lookups of alerts which haven't
+ * fired without searching the rows.
+ */
+class FiredAlertLedger {
+    private static final String TAG = "FiredAlertLedger";
+
+    private static final int MAGIC = 0x414e4b46; // "ANKF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int ROW_SIZE = 24;
+
+    // The bits of the bloom filter per row it's sized for, and the number of
+    // bits set per row, which keep the false positives around 1%.
+    private static final int BITS_PER_ROW = 10;
+    private static final int HASH_COUNT = 7;
+    private static final int MIN_FILTER_ROWS = 64;
+
+    private final File mFile;
+
+    private long[] mAlarmTimes = new long[16];
+    private long[] mEventIds = new long[16];
+    private long[] mBegins = new long[16];
+    private int mCount;
+
+    private long[] mFilter;
+    private int mFilterRows;
+
+    FiredAlertLedger(File file) {
+        mFile = file;
+        read();
+        buildFilter();
+    }
+
+    /**
+     * Returns whether the alert has been marked as fired.
+     */
+    synchronized boolean contains(long eventId, long begin, long alarmTime) {
+        long hash = hash(eventId, begin, alarmTime);
+        if (!mayContain(hash)) {
+            return false;
+        }
+
+        for (int i = find(alarmTime); i < mCount && mAlarmTimes[i] == alarmTime; i++) {
+            if (mEventIds[i] == eventId && mBegins[i] == begin) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the alert as fired.
+     */
+    synchronized void add(long eventId, long begin, long alarmTime) {
+        if (contains(eventId, begin, alarmTime)) {
+            return;
+        }
+
+        // Insert after the rows with the same time, usually at the end.
+        int position = find(alarmTime + 1);
+        ensureCapacity(mCount + 1);
+        int moved = mCount - position;
+        System.arraycopy(mAlarmTimes, position, mAlarmTimes, position + 1, moved);
+        System.arraycopy(mEventIds, position, mEventIds, position + 1, moved);
+        System.arraycopy(mBegins, position, mBegins, position + 1, moved);
+        mAlarmTimes[position] = alarmTime;
+        mEventIds[position] = eventId;
+        mBegins[position] = begin;
+        mCount++;
+
+        if (mCount > mFilterRows) {
+            buildFilter();
+        } else {
+            addToFilter(hash(eventId, begin, alarmTime));
+        }
+
+        if (moved == 0) {
+            append(position);
+        } else {
+            write();
+        }
+    }
+
+    /**
+     * Marks the alerts as fired, which don't need to be in order, and writes
+     * the file once.
+     */
+    synchronized void addAll(long[] eventIds, long[] begins, long[] alarmTimes, int count) {
+        // The new rows are put after the sorted ones until they're all
+        // checked, so the lookups only search the sorted ones.
+        ensureCapacity(mCount + count);
+        int added = 0;
+        for (int i = 0; i < count; i++) {
+            if (contains(eventIds[i], begins[i], alarmTimes[i])) {
+                continue;
+            }
+            mAlarmTimes[mCount + added] = alarmTimes[i];
+            mEventIds[mCount + added] = eventIds[i];
+            mBegins[mCount + added] = begins[i];
+            added++;
+        }
+        if (added == 0) {
+            return;
+        }
+
+        mCount += added;
+        ReminderIndex.sort(mAlarmTimes, mEventIds, mBegins, mCount);
+        buildFilter();
+        write();
+    }
+
+    /**
+     * Drops the alerts whose alarm time is before the time.
+     */
+    synchronized void removeBefore(long millis) {
+        int count = find(millis);
+        if (count == 0) {
+            return;
+        }
+
+        mCount -= count;
+        System.arraycopy(mAlarmTimes, count, mAlarmTimes, 0, mCount);
+        System.arraycopy(mEventIds, count, mEventIds, 0, mCount);
+        System.arraycopy(mBegins, count, mBegins, 0, mCount);
+        buildFilter();
+        write();
+    }
+
+    synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns the position of the first row whose alarm time is at or after
+     * the time.
+     */
+    private int find(long alarmTime) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mAlarmTimes[mid] < alarmTime) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mAlarmTimes.length >= capacity) {
+            return;
+        }
+        int size = Math.max(capacity, mAlarmTimes.length * 2);
+        long[] alarmTimes = new long[size];
+        long[] eventIds = new long[size];
+        long[] begins = new long[size];
+        System.arraycopy(mAlarmTimes, 0, alarmTimes, 0, mCount);
+        System.arraycopy(mEventIds, 0, eventIds, 0, mCount);
+        System.arraycopy(mBegins, 0, begins, 0, mCount);
+        mAlarmTimes = alarmTimes;
+        mEventIds = eventIds;
+        mBegins = begins;
+    }
+
+    private static long hash(long eventId, long begin, long alarmTime) {
+        long hash = eventId * 0x9e3779b97f4a7c15L;
+        hash = (hash ^ begin) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ alarmTime) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    /**
+     * Sizes the filter for twice the rows and sets the bits of every row.
+     */
+    private void buildFilter() {
+        mFilterRows = Math.max(MIN_FILTER_ROWS, mCount * 2);
+        mFilter = new long[(mFilterRows * BITS_PER_ROW + 63) / 64];
+        for (int i = 0; i < mCount; i++) {
+            addToFilter(hash(mEventIds[i], mBegins[i], mAlarmTimes[i]));
+        }
+    }
+
+    private void addToFilter(long hash) {
+        int bits = mFilter.length * 64;
+        // The bits are derived from two halves of the hash.
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+            mFilter[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean mayContain(long hash) {
+        int bits = mFilter.length * 64;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+            if ((mFilter[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void read() {
+        if (!mFile.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Discarding " + mFile + " of another version");
+                mFile.delete();
+                return;
+            }
+            // A row which was cut short by a crash is left out.
+            int count = (int) ((mFile.length() - HEADER_SIZE) / ROW_SIZE);
+            ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                mAlarmTimes[i] = in.readLong();
+                mEventIds[i] = in.readLong();
+                mBegins[i] = in.readLong();
+            }
+            mCount = count;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + mFile, e);
+            mCount = 0;
+            mFile.delete();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the row to the file, which has the rows before it.
+     */
+    private void append(int position) {
+        if (!mFile.exists()) {
+            write();
+            return;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(mFile, "rw");
+            // Cut off a row which was cut short by a crash.
+            raf.setLength(HEADER_SIZE + (long) position * ROW_SIZE);
+            raf.seek(raf.length());
+            raf.writeLong(mAlarmTimes[position]);
+            raf.writeLong(mEventIds[position]);
+            raf.writeLong(mBegins[position]);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to append to " + mFile, e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all the rows to the file through a temporary file which is
+     * renamed over it.
+     */
+    private void write() {
+        File temp = new File(mFile.getPath() + ".tmp");
+        try {
+            FileOutputStream fos = new FileOutputStream(temp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (int i = 0; i < mCount; i++) {
+                    out.writeLong(mAlarmTimes[i]);
+                    out.writeLong(mEventIds[i]);
+                    out.writeLong(mBegins[i]);
+                }
+                out.flush();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+
+            if (!temp.renameTo(mFile)) {
+                temp.delete();
+                Log.e(TAG, "Failed to rename " + temp + " to " + mFile);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + mFile, e);
+        }
+    }
+}
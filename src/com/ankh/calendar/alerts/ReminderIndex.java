@@ -0,0 +1,286 @@
+package com.ankh.calendar.alerts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.ankh.calendar.Log;
+
+/**
+ * The upcoming reminders of the event instances which begin in a window of
+ * time, sorted by alarm time.
+ *
+ * Every reminder is a fixed-width row of the alarm time, the event id and the
+ * begin time of the instance. The window only grows forward, by adding the
+ * reminders of the instances which begin in the next slice of time, and the
+ * reminders which have gone off are dropped from the head, so the next alarm
+ * is always the first row. The index is saved to a file, in the same layout:
+ * <pre>
+ * header    magic, version, window start, window end, row count and the
+ *           time zone the all-day instances were converted in
+ * rows      alarm time, event id and begin as longs, sorted by alarm time
+ * </pre>
+ */
+class ReminderIndex {
+    private static final String TAG = "ReminderIndex";
+
+    private static final int MAGIC = 0x414e4b49; // "ANKI"
+    private static final int VERSION = 1;
+    private static final int ROW_SIZE = 24;
+
+    private long mWindowStart;
+    private long mWindowEnd;
+    private String mTimezone;
+
+    private long[] mAlarmTimes = new long[16];
+    private long[] mEventIds = new long[16];
+    private long[] mBegins = new long[16];
+    private int mCount;
+
+    // Set when the index has changed since it was read or written.
+    private boolean mDirty;
+
+    /**
+     * Empties the index, for a window which starts and ends at windowStart,
+     * with the all-day instances in the time zone.
+     */
+    void reset(long windowStart, String timezone) {
+        mWindowStart = windowStart;
+        mWindowEnd = windowStart;
+        mTimezone = timezone;
+        mCount = 0;
+        mDirty = true;
+    }
+
+    /**
+     * Returns whether the window includes the time, in the time zone.
+     */
+    boolean covers(long millis, String timezone) {
+        return mTimezone != null && mTimezone.equals(timezone)
+                && millis >= mWindowStart && millis <= mWindowEnd;
+    }
+
+    long getWindowEnd() {
+        return mWindowEnd;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    boolean isDirty() {
+        return mDirty;
+    }
+
+    /**
+     * Adds the reminders of the instances which begin up to windowEnd, the
+     * rows don't need to be sorted. The arrays are sorted in place.
+     */
+    void extend(long windowEnd, long[] alarmTimes, long[] eventIds, long[] begins, int count) {
+        sort(alarmTimes, eventIds, begins, count);
+
+        // Merge the rows from the back, so the arrays can be grown in place.
+        ensureCapacity(mCount + count);
+        int i = mCount - 1;
+        int j = count - 1;
+        for (int k = mCount + count - 1; j >= 0; k--) {
+            if (i >= 0 && mAlarmTimes[i] > alarmTimes[j]) {
+                set(k, mAlarmTimes[i], mEventIds[i], mBegins[i]);
+                i--;
+            } else {
+                set(k, alarmTimes[j], eventIds[j], begins[j]);
+                j--;
+            }
+        }
+        mCount += count;
+        mWindowEnd = Math.max(mWindowEnd, windowEnd);
+        mDirty = true;
+    }
+
+    /**
+     * Drops the reminders which go off at or before the time.
+     */
+    void removeUpTo(long millis) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mAlarmTimes[mid] <= millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low > 0) {
+            mCount -= low;
+            System.arraycopy(mAlarmTimes, low, mAlarmTimes, 0, mCount);
+            System.arraycopy(mEventIds, low, mEventIds, 0, mCount);
+            System.arraycopy(mBegins, low, mBegins, 0, mCount);
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Returns the time of the first reminder, or Long.MAX_VALUE.
+     */
+    long getNextAlarmTime() {
+        return mCount == 0 ? Long.MAX_VALUE : mAlarmTimes[0];
+    }
+
+    /**
+     * Returns the event of the first reminder, or 0.
+     */
+    long getNextEventId() {
+        return mCount == 0 ? 0 : mEventIds[0];
+    }
+
+    /**
+     * Reads the index from the file, or returns null if there isn't a valid
+     * one.
+     */
+    static ReminderIndex read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            ReminderIndex index = new ReminderIndex();
+            index.mWindowStart = in.readLong();
+            index.mWindowEnd = in.readLong();
+            int count = in.readInt();
+            if (count < 0 || count > file.length() / ROW_SIZE) {
+                return null;
+            }
+            index.mTimezone = in.readUTF();
+            index.ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                index.set(i, in.readLong(), in.readLong(), in.readLong());
+            }
+            index.mCount = count;
+            return index;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + file, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the index to the file through a temporary file which is renamed
+     * over it.
+     */
+    void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mWindowStart);
+            out.writeLong(mWindowEnd);
+            out.writeInt(mCount);
+            out.writeUTF(mTimezone == null ? "" : mTimezone);
+            for (int i = 0; i < mCount; i++) {
+                out.writeLong(mAlarmTimes[i]);
+                out.writeLong(mEventIds[i]);
+                out.writeLong(mBegins[i]);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to rename " + temp + " to " + file);
+        }
+        mDirty = false;
+    }
+
+    private void set(int i, long alarmTime, long eventId, long begin) {
+        mAlarmTimes[i] = alarmTime;
+        mEventIds[i] = eventId;
+        mBegins[i] = begin;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mAlarmTimes.length >= capacity) {
+            return;
+        }
+        int size = Math.max(capacity, mAlarmTimes.length * 2);
+        long[] alarmTimes = new long[size];
+        long[] eventIds = new long[size];
+        long[] begins = new long[size];
+        System.arraycopy(mAlarmTimes, 0, alarmTimes, 0, mCount);
+        System.arraycopy(mEventIds, 0, eventIds, 0, mCount);
+        System.arraycopy(mBegins, 0, begins, 0, mCount);
+        mAlarmTimes = alarmTimes;
+        mEventIds = eventIds;
+        mBegins = begins;
+    }
+
+    /**
+     * Sorts the rows by alarm time, keeping rows with the same time in order.
+     * It's a bottom-up merge sort, which merges runs of doubling width back
+     * and forth between the arrays and a second set of arrays.
+     */
+    static void sort(long[] alarmTimes, long[] eventIds, long[] begins, int count) {
+        long[] fromAlarmTimes = alarmTimes;
+        long[] fromEventIds = eventIds;
+        long[] fromBegins = begins;
+        long[] toAlarmTimes = new long[count];
+        long[] toEventIds = new long[count];
+        long[] toBegins = new long[count];
+
+        for (int width = 1; width < count; width *= 2) {
+            for (int start = 0; start < count; start += 2 * width) {
+                int middle = Math.min(start + width, count);
+                int end = Math.min(start + 2 * width, count);
+                int i = start;
+                int j = middle;
+                for (int k = start; k < end; k++) {
+                    // Take from the left run on a tie, so the sort is stable.
+                    int from = (j >= end || (i < middle
+                            && fromAlarmTimes[i] <= fromAlarmTimes[j])) ? i++ : j++;
+                    toAlarmTimes[k] = fromAlarmTimes[from];
+                    toEventIds[k] = fromEventIds[from];
+                    toBegins[k] = fromBegins[from];
+                }
+            }
+
+            long[] swap = fromAlarmTimes;
+            fromAlarmTimes = toAlarmTimes;
+            toAlarmTimes = swap;
+            swap = fromEventIds;
+            fromEventIds = toEventIds;
+            toEventIds = swap;
+            swap = fromBegins;
+            fromBegins = toBegins;
+            toBegins = swap;
+        }
+
+        if (fromAlarmTimes != alarmTimes) {
+            System.arraycopy(fromAlarmTimes, 0, alarmTimes, 0, count);
+            System.arraycopy(fromEventIds, 0, eventIds, 0, count);
+            System.arraycopy(fromBegins, 0, begins, 0, count);
+        }
+    }
+}
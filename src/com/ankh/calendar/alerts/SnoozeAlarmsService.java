@@ -65,6 +65,7 @@ public class SnoozeAlarmsService extends IntentService {
                 NotificationManager nm =
                     (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
                 nm.cancel(notificationId);
+                AlertService.onNotificationCancelled(notificationId);
             }
 
             // Dismiss current alarm
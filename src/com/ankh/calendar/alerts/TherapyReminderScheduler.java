@@ -0,0 +1,292 @@
+package com.ankh.calendar.alerts;
+
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.provider.CalendarContract;
+import android.text.format.Time;
+import android.util.SparseIntArray;
+
+import com.ankh.calendar.AllInOneActivity;
+import com.ankh.calendar.Log;
+import com.ankh.calendar.R;
+import com.ankh.calendar.RecordStore.OnRecordChangedListener;
+import com.ankh.calendar.therapy.Therapy;
+import com.ankh.calendar.therapy.TherapyManager;
+
+import java.util.PriorityQueue;
+
+/**
+ * Fires the reminders of the doses of the therapies which have alarms.
+ *
+ * The upcoming doses are kept in a heap by the time they are taken, and only
+ * the earliest one is registered with the alarm manager, again only when the
+ * earliest dose changes. A changed therapy pushes its new doses and the
+ * doses of its earlier version are dropped as they come up, so a change or
+ * a fired dose costs O(log n) instead of a scan of all the therapies. The
+ * therapies are only read from the store the first time the doses are
+ * needed in the process, or when the clock or the time zone is changed.
+ */
+public class TherapyReminderScheduler implements OnRecordChangedListener<Therapy> {
+    private static final String TAG = "TherapyReminderScheduler";
+
+    public static final String ACTION_THERAPY_REMINDER =
+            "com.ankh.calendar.THERAPY_REMINDER";
+
+    private static final String NOTIFICATION_TAG_PREFIX = "therapy/";
+
+    private static TherapyReminderScheduler sInstance = null;
+
+    private final Context mContext;
+    private final AlarmManagerInterface mAlarmManager;
+    private final TherapyManager mTherapies;
+
+    private final PriorityQueue<Dose> mDoses = new PriorityQueue<Dose>();
+    // The version of the doses in the heap of every therapy by its id, the
+    // doses of the other versions and of the ids which aren't here are
+    // dropped.
+    private final SparseIntArray mVersions = new SparseIntArray();
+    private int mNextVersion = 1;
+    private boolean mLoaded = false;
+    // The time of the registered alarm, or Long.MAX_VALUE
+    private long mAlarmTime = Long.MAX_VALUE;
+
+    private static class Dose implements Comparable<Dose> {
+        final long alarmTime;
+        final Therapy therapy;
+        final int id;
+        final int index;
+        final int version;
+
+        Dose(long alarmTime, Therapy therapy, int id, int index, int version) {
+            this.alarmTime = alarmTime;
+            this.therapy = therapy;
+            this.id = id;
+            this.index = index;
+            this.version = version;
+        }
+
+        @Override
+        public int compareTo(Dose another) {
+            return alarmTime < another.alarmTime ? -1 : (alarmTime == another.alarmTime ? 0 : 1);
+        }
+    }
+
+    /**
+     * Returns the scheduler of the process, which follows the changes of
+     * the therapies from now on.
+     */
+    public static synchronized TherapyReminderScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            TherapyManager therapies = TherapyManager.getInstance(appContext);
+            sInstance = new TherapyReminderScheduler(appContext,
+                    AlertUtils.createAlarmManager(appContext), therapies);
+            therapies.registerListener(sInstance);
+        }
+        return sInstance;
+    }
+
+    // VisibleForTesting
+    TherapyReminderScheduler(Context context, AlarmManagerInterface alarmManager,
+            TherapyManager therapies) {
+        mContext = context;
+        mAlarmManager = alarmManager;
+        mTherapies = therapies;
+    }
+
+    /**
+     * Registers the alarm of the earliest upcoming dose, reading the
+     * therapies first if they haven't been read in the process. Don't call
+     * it on the UI thread.
+     */
+    public void scheduleNextAlarm(long currentMillis) {
+        load(currentMillis);
+        synchronized (this) {
+            schedule();
+        }
+    }
+
+    /**
+     * Reads the therapies again, after the clock or the time zone is
+     * changed, and registers the alarm of the earliest dose.
+     */
+    public void reload(long currentMillis) {
+        synchronized (this) {
+            mLoaded = false;
+            mAlarmTime = Long.MAX_VALUE;
+        }
+        scheduleNextAlarm(currentMillis);
+    }
+
+    /**
+     * Shows the reminders of the doses from the time of the alarm which has
+     * gone off up to now, and registers the alarm of the next one.
+     */
+    public void onAlarm(long alarmTime, long currentMillis) {
+        synchronized (this) {
+            // The alarm was registered by an earlier process, so the doses
+            // may have been read from a later time and have to be read again
+            // from the time of the alarm.
+            if (mAlarmTime != alarmTime) {
+                mLoaded = false;
+            }
+        }
+        load(alarmTime);
+        synchronized (this) {
+            // The registered alarm has gone off.
+            mAlarmTime = Long.MAX_VALUE;
+
+            Dose dose;
+            while ((dose = mDoses.peek()) != null && dose.alarmTime <= currentMillis) {
+                mDoses.poll();
+                if (isCurrent(dose)) {
+                    notifyDose(dose.therapy, dose.index, dose.alarmTime);
+                }
+            }
+            schedule();
+        }
+    }
+
+    /**
+     * Called by the store with the store locked, so the scheduler is always
+     * locked after the store.
+     */
+    @Override
+    public synchronized void onRecordChanged(int change, Therapy original, Therapy record) {
+        if (!mLoaded) {
+            // The store has the change already, so it's read with the rest.
+            load(System.currentTimeMillis());
+            schedule();
+            return;
+        }
+
+        if (original != null) {
+            mVersions.delete(original.getId());
+        }
+        if (record != null) {
+            pushDoses(record, System.currentTimeMillis());
+        }
+        schedule();
+    }
+
+    /**
+     * Reads the doses at or after the time, if they haven't been read.
+     */
+    private void load(long fromMillis) {
+        TherapyManager therapies = mTherapies;
+        // Lock the store first, in the same order as a change does, so no
+        // change is missed while the therapies are read.
+        synchronized (therapies) {
+            synchronized (this) {
+                if (mLoaded) {
+                    return;
+                }
+
+                mDoses.clear();
+                mVersions.clear();
+
+                // A therapy takes place on its own day, so the ones before
+                // today have no upcoming dose.
+                Time time = new Time();
+                time.set(fromMillis);
+                int today = Time.getJulianDay(fromMillis, time.gmtoff);
+                for (Therapy therapy : therapies.getTherapies(today, Integer.MAX_VALUE)) {
+                    pushDoses(therapy, fromMillis);
+                }
+                mLoaded = true;
+
+                if (AlertService.DEBUG) {
+                    Log.d(TAG, "Loaded " + mDoses.size() + " upcoming therapy doses.");
+                }
+            }
+        }
+    }
+
+    private void pushDoses(Therapy therapy, long fromMillis) {
+        int id = therapy.getId();
+        int version = mNextVersion++;
+        mVersions.put(id, version);
+        if (!therapy.getHasAlarm()) {
+            return;
+        }
+
+        Therapy.DoseIterator doses = new Therapy.DoseIterator().reset(therapy,
+                therapy.getJulianDay(), therapy.getJulianDay());
+        while (doses.next()) {
+            long alarmTime = doses.getStartMillis();
+            if (alarmTime >= fromMillis) {
+                mDoses.add(new Dose(alarmTime, therapy, id, doses.getIndex(), version));
+            }
+        }
+    }
+
+    private boolean isCurrent(Dose dose) {
+        // The versions start at 1, so 0 is a removed therapy.
+        return mVersions.get(dose.id) == dose.version;
+    }
+
+    /**
+     * Registers the alarm of the earliest dose if it isn't registered yet.
+     */
+    private void schedule() {
+        // Drop the doses of the earlier versions first, so the alarm goes
+        // off for a dose which is still there.
+        Dose dose;
+        while ((dose = mDoses.peek()) != null && !isCurrent(dose)) {
+            mDoses.poll();
+        }
+        if (dose == null || dose.alarmTime == mAlarmTime) {
+            return;
+        }
+
+        mAlarmTime = dose.alarmTime;
+        if (AlertService.DEBUG) {
+            Log.d(TAG, "Scheduling therapy reminder at " + mAlarmTime);
+        }
+
+        // The alarm of an earlier dose is replaced, the intents are equal.
+        Intent intent = new Intent(ACTION_THERAPY_REMINDER);
+        intent.setClass(mContext, AlertReceiver.class);
+        intent.putExtra(CalendarContract.CalendarAlerts.ALARM_TIME, mAlarmTime);
+        PendingIntent pi = PendingIntent.getBroadcast(mContext, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        mAlarmManager.set(AlarmManager.RTC_WAKEUP, mAlarmTime, pi);
+    }
+
+    /**
+     * Shows the reminder of the dose of the therapy at the index.
+     */
+    // VisibleForTesting
+    void notifyDose(Therapy therapy, int index, long alarmTime) {
+        Intent intent = new Intent(Intent.ACTION_VIEW);
+        intent.setClass(mContext, AllInOneActivity.class);
+        intent.setData(Uri.withAppendedPath(CalendarContract.CONTENT_URI,
+                "time/" + alarmTime));
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        // Every notification has its own intent, so an earlier one still
+        // opens the time of its dose.
+        String tag = NOTIFICATION_TAG_PREFIX + therapy.getId();
+        PendingIntent contentIntent = PendingIntent.getActivity(mContext,
+                31 * tag.hashCode() + index, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        Notification.Builder builder = new Notification.Builder(mContext);
+        builder.setContentTitle(therapy.getName());
+        builder.setContentText(AlertUtils.formatTimeLocation(mContext, alarmTime, false,
+                null));
+        builder.setSmallIcon(R.drawable.stat_notify_calendar);
+        builder.setContentIntent(contentIntent);
+        builder.setWhen(alarmTime);
+        builder.setAutoCancel(true);
+        builder.setDefaults(Notification.DEFAULT_ALL);
+
+        NotificationManager nm =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        // The reminders of a therapy are told apart by their index under its tag.
+        nm.notify(tag, index, builder.getNotification());
+    }
+}
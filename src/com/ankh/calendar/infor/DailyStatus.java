@@ -1,5 +1,6 @@
 package com.ankh.calendar.infor;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -15,18 +16,21 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.ankh.calendar.JulianDayIndex;
 import com.ankh.calendar.Log;
+import com.ankh.calendar.RecordStore;
 
 import android.content.Intent;
 import android.database.Cursor;
+import android.text.TextUtils;
 import android.text.format.Time;
+import android.util.JsonReader;
 
 /**
  * A single daily status.
- *
- * Instances of the class are immutable.
  */
-public class DailyStatus implements Comparable<DailyStatus>, Serializable { 
+public class DailyStatus implements Comparable<DailyStatus>, Serializable,
+		RecordStore.Record { 
 
 	public final static String DAILY_STATUS = "daily_status";
 
@@ -42,6 +46,12 @@ public class DailyStatus implements Comparable<DailyStatus>, Serializable {
 	private boolean mPrivacy;
 	private BodyStatus mBodyStatusesGroup[];
 
+	// The Julian day of mDay, valid while mJulianDayStamp is the time zone
+	// stamp. It isn't part of the record, so it isn't written anywhere. The
+	// stamp is written last, so other threads see the day complete.
+	private transient int mJulianDay;
+	private transient volatile int mJulianDayStamp;
+
 	public static class BodyStatus {
         private String mType;
         private String mValue;
@@ -90,7 +100,7 @@ public class DailyStatus implements Comparable<DailyStatus>, Serializable {
 		}
 
 		DailyStatus re = (DailyStatus) obj;
-		return this.mName.equals(re.getName())
+		return TextUtils.equals(this.mName, re.getName())
 			&& re.getDay() == this.mDay;
 	}
 
@@ -183,6 +193,17 @@ public class DailyStatus implements Comparable<DailyStatus>, Serializable {
 	/** Set the day. */
 	public void setDay(long day) {
 		mDay = day;
+		mJulianDayStamp = 0;
+	}
+
+	/** Returns the Julian day of the day in the default time zone. */
+	public int getJulianDay() {
+		int stamp = JulianDayIndex.getTimeZoneStamp();
+		if (mJulianDayStamp != stamp) {
+			mJulianDay = JulianDayIndex.getJulianDay(mDay);
+			mJulianDayStamp = stamp;
+		}
+		return mJulianDay;
 	}
 
 	/** Returns the body statuses group. */
@@ -245,6 +266,7 @@ public class DailyStatus implements Comparable<DailyStatus>, Serializable {
 	public static DailyStatus parse(JSONObject object) {
 		DailyStatus dailyStatus = new DailyStatus();
 
+		dailyStatus.setId(getIntegerValue(object, "id"));
 		dailyStatus.setDay(getLongValue(object, "day"));
 		dailyStatus.setDescription(getStringValue(object, "description"));
 		dailyStatus.setLevel(getIntegerValue(object, "level"));
@@ -253,26 +275,220 @@ public class DailyStatus implements Comparable<DailyStatus>, Serializable {
 		dailyStatus.setPrivacy(getIntegerValue(object, "privacy") != 0);
 		
 		try {
-			JSONArray jsonArray = object.getJSONArray("body_status");
-			int num = jsonArray.length();
-			if (num > 0) {
-				BodyStatus group[] = new BodyStatus[num];
-				for (int i = 0; i < num; i++) {
-					JSONObject obj = jsonArray.getJSONObject(i);
-					group[i].mType = getStringValue(obj, "type");
-					group[i].mValue = getStringValue(obj, "value");
-				}
-				dailyStatus.setBodyStatusesGroup(group);
-			}
+			dailyStatus.setBodyStatusesGroup(parseBodyStatusesGroup(object
+					.getJSONArray("body_status")));
 		} catch (Exception e) {
 //			Log.e(TAG, e.toString());
 		}
 		
 		return dailyStatus;
 	}
-	
+
+	/**
+	 * Returns the body statuses of the JSON array, or null if it's empty.
+	 */
+	public static BodyStatus[] parseBodyStatusesGroup(JSONArray jsonArray)
+			throws JSONException {
+		int num = jsonArray.length();
+		if (num == 0) {
+			return null;
+		}
+
+		BodyStatus group[] = new BodyStatus[num];
+		for (int i = 0; i < num; i++) {
+			JSONObject obj = jsonArray.getJSONObject(i);
+			group[i] = new BodyStatus();
+			group[i].mType = getStringValue(obj, "type");
+			group[i].mValue = getStringValue(obj, "value");
+		}
+		return group;
+	}
+
+	/**
+	 * Returns the body statuses as a JSON array, which has the same names as
+	 * the body statuses of {@link #toJSONObject()}.
+	 */
+	public static JSONArray toJSONArray(BodyStatus group[]) throws JSONException {
+		JSONArray objectArray = new JSONArray();
+		for (BodyStatus status : group) {
+			JSONObject obj = new JSONObject();
+			obj.put("type", status.mType);
+			obj.put("value", status.mValue);
+			objectArray.put(obj);
+		}
+		return objectArray;
+	}
+
+	/**
+	 * Returns the body statuses as the text of a cursor column, or null if
+	 * there is none. Every type and value is its length, a colon and its
+	 * text, or a dash if it's null, so the text is neither escaped nor
+	 * parsed as JSON.
+	 */
+	public static String joinBodyStatuses(BodyStatus group[]) {
+		if (group == null) {
+			return null;
+		}
+
+		StringBuilder joined = new StringBuilder();
+		for (BodyStatus status : group) {
+			appendField(joined, status.mType);
+			appendField(joined, status.mValue);
+		}
+		return joined.toString();
+	}
+
+	private static void appendField(StringBuilder joined, String field) {
+		if (field == null) {
+			joined.append('-');
+		} else {
+			joined.append(field.length()).append(':').append(field);
+		}
+	}
+
+	/**
+	 * Returns the body statuses of a text of
+	 * {@link #joinBodyStatuses(BodyStatus[])}, or null if it's empty.
+	 *
+	 * @throws IllegalArgumentException if the text is broken
+	 */
+	public static BodyStatus[] splitBodyStatuses(String joined) {
+		if (joined == null || joined.isEmpty()) {
+			return null;
+		}
+
+		List<BodyStatus> group = new ArrayList<BodyStatus>();
+		String fields[] = new String[2];
+		int position = 0;
+		try {
+			while (position < joined.length()) {
+				for (int i = 0; i < fields.length; i++) {
+					if (joined.charAt(position) == '-') {
+						fields[i] = null;
+						position++;
+						continue;
+					}
+					int colon = joined.indexOf(':', position);
+					int start = colon + 1;
+					position = start
+							+ Integer.parseInt(joined.substring(position, colon));
+					fields[i] = joined.substring(start, position);
+				}
+
+				BodyStatus status = new BodyStatus();
+				status.mType = fields[0];
+				status.mValue = fields[1];
+				group.add(status);
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Broken body statuses " + joined, e);
+		}
+		return group.toArray(new BodyStatus[group.size()]);
+	}
+
+	/**
+	 * Reads a daily status from the JSON object at the reader, which has the
+	 * same names as {@link #toJSONObject()}.
+	 */
+	public static DailyStatus read(JsonReader reader) throws IOException {
+		DailyStatus dailyStatus = new DailyStatus();
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+
+			if (name.equals("id")) {
+				dailyStatus.setId(RecordStore.readInt(reader));
+			} else if (name.equals("day")) {
+				dailyStatus.setDay(RecordStore.readLong(reader));
+			} else if (name.equals("description")) {
+				dailyStatus.setDescription(RecordStore.readString(reader));
+			} else if (name.equals("level")) {
+				dailyStatus.setLevel(RecordStore.readInt(reader));
+			} else if (name.equals("name")) {
+				dailyStatus.setName(RecordStore.readString(reader));
+			} else if (name.equals("part")) {
+				dailyStatus.setPart(RecordStore.readString(reader));
+			} else if (name.equals("privacy")) {
+				dailyStatus.setPrivacy(RecordStore.readInt(reader) != 0);
+			} else if (name.equals("body_status")) {
+				dailyStatus.setBodyStatusesGroup(readBodyStatusesGroup(reader));
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		return dailyStatus;
+	}
+
+	private static BodyStatus[] readBodyStatusesGroup(JsonReader reader)
+			throws IOException {
+		List<BodyStatus> group = new ArrayList<BodyStatus>();
+
+		// A value which isn't an array or an object is skipped, the same as
+		// parse(JSONObject) drops it.
+		if (!RecordStore.beginArray(reader)) {
+			return null;
+		}
+		while (reader.hasNext()) {
+			BodyStatus status = new BodyStatus();
+
+			if (!RecordStore.beginObject(reader)) {
+				continue;
+			}
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+
+				if (name.equals("type")) {
+					status.mType = RecordStore.readString(reader);
+				} else if (name.equals("value")) {
+					status.mValue = RecordStore.readString(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+
+			group.add(status);
+		}
+		reader.endArray();
+
+		return group.isEmpty() ? null : group.toArray(new BodyStatus[group.size()]);
+	}
+
+	/**
+	 * Returns a new copy of the daily status at the current position of the
+	 * cursor, which is read from the typed columns of
+	 * {@link DailyStatusCursor}.
+	 */
 	public static DailyStatus parse(Cursor cEvents) {
-		return parse(cEvents.getString(0));
+		DailyStatus dailyStatus = new DailyStatus();
+
+		dailyStatus.setId(cEvents.getInt(cEvents
+				.getColumnIndexOrThrow(DailyStatusCursor._ID)));
+		dailyStatus.setDay(cEvents.getLong(cEvents
+				.getColumnIndexOrThrow(DailyStatusCursor.DAY)));
+		dailyStatus.setLevel(cEvents.getInt(cEvents
+				.getColumnIndexOrThrow(DailyStatusCursor.LEVEL)));
+		dailyStatus.setName(cEvents.getString(cEvents
+				.getColumnIndexOrThrow(DailyStatusCursor.NAME)));
+		dailyStatus.setPart(cEvents.getString(cEvents
+				.getColumnIndexOrThrow(DailyStatusCursor.PART)));
+		dailyStatus.setDescription(cEvents.getString(cEvents
+				.getColumnIndexOrThrow(DailyStatusCursor.DESCRIPTION)));
+		dailyStatus.setPrivacy(cEvents.getInt(cEvents
+				.getColumnIndexOrThrow(DailyStatusCursor.PRIVACY)) != 0);
+
+		String bodyStatuses = cEvents.getString(cEvents
+				.getColumnIndexOrThrow(DailyStatusCursor.BODY_STATUSES));
+		try {
+			dailyStatus.setBodyStatusesGroup(splitBodyStatuses(bodyStatuses));
+		} catch (IllegalArgumentException e) {
+			Log.e(TAG, "Broken body statuses " + bodyStatuses, e);
+		}
+
+		return dailyStatus;
 	}
 
 	public static DailyStatus parse(String jsonBuf) {
@@ -294,6 +510,7 @@ public class DailyStatus implements Comparable<DailyStatus>, Serializable {
 		try {
 			JSONObject object = new JSONObject();
 
+			object.put("id", this.getId());
 			object.put("day", Long.toString(this.getDay()));
 			object.put("description", this.getDescription());
 			object.put("level", this.getLevel());
@@ -302,15 +519,7 @@ public class DailyStatus implements Comparable<DailyStatus>, Serializable {
 			object.put("privacy", this.getPrivacy() ? 1 : 0);
 
 			if (this.getBodyStatusesGroup() != null) {
-				JSONArray objectArray = new JSONArray();
-				for (BodyStatus status : this.getBodyStatusesGroup()) {
-					JSONObject obj = new JSONObject();
-					obj.put("type", status.mType);
-					obj.put("value", status.mValue);
-					objectArray.put(obj);
-				}
-
-				object.put("body_status", objectArray);
+				object.put("body_status", toJSONArray(this.getBodyStatusesGroup()));
 			}
 
 			return object;
@@ -331,4 +540,32 @@ public class DailyStatus implements Comparable<DailyStatus>, Serializable {
 	public boolean isEmpty() {
 		return this.mName == null || this.mName.isEmpty();
 	}
+
+	/**
+	 * Returns a new copy of the daily status, which shares nothing mutable
+	 * with it.
+	 */
+	public DailyStatus copy() {
+		DailyStatus dailyStatus = new DailyStatus();
+
+		dailyStatus.setId(mId);
+		dailyStatus.setDay(mDay);
+		dailyStatus.setLevel(mLevel);
+		dailyStatus.setName(mName);
+		dailyStatus.setPart(mPart);
+		dailyStatus.setDescription(mDescription);
+		dailyStatus.setPrivacy(mPrivacy);
+
+		if (mBodyStatusesGroup != null) {
+			BodyStatus group[] = new BodyStatus[mBodyStatusesGroup.length];
+			for (int i = 0; i < group.length; i++) {
+				group[i] = new BodyStatus();
+				group[i].mType = mBodyStatusesGroup[i].mType;
+				group[i].mValue = mBodyStatusesGroup[i].mValue;
+			}
+			dailyStatus.setBodyStatusesGroup(group);
+		}
+
+		return dailyStatus;
+	}
 }
@@ -0,0 +1,105 @@
+package com.ankh.calendar.infor;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.ankh.calendar.BinaryRecordFile;
+import com.ankh.calendar.infor.DailyStatus.BodyStatus;
+
+/**
+ * The binary row of a daily status:
+ * <pre>
+ * long day
+ * int  id in the store
+ * int  level
+ * int  name, part, description as string indexes
+ * int  privacy
+ * int  offset and count of the body statuses in the extras, each of them
+ *      is a pair of string indexes of the type and value
+ * </pre>
+ */
+public class DailyStatusCodec implements BinaryRecordFile.Codec<DailyStatus> {
+
+	private static final int TYPE = 1;
+	private static final int ROW_SIZE = 40;
+
+	private static final int OFFSET_DAY = 0;
+	private static final int OFFSET_ID = 8;
+	private static final int OFFSET_LEVEL = 12;
+	private static final int OFFSET_NAME = 16;
+	private static final int OFFSET_PART = 20;
+	private static final int OFFSET_DESCRIPTION = 24;
+	private static final int OFFSET_PRIVACY = 28;
+	private static final int OFFSET_BODY_STATUSES = 32;
+	private static final int OFFSET_BODY_STATUSES_COUNT = 36;
+
+	@Override
+	public int getType() {
+		return TYPE;
+	}
+
+	@Override
+	public int getRowSize() {
+		return ROW_SIZE;
+	}
+
+	@Override
+	public void encode(DailyStatus infor, ByteBuffer row,
+			BinaryRecordFile.Encoder encoder) throws IOException {
+		row.putLong(infor.getDay());
+		row.putInt(infor.getId());
+		row.putInt(infor.getLevel());
+		row.putInt(encoder.putString(infor.getName()));
+		row.putInt(encoder.putString(infor.getPart()));
+		row.putInt(encoder.putString(infor.getDescription()));
+		row.putInt(infor.getPrivacy() ? 1 : 0);
+
+		BodyStatus group[] = infor.getBodyStatusesGroup();
+		if (group == null) {
+			row.putInt(0);
+			row.putInt(0);
+			return;
+		}
+
+		row.putInt(encoder.getExtraOffset());
+		row.putInt(group.length);
+
+		DataOutputStream extras = encoder.getExtras();
+		for (BodyStatus status : group) {
+			extras.writeInt(encoder.putString(status.getType()));
+			extras.writeInt(encoder.putString(status.getValue()));
+		}
+	}
+
+	@Override
+	public DailyStatus decode(ByteBuffer buffer, int offset,
+			BinaryRecordFile<DailyStatus> file) {
+		DailyStatus infor = new DailyStatus();
+
+		infor.setDay(buffer.getLong(offset + OFFSET_DAY));
+		infor.setId(buffer.getInt(offset + OFFSET_ID));
+		infor.setLevel(buffer.getInt(offset + OFFSET_LEVEL));
+		infor.setName(file.getString(buffer.getInt(offset + OFFSET_NAME)));
+		infor.setPart(file.getString(buffer.getInt(offset + OFFSET_PART)));
+		infor.setDescription(file.getString(buffer.getInt(offset
+				+ OFFSET_DESCRIPTION)));
+		infor.setPrivacy(buffer.getInt(offset + OFFSET_PRIVACY) != 0);
+
+		int count = buffer.getInt(offset + OFFSET_BODY_STATUSES_COUNT);
+		if (count > 0) {
+			int extra = file.getExtraOffset(buffer.getInt(offset
+					+ OFFSET_BODY_STATUSES));
+
+			BodyStatus group[] = new BodyStatus[count];
+			for (int i = 0; i < count; i++, extra += 8) {
+				group[i] = new BodyStatus();
+				group[i].setType(file.getString(buffer.getInt(extra)));
+				group[i].setValue(file.getString(buffer.getInt(extra + 4)));
+			}
+			infor.setBodyStatusesGroup(group);
+		}
+
+		return infor;
+	}
+}
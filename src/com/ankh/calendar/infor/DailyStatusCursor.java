@@ -1,200 +1,171 @@
 package com.ankh.calendar.infor;
 
-import android.content.ContentResolver;
+import java.util.List;
+
 import android.content.Context;
-import android.database.CharArrayBuffer;
-import android.database.ContentObserver;
+import android.database.AbstractCursor;
 import android.database.Cursor;
-import android.database.DataSetObserver;
-import android.net.Uri;
-import android.os.Bundle;
-
-import com.ankh.calendar.R;
-
-public class DailyStatusCursor implements Cursor {
 
-	private static final String TAG = "DailyStatusCursor";
-
-	private DailyStatusManager mManager = new DailyStatusManager();
+/**
+ * A read-only cursor over a snapshot of daily statuses, with a typed column
+ * for every field. The body statuses are a text of their types and values,
+ * see {@link DailyStatus#joinBodyStatuses(DailyStatus.BodyStatus[])}, which
+ * is built once per row. Consumers which know the cursor can get the
+ * current {@link DailyStatus} directly with {@link #getDailyStatus()}.
+ */
+public class DailyStatusCursor extends AbstractCursor {
+
+	public static final String _ID = "_id";
+	public static final String DAY = "day";
+	public static final String LEVEL = "level";
+	public static final String NAME = "name";
+	public static final String PART = "part";
+	public static final String DESCRIPTION = "description";
+	public static final String PRIVACY = "privacy";
+	public static final String BODY_STATUSES = "bodyStatuses";
+
+	public final static String COLUMN_NAMES[] = { _ID, DAY, LEVEL, NAME, PART,
+			DESCRIPTION, PRIVACY, BODY_STATUSES };
+
+	public static final int COLUMN_ID = 0;
+	public static final int COLUMN_DAY = 1;
+	public static final int COLUMN_LEVEL = 2;
+	public static final int COLUMN_NAME = 3;
+	public static final int COLUMN_PART = 4;
+	public static final int COLUMN_DESCRIPTION = 5;
+	public static final int COLUMN_PRIVACY = 6;
+	public static final int COLUMN_BODY_STATUSES = 7;
+
+	private final List<DailyStatus> mRecords;
 
 	private DailyStatus mCurrentInfor = null;
+	// The body statuses column of the current row, once it has been got.
+	private String mBodyStatuses = null;
+	private boolean mHasBodyStatuses = false;
 
 	public DailyStatusCursor(Context ctx) {
-		mManager.setPathname(ctx.getResources().getString(
-				R.string.infor_filename));
-		mManager.load();
+		this(ctx, Integer.MIN_VALUE, Integer.MAX_VALUE);
 	}
 
-	private int mPosition = 0;
+	/**
+	 * Constructs a cursor over a read-only snapshot of the records which take
+	 * place from the Julian day startDay to endDay inclusive.
+	 */
+	public DailyStatusCursor(Context ctx, int startDay, int endDay) {
+		this(DailyStatusManager.getInstance(ctx).getDailyStatuses(startDay, endDay));
+	}
 
-	public int getColumnCount() {
-		return COLUMN_NAMES.length;
+	public DailyStatusCursor(List<DailyStatus> records) {
+		mRecords = records;
 	}
 
-	public int getColumnIndex(String columnName) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+	/**
+	 * Returns the daily status at the current position.
+	 */
+	public DailyStatus getDailyStatus() {
+		checkPosition();
+		return mCurrentInfor;
 	}
 
-	public int getColumnIndexOrThrow(String columnName) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+	@Override
+	public boolean onMove(int oldPosition, int newPosition) {
+		mCurrentInfor = mRecords.get(newPosition);
+		mBodyStatuses = null;
+		mHasBodyStatuses = false;
+		return true;
 	}
 
-	public String getColumnName(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+	@Override
+	public int getCount() {
+		return mRecords.size();
 	}
 
-	final static String COLUMN_NAMES[] = {"JSON_CODE"};
+	@Override
 	public String[] getColumnNames() {
 		return COLUMN_NAMES;
 	}
 
-	public int getCount() {
-		return mManager.getSize();
+	@Override
+	public int getType(int columnIndex) {
+		switch (columnIndex) {
+		case COLUMN_NAME:
+		case COLUMN_PART:
+		case COLUMN_DESCRIPTION:
+		case COLUMN_BODY_STATUSES:
+			return isNull(columnIndex) ? Cursor.FIELD_TYPE_NULL
+					: Cursor.FIELD_TYPE_STRING;
+		default:
+			return Cursor.FIELD_TYPE_INTEGER;
+		}
 	}
 
+	@Override
 	public boolean isNull(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public int getInt(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public long getLong(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public short getShort(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public float getFloat(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public double getDouble(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public byte[] getBlob(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+		return getObject(columnIndex) == null;
 	}
 
+	@Override
 	public String getString(int columnIndex) {
-		return mCurrentInfor.toJSONObject().toString();
-	}
-
-	public Bundle getExtras() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public int getPosition() {
-		return mPosition;
-	}
-
-	public boolean isAfterLast() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean isBeforeFirst() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean isFirst() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean isLast() {
-		throw new UnsupportedOperationException("unimplemented mock method");
+		Object value = getObject(columnIndex);
+		return value == null ? null : value.toString();
 	}
 
-	public boolean move(int offset) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean moveToFirst() {
-		return moveToPosition(-1);
-	}
-
-	public boolean moveToLast() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean moveToNext() {
-		mPosition ++;
-		mCurrentInfor = mManager.getDailyStatus();
-		return (mCurrentInfor != null);
-	}
-
-	public boolean moveToPrevious() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean moveToPosition(int position) {
-		if (position != -1 && position != 0) {
-			throw new UnsupportedOperationException("Unsupport " + position);
+	@Override
+	public long getLong(int columnIndex) {
+		Object value = getObject(columnIndex);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
 		}
-
-		mManager.reset();
-		mPosition = position;
-
-		return true;
-	}
-
-	public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void deactivate() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void close() {
-	}
-
-	public boolean isClosed() {
-		throw new UnsupportedOperationException("unimplemented mock method");
+		return value == null ? 0 : Long.parseLong(value.toString());
 	}
 
-	public boolean requery() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void registerContentObserver(ContentObserver observer) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void registerDataSetObserver(DataSetObserver observer) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public Bundle respond(Bundle extras) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean getWantsAllOnMoveCalls() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void setNotificationUri(ContentResolver cr, Uri uri) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void unregisterContentObserver(ContentObserver observer) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+	@Override
+	public int getInt(int columnIndex) {
+		return (int) getLong(columnIndex);
 	}
 
-	public void unregisterDataSetObserver(DataSetObserver observer) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+	@Override
+	public short getShort(int columnIndex) {
+		return (short) getLong(columnIndex);
 	}
 
-	public int getType(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+	@Override
+	public float getFloat(int columnIndex) {
+		return getLong(columnIndex);
 	}
 
 	@Override
-	public Uri getNotificationUri() {
-		return null;
+	public double getDouble(int columnIndex) {
+		return getLong(columnIndex);
+	}
+
+	private Object getObject(int columnIndex) {
+		DailyStatus infor = getDailyStatus();
+
+		switch (columnIndex) {
+		case COLUMN_ID:
+			return infor.getId();
+		case COLUMN_DAY:
+			return infor.getDay();
+		case COLUMN_LEVEL:
+			return infor.getLevel();
+		case COLUMN_NAME:
+			return infor.getName();
+		case COLUMN_PART:
+			return infor.getPart();
+		case COLUMN_DESCRIPTION:
+			return infor.getDescription();
+		case COLUMN_PRIVACY:
+			return infor.getPrivacy() ? 1 : 0;
+		case COLUMN_BODY_STATUSES:
+			if (!mHasBodyStatuses) {
+				mBodyStatuses = DailyStatus.joinBodyStatuses(infor
+						.getBodyStatusesGroup());
+				mHasBodyStatuses = true;
+			}
+			return mBodyStatuses;
+		default:
+			throw new IllegalArgumentException("No column " + columnIndex);
+		}
 	}
-
 }
@@ -1,226 +1,128 @@
 package com.ankh.calendar.infor;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.content.Context;
+import android.util.JsonReader;
+
+import com.ankh.calendar.BinaryRecordFile;
+import com.ankh.calendar.JulianDayIndex;
 import com.ankh.calendar.Log;
+import com.ankh.calendar.R;
+import com.ankh.calendar.RecordStore;
 
-public class DailyStatusManager {
+public class DailyStatusManager extends RecordStore<DailyStatus> {
 
 	private static final String TAG = "DailyStatusManager";
 
-	private JSONArray mJsonArray = null;
-	private int mCurrentIndex = 0;
-	private String mPathname;
-
-	public void setPathname(String path) {
-		mPathname = path;
-	}
-
-	public int getSize() {
-		return mJsonArray == null ? 0 : mJsonArray.length();
-	}
-
-	public void load() {
-		try {
-			StringBuilder sb = new StringBuilder();
-			BufferedReader br = new BufferedReader(new InputStreamReader(
-					new FileInputStream(mPathname)));
-
-			String line = null;
-			while ((line = br.readLine()) != null) {
-				sb.append(line + "\n");
+	/**
+	 * Orders the daily statuses of the same Julian day by time, then by name.
+	 */
+	private static final Comparator<DailyStatus> DAY_ORDER = new Comparator<DailyStatus>() {
+		@Override
+		public int compare(DailyStatus lhs, DailyStatus rhs) {
+			if (lhs.getDay() != rhs.getDay()) {
+				return lhs.getDay() < rhs.getDay() ? -1 : 1;
 			}
-			br.close();
 
-			setDailyStatusBuffer(sb.toString());
-		} catch (IOException e) {
-			e.printStackTrace();
+			if (lhs.getName() == null || rhs.getName() == null) {
+				return lhs.getName() == null ? (rhs.getName() == null ? 0 : -1) : 1;
+			}
+			return lhs.getName().compareTo(rhs.getName());
 		}
+	};
 
-	}
-
-	public void save() {
-		if (null == mJsonArray) {
-			Log.e(TAG, "Nothing is needed to save.");
-			return;
-		}
+	private static DailyStatusManager sInstance = null;
 
-		try {
-			String jsonString = mJsonArray.toString();
-			OutputStreamWriter osw = new OutputStreamWriter(
-					new FileOutputStream(mPathname));
+	// Whether the daily statuses are also compacted into a binary snapshot.
+	private static final boolean USE_BINARY_FORMAT = true;
 
-			osw.write(jsonString, 0, jsonString.length());
+	private int mCurrentIndex = 0;
 
-			osw.flush();
-			osw.close();
-			
-			Log.i(TAG, "Save " + mJsonArray.length() + " records to " + mPathname);
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Returns the manager of the daily status file which is shared by the
+	 * whole process.
+	 */
+	public static synchronized DailyStatusManager getInstance(Context context) {
+		if (sInstance == null) {
+			sInstance = new DailyStatusManager();
+			sInstance.setPathname(context.getResources().getString(
+					R.string.infor_filename));
 		}
-	}
 
-	private void setDailyStatusBuffer(String buffer) {
-		try {
-			mJsonArray = new JSONArray(buffer);
-			mCurrentIndex = 0;
-
-			if (0 == mJsonArray.length()) {
-				mJsonArray = null;
-			}
-
-		} catch (JSONException e) {
-			e.printStackTrace();
-		}
+		return sInstance;
 	}
 
-	public void reset() {
-		mCurrentIndex = 0;
+	public DailyStatusManager() {
+		super(TAG, DAY_ORDER);
 	}
 
-	public boolean add(DailyStatus newInfor) {
-		reset();
-
-		DailyStatus infor = null;
-
-		try {
-			while (null != (infor = getDailyStatus())) {
-				int diff = infor.compareTo(newInfor);
-
-				if (diff > 0) {
-					continue;
-				}
-
-				if (diff <= 0) {
-					// Append.
-					int i = mJsonArray.length() - 1;
-					mJsonArray.put(mJsonArray.getJSONObject(i));
-
-					// Move
-					for (; i >= mCurrentIndex - 1; i--) {
-						mJsonArray.put(i + 1, mJsonArray.getJSONObject(i));
-					}
-
-					// Insert before.
-				}
-
-				// Move the current.
-				mCurrentIndex--;
-				break;
-			}
-
-			if (mJsonArray == null) {
-				mJsonArray = new JSONArray();
-			}
-
-//			Log.v(TAG, "Add " + mCurrentIndex + ":" + newInfor.toJSONObject());
-			mJsonArray.put(mCurrentIndex, newInfor.toJSONObject());
-
-			return true;
-
-		} catch (JSONException e) {
-			e.printStackTrace();
-			return false;
-		}
+	@Override
+	protected DailyStatus parse(JSONObject object) {
+		return DailyStatus.parse(object);
 	}
 
-	public boolean del(int id) {
-		reset();
-
-		JSONArray array = new JSONArray();
-
-		DailyStatus infor = null;
-
-		for (; null != (infor = getDailyStatus()); id--) {
-			if (0 == id) {
-				continue;
-			}
-
-			array.put(infor.toJSONObject());
-		}
+	@Override
+	protected BinaryRecordFile.Codec<DailyStatus> getCodec() {
+		return USE_BINARY_FORMAT ? new DailyStatusCodec() : null;
+	}
 
-		mJsonArray = array;
-		return true;
+	@Override
+	protected DailyStatus read(JsonReader reader) throws IOException {
+		return DailyStatus.read(reader);
 	}
 
-	public boolean modify(int id, DailyStatus newInfor) {
-		if (!del(id)) {
-			return false;
-		}
+	@Override
+	protected JSONObject toJSONObject(DailyStatus infor) {
+		return infor.toJSONObject();
+	}
 
-		return add(newInfor);
+	@Override
+	protected DailyStatus copy(DailyStatus infor) {
+		return infor.copy();
 	}
-	
-	public boolean modify(DailyStatus originalDailyStatus,
-			DailyStatus dailyStatus) {
-		return modify(originalDailyStatus.getId(), dailyStatus);
+
+	public void reset() {
+		mCurrentIndex = 0;
 	}
 
 	public DailyStatus getDailyStatus() {
-		if (null == mJsonArray || mCurrentIndex >= mJsonArray.length()) {
-			Log.d(TAG, (mJsonArray == null) ? "NO array" : "" + mCurrentIndex
-					+ " >= " + mJsonArray.length());
+		DailyStatus infor = get(mCurrentIndex);
+		if (infor == null) {
+			Log.d(TAG, "No record at " + mCurrentIndex);
 			return null;
 		}
 
-		try {
-//			Log.v(TAG,
-//					"Try to get " + mCurrentIndex + " in "
-//							+ mJsonArray.length());
-			JSONObject obj = mJsonArray.getJSONObject(mCurrentIndex++);
-			return DailyStatus.parse(obj);
-		} catch (JSONException e) {
-			e.printStackTrace();
-			return null;
-		}
+		mCurrentIndex++;
+		return infor;
 	}
 
+	/**
+	 * Returns the first daily status of the day, or null if there is none.
+	 */
 	public DailyStatus getDailyStatus(Date whichDay) {
-		reset();
-
-		DailyStatus infor = null;
-		while (null != (infor = getDailyStatus())) {
-			int diff = infor.compareTo(whichDay.getTime());
-
-			if (0 == diff) {
-				return infor;
-			}
-
-			if (diff > 0) {
-				break;
-			}
-		}
-
-		return null;
+		List<DailyStatus> records = getDailyStatuses(JulianDayIndex
+				.getJulianDay(whichDay.getTime()));
+		return records.isEmpty() ? null : records.get(0);
 	}
 
-	public String toString() {
-
-		String str = "\n-------------------------------------------------------------------------------\n";
-		str += "Pathname: " + mPathname + "\n";
-
-		try {
-			str += mJsonArray.toString(2);
-		} catch (JSONException e) {
-			e.printStackTrace();
-		} catch (RuntimeException e) {
-			e.printStackTrace();
-		}
-
-		str += "\n-------------------------------------------------------------------------------\n";
-
-		return str;
+	/**
+	 * Returns the daily statuses of the Julian day.
+	 */
+	public List<DailyStatus> getDailyStatuses(int julianDay) {
+		return getRecords(julianDay);
 	}
 
+	/**
+	 * Returns the daily statuses from startDay to endDay inclusive, in
+	 * order.
+	 */
+	public List<DailyStatus> getDailyStatuses(int startDay, int endDay) {
+		return query(startDay, endDay);
+	}
 }
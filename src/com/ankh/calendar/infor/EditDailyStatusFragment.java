@@ -55,8 +55,8 @@ import android.widget.Toast;
 import com.android.colorpicker.ColorPickerSwatch.OnColorSelectedListener;
 import com.android.colorpicker.HsvColorComparator;
 import com.ankh.calendar.AsyncQueryService;
+import com.ankh.calendar.AsyncRecordWriter;
 import com.ankh.calendar.CalendarController;
-import com.ankh.calendar.CalendarDatabase;
 import com.ankh.calendar.DeleteEventHelper;
 import com.ankh.calendar.Log;
 import com.ankh.calendar.R;
@@ -114,6 +114,7 @@ public class EditDailyStatusFragment extends Fragment implements EventHandler {
     DailyStatus mRestoreModel;
     EditDailyStatusView mView;
     QueryHandler mHandler;
+    SaveHandler mSaveHandler;
 
     private AlertDialog mModifyDialog;
     int mModification = Utils.MODIFY_UNINITIALIZED;
@@ -153,6 +154,29 @@ public class EditDailyStatusFragment extends Fragment implements EventHandler {
         }
     };
 
+    // Saves in the background and reports the result once it's written,
+    // which can come after the screen is closed. The cookie is the string
+    // shown for a success.
+    private static class SaveHandler extends AsyncRecordWriter {
+        private final Context mContext;
+
+        public SaveHandler(Context context) {
+            super(context);
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        protected void onSaveComplete(int token, Object cookie, boolean result) {
+            int stringResource = result ? (Integer) cookie : R.string.saving_event_failed;
+            Toast.makeText(mContext, stringResource, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        protected void onSaveDelayed(int token, Object cookie) {
+            Toast.makeText(mContext, R.string.saving_event_delayed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
     // TODO turn this into a helper function in EditDailyStatusHelper for building the
     // model
     private class QueryHandler extends AsyncQueryHandler {
@@ -266,6 +290,7 @@ public class EditDailyStatusFragment extends Fragment implements EventHandler {
 
         mHelper = new EditDailyStatusHelper(activity, null);
         mHandler = new QueryHandler(activity.getContentResolver());
+        mSaveHandler = new SaveHandler(activity);
         mDailyStatus = DailyStatus.from(mIntent);
         if (mDailyStatus == null) {
         	mDailyStatus = new DailyStatus();
@@ -468,9 +493,7 @@ public class EditDailyStatusFragment extends Fragment implements EventHandler {
             if ((mCode & Utils.DONE_SAVE) != 0
             		&& mDailyStatus != null
                     && mView.prepareForSave()
-                    && !isEmptyNewDailyStatus()
-                    && CalendarDatabase.saveDailyStatus(mActivity, mDailyStatus,
-							mOriginalDailyStatus, mModification)) {
+                    && !isEmptyNewDailyStatus()) {
                 int stringResource;
  
 				if (mOriginalDailyStatus != null) {
@@ -478,8 +501,10 @@ public class EditDailyStatusFragment extends Fragment implements EventHandler {
 				} else {
 					stringResource = R.string.creating_event;
 				}
-				
-                Toast.makeText(mActivity, stringResource, Toast.LENGTH_SHORT).show();
+
+                // The toast is shown once the daily status is written.
+                mSaveHandler.startSaveDailyStatus(0, stringResource, mDailyStatus,
+                        mOriginalDailyStatus, mModification);
             } else if ((mCode & Utils.DONE_SAVE) != 0 && mDailyStatus != null && isEmptyNewDailyStatus()) {
                 Toast.makeText(mActivity, R.string.empty_event, Toast.LENGTH_SHORT).show();
             }
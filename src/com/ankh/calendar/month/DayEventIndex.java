@@ -0,0 +1,178 @@
+package com.ankh.calendar.month;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.ankh.calendar.Event;
+
+/**
+ * The loaded events of a range of days, indexed by day.
+ *
+ * It's built once per load. The events are sorted by start, then laid out in
+ * one flat array day after day, with an offset table to find the events of a
+ * day; an event which spans days is in the array once for every day. The day
+ * lists which are handed out are read-only views over the flat array, so week
+ * views can slice them without copying.
+ */
+public class DayEventIndex {
+
+    private static final Comparator<Event> START_ORDER = new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            if (lhs.startDay != rhs.startDay) {
+                return lhs.startDay < rhs.startDay ? -1 : 1;
+            }
+            if (lhs.startTime != rhs.startTime) {
+                return lhs.startTime < rhs.startTime ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    private final int mFirstJulianDay;
+    private final int mNumDays;
+
+    // The events in the range, sorted by start.
+    private final Event[] mEvents;
+    // mEvents[mStartOffsets[i]] is the first event which starts on day i or
+    // later, the events before the range start on day 0.
+    private final int[] mStartOffsets;
+
+    // The events of day i are mDayEvents[mDayOffsets[i]] to
+    // mDayEvents[mDayOffsets[i + 1] - 1].
+    private final Event[] mDayEvents;
+    private final int[] mDayOffsets;
+    private final List<List<Event>> mDays;
+
+    /**
+     * Indexes the events which take place from firstJulianDay for numDays.
+     * The list doesn't need to be sorted and isn't changed.
+     */
+    public DayEventIndex(int firstJulianDay, int numDays, List<Event> events) {
+        mFirstJulianDay = firstJulianDay;
+        mNumDays = numDays;
+
+        int lastJulianDay = firstJulianDay + numDays - 1;
+        ArrayList<Event> inRange = new ArrayList<Event>(events == null ? 0 : events.size());
+        if (events != null) {
+            for (Event event : events) {
+                if (event.endDay >= firstJulianDay && event.startDay <= lastJulianDay) {
+                    inRange.add(event);
+                }
+            }
+        }
+        mEvents = inRange.toArray(new Event[inRange.size()]);
+        // The sort is stable, so events which start together keep their order.
+        Arrays.sort(mEvents, START_ORDER);
+
+        // Count the events of each day, then turn the counts into offsets.
+        mStartOffsets = new int[numDays + 1];
+        mDayOffsets = new int[numDays + 1];
+        for (Event event : mEvents) {
+            mStartOffsets[getStartIndex(event) + 1]++;
+            for (int day = getStartIndex(event); day <= getEndIndex(event); day++) {
+                mDayOffsets[day + 1]++;
+            }
+        }
+        for (int day = 0; day < numDays; day++) {
+            mStartOffsets[day + 1] += mStartOffsets[day];
+            mDayOffsets[day + 1] += mDayOffsets[day];
+        }
+
+        // Fill the days in start order, so the events of every day are sorted.
+        mDayEvents = new Event[mDayOffsets[numDays]];
+        int[] positions = Arrays.copyOf(mDayOffsets, numDays);
+        for (Event event : mEvents) {
+            for (int day = getStartIndex(event); day <= getEndIndex(event); day++) {
+                mDayEvents[positions[day]++] = event;
+            }
+        }
+
+        List<List<Event>> days = new ArrayList<List<Event>>(numDays);
+        for (int day = 0; day < numDays; day++) {
+            days.add(new DayList(mDayOffsets[day], mDayOffsets[day + 1]));
+        }
+        mDays = Collections.unmodifiableList(days);
+    }
+
+    private int getStartIndex(Event event) {
+        return Math.max(event.startDay - mFirstJulianDay, 0);
+    }
+
+    private int getEndIndex(Event event) {
+        return Math.min(event.endDay - mFirstJulianDay, mNumDays - 1);
+    }
+
+    /**
+     * A read-only view of the events of a day.
+     */
+    private class DayList extends AbstractList<Event> {
+        private final int mFrom;
+        private final int mTo;
+
+        DayList(int from, int to) {
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        public Event get(int location) {
+            if (location < 0 || location >= mTo - mFrom) {
+                throw new IndexOutOfBoundsException();
+            }
+            return mDayEvents[mFrom + location];
+        }
+
+        @Override
+        public int size() {
+            return mTo - mFrom;
+        }
+    }
+
+    public int getFirstJulianDay() {
+        return mFirstJulianDay;
+    }
+
+    public int getNumDays() {
+        return mNumDays;
+    }
+
+    /**
+     * Returns the events of every day of the range, in order of day. Each
+     * list is sorted by start.
+     */
+    public List<List<Event>> getDays() {
+        return mDays;
+    }
+
+    /**
+     * Replaces the contents of out with the events which take place from
+     * firstJulianDay for numDays, each of them once and sorted by start.
+     */
+    public void getEvents(int firstJulianDay, int numDays, ArrayList<Event> out) {
+        out.clear();
+
+        int from = Math.max(firstJulianDay - mFirstJulianDay, 0);
+        int to = Math.min(firstJulianDay + numDays - mFirstJulianDay, mNumDays);
+        if (from >= to) {
+            return;
+        }
+
+        // The events which started before the days come first on the first day.
+        int firstDay = mFirstJulianDay + from;
+        for (int i = mDayOffsets[from]; i < mDayOffsets[from + 1]; i++) {
+            if (mDayEvents[i].startDay < firstDay) {
+                out.add(mDayEvents[i]);
+            }
+        }
+        for (int i = mStartOffsets[from]; i < mStartOffsets[to]; i++) {
+            if (mEvents[i].startDay >= firstDay) {
+                out.add(mEvents[i]);
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import android.content.res.Configuration;
 import android.os.Handler;
 import android.os.Message;
 import android.text.format.Time;
+import android.util.SparseArray;
 import android.view.GestureDetector;
 import android.view.HapticFeedbackConstants;
 import android.view.MotionEvent;
@@ -33,11 +34,15 @@ import com.ankh.calendar.CalendarController;
 import com.ankh.calendar.Event;
 import com.ankh.calendar.Log;
 import com.ankh.calendar.R;
+import com.ankh.calendar.RecordStore;
 import com.ankh.calendar.Utils;
 import com.ankh.calendar.CalendarController.EventType;
 import com.ankh.calendar.CalendarController.ViewType;
+import com.ankh.calendar.month.MonthWeekEventsView.WeekLayout;
+import com.ankh.calendar.month.MonthWeekEventsView.WeekModel;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 public class MonthByWeekAdapter extends SimpleWeeksAdapter {
@@ -57,9 +62,33 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
     protected int mOrientation = Configuration.ORIENTATION_LANDSCAPE;
     private final boolean mShowAgendaWithMonth;
 
-    protected ArrayList<ArrayList<Event>> mEventDayList = new ArrayList<ArrayList<Event>>();
+    protected DayEventIndex mEventIndex = null;
     protected ArrayList<Event> mEvents = null;
 
+    // The models of the loaded weeks by their first Julian day, built in the
+    // background after every load so binding a week doesn't lay it out.
+    private final SparseArray<WeekModel> mWeekModels = new SparseArray<WeekModel>();
+    // The layout the models are built with, null until they're requested
+    private WeekLayout mWeekLayout = null;
+    // The first Julian days of the weeks whose models are requested, in the
+    // order they're built
+    private int[] mModelWeeks = null;
+    private final WeekModelLoader mModelLoader = new WeekModelLoader() {
+        @Override
+        protected void onModelLoaded(WeekModel model) {
+            if (model.eventIndex != mEventIndex) {
+                return;
+            }
+            mWeekModels.put(model.firstJulianDay, model);
+
+            // A visible week which is still waiting for its model gets it.
+            MonthWeekEventsView v = findWeekView(model.firstJulianDay);
+            if (v != null && v.setModel(model)) {
+                v.invalidate();
+            }
+        }
+    };
+
     private boolean mAnimateToday = false;
     private long mAnimateTime = 0;
 
@@ -138,49 +167,223 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
         mEvents = events;
         mFirstJulianDay = firstJulianDay;
         mQueryDays = numDays;
-        // Create a new list, this is necessary since the weeks are referencing
-        // pieces of the old list
-        ArrayList<ArrayList<Event>> eventDayList = new ArrayList<ArrayList<Event>>();
-        for (int i = 0; i < numDays; i++) {
-            eventDayList.add(new ArrayList<Event>());
-        }
+        // Build a new index, the weeks are referencing the days of the old
+        // one
+        mEventIndex = new DayEventIndex(firstJulianDay, numDays, events);
+        resetWeekModels();
 
         if (events == null || events.size() == 0) {
             if(Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "No events. Returning early--go schedule something fun.");
             }
-            mEventDayList = eventDayList;
-            refresh();
+        } else if(Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Processed " + events.size() + " events.");
+        }
+        refresh();
+    }
+
+    /**
+     * Replaces the events of a changed daily status or therapy with the new
+     * events in place, and redraws only the weeks of the days they take
+     * place. The original is the daily status or therapy before the change,
+     * or null if it's new. Its events are found by its id in the store.
+     */
+    public void updateEvents(RecordStore.Record original, Event[] newEvents) {
+        if (mIsMiniMonth || mEvents == null) {
             return;
         }
 
-        // Compute the new set of days with events
-        for (Event event : events) {
-            int startDay = event.startDay - mFirstJulianDay;
-            int endDay = event.endDay - mFirstJulianDay + 1;
-            if (startDay < numDays || endDay >= 0) {
-                if (startDay < 0) {
-                    startDay = 0;
-                }
-                if (startDay > numDays) {
+        int firstChangedDay = Integer.MAX_VALUE;
+        int lastChangedDay = Integer.MIN_VALUE;
+
+        if (original != null) {
+            for (int i = mEvents.size() - 1; i >= 0; i--) {
+                Event event = mEvents.get(i);
+                RecordStore.Record record = (event.dailyStatus != null) ? event.dailyStatus
+                        : event.therapy;
+                if (record == null || record.getClass() != original.getClass()
+                        || record.getId() != original.getId()) {
                     continue;
                 }
-                if (endDay < 0) {
+
+                mEvents.remove(i);
+                firstChangedDay = Math.min(firstChangedDay, event.startDay);
+                lastChangedDay = Math.max(lastChangedDay, event.endDay);
+            }
+        }
+
+        if (newEvents != null) {
+            for (Event event : newEvents) {
+                if (event.endDay < mFirstJulianDay
+                        || event.startDay >= mFirstJulianDay + mQueryDays) {
                     continue;
                 }
-                if (endDay > numDays) {
-                    endDay = numDays;
-                }
-                for (int j = startDay; j < endDay; j++) {
-                    eventDayList.get(j).add(event);
-                }
+
+                mEvents.add(event);
+                firstChangedDay = Math.min(firstChangedDay, event.startDay);
+                lastChangedDay = Math.max(lastChangedDay, event.endDay);
             }
         }
-        if(Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "Processed " + events.size() + " events.");
+
+        if (firstChangedDay <= lastChangedDay) {
+            // Indexing is linear, so it's rebuilt rather than patched.
+            mEventIndex = new DayEventIndex(mFirstJulianDay, mQueryDays, mEvents);
+            reloadWeekModels(firstChangedDay, lastChangedDay);
+            updateWeeks(firstChangedDay, lastChangedDay);
+        }
+    }
+
+    /**
+     * Moves the models of the weeks which don't overlap the changed days over
+     * to the new index of the events, and builds the models of the other
+     * weeks again, along with the ones which haven't been built yet.
+     */
+    private void reloadWeekModels(int firstChangedDay, int lastChangedDay) {
+        mModelLoader.cancelLoad();
+        if (mWeekLayout == null || mModelWeeks == null) {
+            mWeekModels.clear();
+            return;
+        }
+
+        int[] firstJulianDays = new int[mModelWeeks.length];
+        int count = 0;
+        for (int firstJulianDay : mModelWeeks) {
+            WeekModel model = mWeekModels.get(firstJulianDay);
+            if (model != null && (firstJulianDay > lastChangedDay
+                    || firstJulianDay + mDaysPerWeek <= firstChangedDay)) {
+                mWeekModels.put(firstJulianDay, model.withIndex(mEventIndex));
+            } else {
+                mWeekModels.remove(firstJulianDay);
+                firstJulianDays[count++] = firstJulianDay;
+            }
+        }
+
+        if (count > 0) {
+            mModelLoader.startLoad(mWeekLayout, mEventIndex,
+                    Arrays.copyOf(firstJulianDays, count));
+        }
+    }
+
+    /**
+     * Drops the models of the weeks, which are built from the previous index
+     * of the events.
+     */
+    private void resetWeekModels() {
+        mModelLoader.cancelLoad();
+        mWeekModels.clear();
+        mWeekLayout = null;
+        mModelWeeks = null;
+    }
+
+    /**
+     * Starts building the models of the loaded weeks in the background,
+     * starting with the visible weeks and going outwards, with the layout of
+     * the view. Nothing is built until a week has been laid out.
+     *
+     * @param laidOut a week view which has its size, or null to take the
+     *            layout of a visible week
+     */
+    private void loadWeekModels(MonthWeekEventsView laidOut) {
+        if (mEventIndex == null || mListView == null) {
+            return;
+        }
+
+        MonthWeekEventsView first = null;
+        int visibleWeeks = 0;
+        for (int i = 0; i < mListView.getChildCount(); i++) {
+            View child = mListView.getChildAt(i);
+            if (!(child instanceof MonthWeekEventsView)) {
+                continue;
+            }
+            MonthWeekEventsView v = (MonthWeekEventsView) child;
+            if (first == null) {
+                first = v;
+            }
+            if (laidOut == null && v.isLaidOut()) {
+                laidOut = v;
+            }
+            visibleWeeks++;
+        }
+        if (laidOut == null) {
+            return;
+        }
+        if (first == null) {
+            first = laidOut;
+            visibleWeeks = 1;
+        }
+
+        // The visible weeks, then alternately the weeks below and above them
+        // in the loaded days.
+        int firstLoadedDay = mEventIndex.getFirstJulianDay();
+        int lastWeekDay = firstLoadedDay + mEventIndex.getNumDays() - mDaysPerWeek;
+        int firstVisibleDay = first.getFirstJulianDay();
+        int[] firstJulianDays = new int[mEventIndex.getNumDays() / mDaysPerWeek + 1];
+        int count = 0;
+        for (int week = 0; week < visibleWeeks; week++) {
+            int day = firstVisibleDay + week * mDaysPerWeek;
+            if (day >= firstLoadedDay && day <= lastWeekDay) {
+                firstJulianDays[count++] = day;
+            }
+        }
+        for (int week = 1; ; week++) {
+            int below = firstVisibleDay + (visibleWeeks - 1 + week) * mDaysPerWeek;
+            int above = firstVisibleDay - week * mDaysPerWeek;
+            if (below > lastWeekDay && above < firstLoadedDay) {
+                break;
+            }
+            if (below >= firstLoadedDay && below <= lastWeekDay) {
+                firstJulianDays[count++] = below;
+            }
+            if (above >= firstLoadedDay && above <= lastWeekDay) {
+                firstJulianDays[count++] = above;
+            }
+        }
+
+        mWeekLayout = laidOut.getWeekLayout();
+        mModelWeeks = Arrays.copyOf(firstJulianDays, count);
+        mModelLoader.startLoad(mWeekLayout, mEventIndex, mModelWeeks);
+    }
+
+    // Returns the visible view of the week which starts on the Julian day.
+    private MonthWeekEventsView findWeekView(int firstJulianDay) {
+        if (mListView == null) {
+            return null;
+        }
+        for (int i = 0; i < mListView.getChildCount(); i++) {
+            View child = mListView.getChildAt(i);
+            if (child instanceof MonthWeekEventsView
+                    && ((MonthWeekEventsView) child).getFirstJulianDay() == firstJulianDay) {
+                return (MonthWeekEventsView) child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends the events again to the visible weeks which overlap the days and
+     * redraws them. The other weeks get the events when they're bound.
+     */
+    private void updateWeeks(int firstJulianDay, int lastJulianDay) {
+        if (mListView == null) {
+            return;
+        }
+
+        for (int i = 0; i < mListView.getChildCount(); i++) {
+            View child = mListView.getChildAt(i);
+            if (!(child instanceof MonthWeekEventsView)) {
+                continue;
+            }
+
+            MonthWeekEventsView v = (MonthWeekEventsView) child;
+            int viewJulianDay = v.getFirstJulianDay();
+            if (viewJulianDay > lastJulianDay
+                    || viewJulianDay + v.mNumDays <= firstJulianDay) {
+                continue;
+            }
+
+            sendEventsToView(v);
+            v.invalidate();
         }
-        mEventDayList = eventDayList;
-        refresh();
     }
 
     @SuppressWarnings("unchecked")
@@ -249,11 +452,19 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
 
         v.setWeekParams(drawingParams, mSelectedDay.timezone);
         sendEventsToView(v);
+
+        // The models are built once a week has its size, and again if the
+        // size of the weeks has changed since.
+        if (mEventIndex != null && v.isLaidOut()
+                && (mWeekLayout == null || !mWeekLayout.isLaidOutLike(v))) {
+            mWeekModels.clear();
+            loadWeekModels(v);
+        }
         return v;
     }
 
     private void sendEventsToView(MonthWeekEventsView v) {
-        if (mEventDayList.size() == 0) {
+        if (mEventIndex == null) {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
 //              Log.d(TAG, "No events loaded, did not pass any events to view.");
             }
@@ -263,7 +474,7 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
         int viewJulianDay = v.getFirstJulianDay();
         int start = viewJulianDay - mFirstJulianDay;
         int end = start + v.mNumDays;
-        if (start < 0 || end > mEventDayList.size()) {
+        if (start < 0 || end > mEventIndex.getNumDays()) {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "Week is outside range of loaded events. viewStart: " + viewJulianDay
                         + " eventsStart: " + mFirstJulianDay);
@@ -271,7 +482,8 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
             v.setEvents(null, null);
             return;
         }
-        v.setEvents(mEventDayList.subList(start, end), mEvents);
+        v.setEvents(mEventIndex.getDays().subList(start, end), mEventIndex,
+                mWeekModels.get(viewJulianDay));
     }
 
     @Override
@@ -48,12 +48,17 @@ import com.ankh.calendar.CalendarDatabase;
 import com.ankh.calendar.Event;
 import com.ankh.calendar.Log;
 import com.ankh.calendar.R;
+import com.ankh.calendar.RecordStore.OnRecordChangedListener;
 import com.ankh.calendar.Utils;
 import com.ankh.calendar.CalendarController.EventInfo;
 import com.ankh.calendar.CalendarController.EventType;
 import com.ankh.calendar.CalendarController.ViewType;
 import com.ankh.calendar.CalendarDatabase.Loader;
 import com.ankh.calendar.event.CreateEventDialogFragment;
+import com.ankh.calendar.infor.DailyStatus;
+import com.ankh.calendar.infor.DailyStatusManager;
+import com.ankh.calendar.therapy.Therapy;
+import com.ankh.calendar.therapy.TherapyManager;
 
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -110,6 +115,48 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
     };
 
 
+    // Patches the loaded events when a record is changed, instead of loading
+    // all of them again. The stores call the listeners on the saving thread.
+    private final Handler mRecordChangedHandler = new Handler();
+
+    private final OnRecordChangedListener<DailyStatus> mDailyStatusListener =
+            new OnRecordChangedListener<DailyStatus>() {
+        @Override
+        public void onRecordChanged(int change, final DailyStatus original,
+                final DailyStatus record) {
+            mRecordChangedHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mIsDetached || mAdapter == null) {
+                        return;
+                    }
+                    Event[] events = (record == null) ? null : new Event[] {
+                            Event.generateEventFromDailyStatus(mContext, record.getId(), record) };
+                    ((MonthByWeekAdapter) mAdapter).updateEvents(original, events);
+                }
+            });
+        }
+    };
+
+    private final OnRecordChangedListener<Therapy> mTherapyListener =
+            new OnRecordChangedListener<Therapy>() {
+        @Override
+        public void onRecordChanged(int change, final Therapy original,
+                final Therapy record) {
+            mRecordChangedHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mIsDetached || mAdapter == null) {
+                        return;
+                    }
+                    Event[] events = (record == null) ? null
+                            : Event.generateEventGroupFromTherapy(mContext, record.getId(), record);
+                    ((MonthByWeekAdapter) mAdapter).updateEvents(original, events);
+                }
+            });
+        }
+    };
+
     private final Runnable mTZUpdater = new Runnable() {
         @Override
         public void run() {
@@ -218,11 +265,19 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
             mEventsLoadingDelay = res.getInteger(R.integer.calendar_controls_animation_time);
         }
         mShowDetailsInMonth = res.getBoolean(R.bool.show_details_in_month);
+
+        if (!mIsMiniMonth) {
+            DailyStatusManager.getInstance(activity).registerListener(mDailyStatusListener);
+            TherapyManager.getInstance(activity).registerListener(mTherapyListener);
+        }
     }
 
     @Override
     public void onDetach() {
         mIsDetached = true;
+        DailyStatusManager.getInstance(getActivity()).unregisterListener(mDailyStatusListener);
+        TherapyManager.getInstance(getActivity()).unregisterListener(mTherapyListener);
+        mRecordChangedHandler.removeCallbacksAndMessages(null);
         super.onDetach();
         if (mShowCalendarControls) {
             if (mListView != null) {
@@ -51,7 +51,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 
@@ -111,9 +110,13 @@ public class MonthWeekEventsView extends SimpleWeekView {
     protected boolean mHasToday = false;
     protected int mTodayIndex = -1;
     protected int mOrientation = Configuration.ORIENTATION_LANDSCAPE;
-    protected List<ArrayList<Event>> mEvents = null;
-    protected ArrayList<Event> mUnsortedEvents = null;
-    HashMap<Integer, Utils.DNAStrand> mDna = null;
+    protected List<List<Event>> mEvents = null;
+    protected DayEventIndex mEventIndex = null;
+    // What is drawn of the events, usually built in the background before
+    // the view is bound
+    WeekModel mModel = null;
+    // The layout of this view, to build the model when there is none yet
+    private WeekLayout mLayout = null;
     // This is for drawing the outlines around event chips and supports up to 10
     // events being drawn on each day. The code will expand this if necessary.
     protected FloatRef mEventOutlines = new FloatRef(10 * 4 * 4 * 7);
@@ -225,7 +228,305 @@ public class MonthWeekEventsView extends SimpleWeekView {
 
     }
 
-    private int[] mDayXs;
+    /**
+     * The size and the text paints a week is laid out with. It's copied
+     * from a view on the UI thread, so weeks can be laid out with it on any
+     * thread, by one thread at a time. The dna of every week laid out with it
+     * is built in the same buffers, and only the strands are kept.
+     */
+    static class WeekLayout {
+        final Context context;
+        final String timeZone;
+        final int width;
+        final int height;
+        final int padding;
+        final int numDays;
+        final boolean showWeekNum;
+        final int orientation;
+        final int monthNumHeight;
+        final int eventHeight;
+        final int extrasHeight;
+        final TextPaint eventPaint;
+        final TextPaint extrasPaint;
+        final StringBuilder stringBuilder = new StringBuilder(50);
+        final Formatter formatter = new Formatter(stringBuilder, Locale.getDefault());
+
+        // The x of the dna of every day, and the width of the all day bars
+        final int[] dayXs;
+        final int allDayWidth;
+        final Utils.DNAStrandBuilder dnaBuilder = new Utils.DNAStrandBuilder();
+        final ArrayList<Event> weekEvents = new ArrayList<Event>();
+
+        WeekLayout(MonthWeekEventsView view) {
+            context = view.getContext().getApplicationContext();
+            timeZone = Utils.getTimeZone(context, null);
+            width = view.mWidth;
+            height = view.mHeight;
+            padding = view.mPadding;
+            numDays = view.mNumDays;
+            showWeekNum = view.mShowWeekNum;
+            orientation = view.mOrientation;
+            monthNumHeight = view.mMonthNumHeight;
+            eventHeight = view.mEventHeight;
+            extrasHeight = view.mExtrasHeight;
+            eventPaint = new TextPaint(view.mEventPaint);
+            extrasPaint = new TextPaint(view.mEventExtrasPaint);
+
+            int effectiveWidth = width - padding * 2;
+            if (showWeekNum) {
+                effectiveWidth -= SPACING_WEEK_NUMBER;
+            }
+            allDayWidth = effectiveWidth / numDays - 2 * DNA_SIDE_PADDING;
+            dayXs = new int[numDays];
+            for (int day = 0; day < numDays; day++) {
+                dayXs[day] = computeDayLeftPosition(day) + DNA_WIDTH / 2 + DNA_SIDE_PADDING;
+            }
+        }
+
+        /**
+         * Returns true if the view is laid out the same way.
+         */
+        boolean isLaidOutLike(MonthWeekEventsView view) {
+            return width == view.mWidth && height == view.mHeight && padding == view.mPadding
+                    && numDays == view.mNumDays && showWeekNum == view.mShowWeekNum
+                    && orientation == view.mOrientation
+                    && TextUtils.equals(timeZone, Utils.getTimeZone(context, null));
+        }
+
+        // The same as MonthWeekEventsView.computeDayLeftPosition()
+        int computeDayLeftPosition(int day) {
+            int effectiveWidth = width;
+            int xOffset = 0;
+            if (showWeekNum) {
+                xOffset = SPACING_WEEK_NUMBER + padding;
+                effectiveWidth -= xOffset;
+            }
+            return day * effectiveWidth / numDays + xOffset;
+        }
+    }
+
+    /**
+     * What a week draws of its events: the dna, or the events which fit in
+     * each day with their titles and times already fitted to the width. It
+     * doesn't change once it's built, so it can be built on any thread and
+     * then handed to the view.
+     */
+    static class WeekModel {
+        final WeekLayout layout;
+        final DayEventIndex eventIndex;
+        final int firstJulianDay;
+
+        // The dna version, the strands of the event colors and the one of
+        // the conflicts and the all day events, which is null if there is none
+        Utils.DNAStrand[] strands;
+        Utils.DNAStrand conflictStrand;
+
+        // The detailed version, the titles and the times of the events which
+        // fit in each day, the times are null if they aren't shown
+        CharSequence[][] titles;
+        CharSequence[][] times;
+
+        private WeekModel(WeekLayout layout, DayEventIndex eventIndex, int firstJulianDay) {
+            this.layout = layout;
+            this.eventIndex = eventIndex;
+            this.firstJulianDay = firstJulianDay;
+        }
+
+        /**
+         * Returns a copy of the model for a new index of the same events of
+         * the week, which shares everything that has been built.
+         */
+        WeekModel withIndex(DayEventIndex index) {
+            WeekModel model = new WeekModel(layout, index, firstJulianDay);
+            model.strands = strands;
+            model.conflictStrand = conflictStrand;
+            model.titles = titles;
+            model.times = times;
+            return model;
+        }
+
+        /**
+         * Returns true if the model is the one of the view for the events.
+         */
+        boolean isModelOf(DayEventIndex index, MonthWeekEventsView view) {
+            return eventIndex == index && firstJulianDay == view.mFirstJulianDay
+                    && layout.isLaidOutLike(view);
+        }
+
+        /**
+         * Builds the model of the week which starts on firstJulianDay, or
+         * returns null if the week can't be drawn with the layout or isn't in
+         * the index.
+         */
+        static WeekModel build(WeekLayout layout, DayEventIndex index, int firstJulianDay) {
+            int start = firstJulianDay - index.getFirstJulianDay();
+            if (layout.width <= MIN_WEEK_WIDTH || start < 0
+                    || start + layout.numDays > index.getNumDays()) {
+                return null;
+            }
+
+            WeekModel model = new WeekModel(layout, index, firstJulianDay);
+            if (mShowDetailsInMonth) {
+                model.buildEvents(index.getDays().subList(start, start + layout.numDays));
+            } else {
+                model.buildDna();
+            }
+            return model;
+        }
+
+        private void buildDna() {
+            int top = DAY_SEPARATOR_INNER_WIDTH + DNA_MARGIN + DNA_ALL_DAY_HEIGHT + 1;
+            int bottom = layout.height - DNA_MARGIN;
+            ArrayList<Event> weekEvents = layout.weekEvents;
+            eventIndex.getEvents(firstJulianDay, layout.numDays, weekEvents);
+            Utils.DNAStrandBuilder dna = Utils.createDNAStrands(firstJulianDay, weekEvents,
+                    top, bottom, DNA_MIN_SEGMENT_HEIGHT, layout.dayXs, layout.context,
+                    layout.dnaBuilder);
+            // Don't hold on to the events of the index.
+            weekEvents.clear();
+            if (dna == null) {
+                return;
+            }
+
+            strands = new Utils.DNAStrand[dna.getStrandCount()];
+            for (int i = 0; i < strands.length; i++) {
+                strands[i] = dna.getStrand(i).trimmedCopy();
+            }
+            Utils.DNAStrand conflict = dna.getConflictStrand();
+            conflictStrand = (conflict == null) ? null : conflict.trimmedCopy();
+        }
+
+        private void buildEvents(List<List<Event>> days) {
+            final int BORDER_SPACE = EVENT_SQUARE_BORDER + 1;
+            titles = new CharSequence[days.size()][];
+            times = new CharSequence[days.size()][];
+            for (int day = 0; day < days.size(); day++) {
+                List<Event> eventDay = days.get(day);
+                int size = eventDay.size();
+                int x = layout.computeDayLeftPosition(day) + SIDE_PADDING_MONTH_NUMBER + 1;
+                int rightEdge = getEventsRightEdge(layout, day);
+                int y = getEventsTop(layout);
+
+                // Determine if everything will fit when time ranges are shown.
+                boolean showTimes = true;
+                int yTest = y;
+                for (int i = 0; i < size; i++) {
+                    int newY = fitEvent(layout, eventDay.get(i), yTest, i < size - 1, true);
+                    if (newY == yTest) {
+                        showTimes = false;
+                        break;
+                    }
+                    yTest = newY;
+                }
+
+                int eventCount = 0;
+                for (int i = 0; i < size; i++) {
+                    int newY = fitEvent(layout, eventDay.get(i), y, i < size - 1, showTimes);
+                    if (newY == y) {
+                        break;
+                    }
+                    eventCount++;
+                    y = newY;
+                }
+
+                titles[day] = new CharSequence[eventCount];
+                times[day] = new CharSequence[eventCount];
+                for (int i = 0; i < eventCount; i++) {
+                    Event event = eventDay.get(i);
+                    int textX, textRightEdge;
+                    if (event.allDay) {
+                        textX = x + BORDER_SPACE;
+                        textRightEdge = rightEdge - BORDER_SPACE;
+                    } else {
+                        textX = x + EVENT_SQUARE_WIDTH + EVENT_RIGHT_PADDING;
+                        textRightEdge = rightEdge;
+                    }
+                    float avail = textRightEdge - textX;
+                    titles[day][i] = TextUtils.ellipsize(event.title, layout.eventPaint, avail,
+                            TextUtils.TruncateAt.END).toString();
+
+                    if (showTimes && !event.allDay) {
+                        // show start/end time, e.g. "1pm - 2pm"
+                        layout.stringBuilder.setLength(0);
+                        String text = DateUtils.formatDateRange(layout.context,
+                                layout.formatter, event.startMillis, event.endMillis,
+                                DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_ABBREV_ALL,
+                                layout.timeZone).toString();
+                        times[day][i] = TextUtils.ellipsize(text, layout.extrasPaint, avail,
+                                TextUtils.TruncateAt.END).toString();
+                    }
+                }
+            }
+        }
+    }
+
+    // The top of the first event of a day
+    private static int getEventsTop(WeekLayout layout) {
+        if (layout.orientation == Configuration.ORIENTATION_PORTRAIT) {
+            return EVENT_Y_OFFSET_PORTRAIT + layout.monthNumHeight + TOP_PADDING_MONTH_NUMBER;
+        }
+        return EVENT_Y_OFFSET_LANDSCAPE;
+    }
+
+    // The rightmost point the events of a day are drawn at (exclusive)
+    private static int getEventsRightEdge(WeekLayout layout, int day) {
+        int rightEdge = layout.computeDayLeftPosition(day + 1);
+        if (layout.orientation == Configuration.ORIENTATION_PORTRAIT) {
+            return rightEdge - (SIDE_PADDING_MONTH_NUMBER + 1);
+        }
+        return rightEdge - EVENT_X_OFFSET_LANDSCAPE;
+    }
+
+    /**
+     * Returns the y for the next event or the original y if the event will
+     * not fit. An event is considered to not fit if the event and its extras
+     * won't fit or if there are more events and the more events line would
+     * not fit after drawing this event.
+     */
+    private static int fitEvent(WeekLayout layout, Event event, int y, boolean moreEvents,
+            boolean showTimes) {
+        /*
+         * Vertical layout:
+         *   (top of box)
+         * a. EVENT_Y_OFFSET_LANDSCAPE or portrait equivalent
+         * b. Event title: mEventHeight for a normal event, + 2xBORDER_SPACE for all-day event
+         * c. [optional] Time range (mExtrasHeight)
+         * d. EVENT_LINE_PADDING
+         *
+         * Repeat (b,c,d) as needed and space allows.  If we have more events than fit, we need
+         * to leave room for something like "+2" at the bottom:
+         *
+         * e. "+ more" line (mExtrasHeight)
+         *
+         * f. EVENT_BOTTOM_PADDING (overlaps EVENT_LINE_PADDING)
+         *   (bottom of box)
+         */
+        final int BORDER_SPACE = EVENT_SQUARE_BORDER + 1;       // want a 1-pixel gap inside border
+        int eventRequiredSpace = layout.eventHeight;
+        if (event.allDay) {
+            // Add a few pixels for the box we draw around all-day events.
+            eventRequiredSpace += BORDER_SPACE * 2;
+        } else if (showTimes) {
+            // Need room for the "1pm - 2pm" line.
+            eventRequiredSpace += layout.extrasHeight;
+        }
+        int reservedSpace = EVENT_BOTTOM_PADDING;   // leave a bit of room at the bottom
+        if (moreEvents) {
+            // More events follow.  Leave a bit of space between events.
+            eventRequiredSpace += EVENT_LINE_PADDING;
+
+            // Make sure we have room for the "+ more" line.  (The "+ more" line is expected
+            // to be <= the height of an event line, so we won't show "+1" when we could be
+            // showing the event.)
+            reservedSpace += layout.extrasHeight;
+        }
+
+        if (y + eventRequiredSpace + reservedSpace > layout.height) {
+            // Not enough space, return original y
+            return y;
+        }
+        return y + eventRequiredSpace;
+    }
 
     /**
      * This provides a reference to a float array which allows for easy size
@@ -253,55 +554,72 @@ public class MonthWeekEventsView extends SimpleWeekView {
         super(context);
     }
 
-    // Sets the list of events for this week. Takes a sorted list of arrays
-    // divided up by day for generating the large month version and the full
-    // arraylist sorted by start time to generate the dna version.
-    public void setEvents(List<ArrayList<Event>> sortedEvents, ArrayList<Event> unsortedEvents) {
+    // Sets the list of events for this week. Takes a sorted list of lists
+    // divided up by day for the accessibility text and the index of the
+    // loaded events to build the model of the week from.
+    public void setEvents(List<List<Event>> sortedEvents, DayEventIndex eventIndex) {
+        setEvents(sortedEvents, eventIndex, null);
+    }
+
+    /**
+     * Sets the events of the week with the model built for it in the
+     * background, or null if there is none yet. The model is built when the
+     * view is drawn if it doesn't fit the view.
+     */
+    void setEvents(List<List<Event>> sortedEvents, DayEventIndex eventIndex, WeekModel model) {
         setEvents(sortedEvents);
-        // The MIN_WEEK_WIDTH is a hack to prevent the view from trying to
-        // generate dna bits before its width has been fixed.
-        createDna(unsortedEvents);
+        mEventIndex = mEvents == null ? null : eventIndex;
+        mModel = null;
+        setModel(model);
     }
 
     /**
-     * Sets up the dna bits for the view. This will return early if the view
-     * isn't in a state that will create a valid set of dna yet (such as the
-     * views width not being set correctly yet).
+     * Takes the model if the view has no model of its events yet and the
+     * model fits it. Returns true if it's taken.
      */
-    public void createDna(ArrayList<Event> unsortedEvents) {
-        if (unsortedEvents == null || mWidth <= MIN_WEEK_WIDTH || getContext() == null) {
-            // Stash the list of events for use when this view is ready, or
-            // just clear it if a null set has been passed to this view
-            mUnsortedEvents = unsortedEvents;
-            mDna = null;
-            return;
-        } else {
-            // clear the cached set of events since we're ready to build it now
-            mUnsortedEvents = null;
+    boolean setModel(WeekModel model) {
+        if (model == null || mEventIndex == null || !model.isModelOf(mEventIndex, this)
+                || (mModel != null && mModel.isModelOf(mEventIndex, this))) {
+            return false;
         }
-        // Create the drawing coordinates for dna
-        if (!mShowDetailsInMonth) {
-            int numDays = mEvents.size();
-            int effectiveWidth = mWidth - mPadding * 2;
-            if (mShowWeekNum) {
-                effectiveWidth -= SPACING_WEEK_NUMBER;
-            }
-            DNA_ALL_DAY_WIDTH = effectiveWidth / numDays - 2 * DNA_SIDE_PADDING;
-            mDNAAllDayPaint.setStrokeWidth(DNA_ALL_DAY_WIDTH);
-            mDayXs = new int[numDays];
-            for (int day = 0; day < numDays; day++) {
-                mDayXs[day] = computeDayLeftPosition(day) + DNA_WIDTH / 2 + DNA_SIDE_PADDING;
+        mModel = model;
+        return true;
+    }
 
-            }
+    /**
+     * Returns true if the width of the view has been fixed, so the weeks can
+     * be laid out like it.
+     */
+    boolean isLaidOut() {
+        return mWidth > MIN_WEEK_WIDTH;
+    }
 
-            int top = DAY_SEPARATOR_INNER_WIDTH + DNA_MARGIN + DNA_ALL_DAY_HEIGHT + 1;
-            int bottom = mHeight - DNA_MARGIN;
-            mDna = Utils.createDNAStrands(mFirstJulianDay, unsortedEvents, top, bottom,
-                    DNA_MIN_SEGMENT_HEIGHT, mDayXs, getContext());
+    /**
+     * Returns a copy of the layout of the view, to build the models of the
+     * other weeks with.
+     */
+    WeekLayout getWeekLayout() {
+        return new WeekLayout(this);
+    }
+
+    /**
+     * Returns the model of the events of this week, building it if there is
+     * no model which fits the view, or null if there is nothing to draw.
+     */
+    private WeekModel getModel() {
+        if (mEventIndex == null) {
+            return null;
+        }
+        if (mModel == null || !mModel.isModelOf(mEventIndex, this)) {
+            if (mLayout == null || !mLayout.isLaidOutLike(this)) {
+                mLayout = new WeekLayout(this);
+            }
+            mModel = WeekModel.build(mLayout, mEventIndex, mFirstJulianDay);
         }
+        return mModel;
     }
 
-    public void setEvents(List<ArrayList<Event>> sortedEvents) {
+    public void setEvents(List<List<Event>> sortedEvents) {
         mEvents = sortedEvents;
         if (sortedEvents == null) {
             return;
@@ -551,9 +869,6 @@ public class MonthWeekEventsView extends SimpleWeekView {
         if (mShowDetailsInMonth) {
             drawEvents(canvas);
         } else {
-            if (mDna == null && mUnsortedEvents != null) {
-                createDna(mUnsortedEvents);
-            }
             drawDNA(canvas);
         }
         drawClick(canvas);
@@ -720,57 +1035,29 @@ public class MonthWeekEventsView extends SimpleWeekView {
     }
 
     protected void drawEvents(Canvas canvas) {
-        if (mEvents == null) {
+        WeekModel model = getModel();
+        if (model == null || mEvents == null) {
             return;
         }
 
-        int day = -1;
-        for (ArrayList<Event> eventDay : mEvents) {
-            day++;
-            if (eventDay == null || eventDay.size() == 0) {
+        for (int day = 0; day < mEvents.size(); day++) {
+            List<Event> eventDay = mEvents.get(day);
+            int size = eventDay == null ? 0 : eventDay.size();
+            if (size == 0) {
                 continue;
             }
-            int ySquare;
             int xSquare = computeDayLeftPosition(day) + SIDE_PADDING_MONTH_NUMBER + 1;
-            int rightEdge = computeDayLeftPosition(day + 1);
-
-            if (mOrientation == Configuration.ORIENTATION_PORTRAIT) {
-                ySquare = EVENT_Y_OFFSET_PORTRAIT + mMonthNumHeight + TOP_PADDING_MONTH_NUMBER;
-                rightEdge -= SIDE_PADDING_MONTH_NUMBER + 1;
-            } else {
-                ySquare = EVENT_Y_OFFSET_LANDSCAPE;
-                rightEdge -= EVENT_X_OFFSET_LANDSCAPE;
-            }
-
-            // Determine if everything will fit when time ranges are shown.
-            boolean showTimes = true;
-            Iterator<Event> iter = eventDay.iterator();
-            int yTest = ySquare;
-            while (iter.hasNext()) {
-                Event event = iter.next();
-                int newY = drawEvent(canvas, event, xSquare, yTest, rightEdge, iter.hasNext(),
-                        showTimes, /*doDraw*/ false);
-                if (newY == yTest) {
-                    showTimes = false;
-                    break;
-                }
-                yTest = newY;
-            }
-
-            int eventCount = 0;
-            iter = eventDay.iterator();
-            while (iter.hasNext()) {
-                Event event = iter.next();
-                int newY = drawEvent(canvas, event, xSquare, ySquare, rightEdge, iter.hasNext(),
-                        showTimes, /*doDraw*/ true);
-                if (newY == ySquare) {
-                    break;
-                }
-                eventCount++;
-                ySquare = newY;
+            int rightEdge = getEventsRightEdge(model.layout, day);
+            int ySquare = getEventsTop(model.layout);
+
+            CharSequence[] titles = model.titles[day];
+            CharSequence[] times = model.times[day];
+            for (int i = 0; i < titles.length; i++) {
+                ySquare = drawEvent(canvas, eventDay.get(i), titles[i], times[i], xSquare,
+                        ySquare, rightEdge);
             }
 
-            int remaining = eventDay.size() - eventCount;
+            int remaining = size - titles.length;
             if (remaining > 0) {
                 drawMoreEvents(canvas, remaining, xSquare);
             }
@@ -804,69 +1091,24 @@ public class MonthWeekEventsView extends SimpleWeekView {
     }
 
     /**
-     * Attempts to draw the given event. Returns the y for the next event or the
-     * original y if the event will not fit. An event is considered to not fit
-     * if the event and its extras won't fit or if there are more events and the
-     * more events line would not fit after drawing this event.
+     * Draws the given event, which has been laid out to fit. Returns the y
+     * for the next event.
      *
      * @param canvas the canvas to draw on
      * @param event the event to draw
+     * @param title the title of the event fitted to the width
+     * @param times the time range of the event fitted to the width, or null
+     *   if it isn't shown
      * @param x the top left corner for this event's color chip
      * @param y the top left corner for this event's color chip
      * @param rightEdge the rightmost point we're allowed to draw on (exclusive)
-     * @param moreEvents indicates whether additional events will follow this one
-     * @param showTimes if set, a second line with a time range will be displayed for non-all-day
-     *   events
-     * @param doDraw if set, do the actual drawing; otherwise this just computes the height
-     *   and returns
-     * @return the y for the next event or the original y if it won't fit
+     * @return the y for the next event
      */
-    protected int drawEvent(Canvas canvas, Event event, int x, int y, int rightEdge,
-            boolean moreEvents, boolean showTimes, boolean doDraw) {
-        /*
-         * Vertical layout:
-         *   (top of box)
-         * a. EVENT_Y_OFFSET_LANDSCAPE or portrait equivalent
-         * b. Event title: mEventHeight for a normal event, + 2xBORDER_SPACE for all-day event
-         * c. [optional] Time range (mExtrasHeight)
-         * d. EVENT_LINE_PADDING
-         *
-         * Repeat (b,c,d) as needed and space allows.  If we have more events than fit, we need
-         * to leave room for something like "+2" at the bottom:
-         *
-         * e. "+ more" line (mExtrasHeight)
-         *
-         * f. EVENT_BOTTOM_PADDING (overlaps EVENT_LINE_PADDING)
-         *   (bottom of box)
-         */
+    protected int drawEvent(Canvas canvas, Event event, CharSequence title, CharSequence times,
+            int x, int y, int rightEdge) {
         final int BORDER_SPACE = EVENT_SQUARE_BORDER + 1;       // want a 1-pixel gap inside border
         final int STROKE_WIDTH_ADJ = EVENT_SQUARE_BORDER / 2;   // adjust bounds for stroke width
         boolean allDay = event.allDay;
-        int eventRequiredSpace = mEventHeight;
-        if (allDay) {
-            // Add a few pixels for the box we draw around all-day events.
-            eventRequiredSpace += BORDER_SPACE * 2;
-        } else if (showTimes) {
-            // Need room for the "1pm - 2pm" line.
-            eventRequiredSpace += mExtrasHeight;
-        }
-        int reservedSpace = EVENT_BOTTOM_PADDING;   // leave a bit of room at the bottom
-        if (moreEvents) {
-            // More events follow.  Leave a bit of space between events.
-            eventRequiredSpace += EVENT_LINE_PADDING;
-
-            // Make sure we have room for the "+ more" line.  (The "+ more" line is expected
-            // to be <= the height of an event line, so we won't show "+1" when we could be
-            // showing the event.)
-            reservedSpace += mExtrasHeight;
-        }
-
-        if (y + eventRequiredSpace + reservedSpace > mHeight) {
-            // Not enough space, return original y
-            return y;
-        } else if (!doDraw) {
-            return y + eventRequiredSpace;
-        }
 
         boolean isDeclined = event.selfAttendeeStatus == Attendees.ATTENDEE_STATUS_DECLINED;
         int color = event.color;
@@ -913,9 +1155,6 @@ public class MonthWeekEventsView extends SimpleWeekView {
         	canvas.drawRect(r, mEventSquarePaint);
         }
 
-        float avail = textRightEdge - textX;
-        CharSequence text = TextUtils.ellipsize(
-                event.title, mEventPaint, avail, TextUtils.TruncateAt.END);
         Paint textPaint;
         if (solidBackground) {
             // Text color needs to contrast with solid background.
@@ -931,21 +1170,16 @@ public class MonthWeekEventsView extends SimpleWeekView {
             // Use generic event text color.
             textPaint = mEventPaint;
         }
-        canvas.drawText(text.toString(), textX, textY, textPaint);
+        canvas.drawText(title.toString(), textX, textY, textPaint);
         y += mEventHeight;
         if (allDay) {
             y += BORDER_SPACE * 2;
         }
 
-        if (showTimes && !allDay) {
+        if (times != null && !allDay) {
             // show start/end time, e.g. "1pm - 2pm"
             textY = y + mExtrasAscentHeight;
-            mStringBuilder.setLength(0);
-            text = DateUtils.formatDateRange(getContext(), mFormatter, event.startMillis,
-                    event.endMillis, DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_ABBREV_ALL,
-                    Utils.getTimeZone(getContext(), null)).toString();
-            text = TextUtils.ellipsize(text, mEventExtrasPaint, avail, TextUtils.TruncateAt.END);
-            canvas.drawText(text.toString(), textX, textY, isDeclined ? mEventDeclinedExtrasPaint
+            canvas.drawText(times.toString(), textX, textY, isDeclined ? mEventDeclinedExtrasPaint
                     : mEventExtrasPaint);
             y += mExtrasHeight;
         }
@@ -974,33 +1208,32 @@ public class MonthWeekEventsView extends SimpleWeekView {
      */
     protected void drawDNA(Canvas canvas) {
         // Draw event and conflict times
-        if (mDna != null) {
-            for (Utils.DNAStrand strand : mDna.values()) {
-                if (strand.color == CONFLICT_COLOR || strand.points == null
-                        || strand.points.length == 0) {
+        WeekModel model = getModel();
+        if (model != null && model.strands != null) {
+            for (Utils.DNAStrand strand : model.strands) {
+                if (strand.points == null || strand.getPointCount() == 0) {
                     continue;
                 }
                 mDNATimePaint.setColor(strand.color);
-                canvas.drawLines(strand.points, mDNATimePaint);
+                canvas.drawLines(strand.points, 0, strand.getPointCount(), mDNATimePaint);
             }
             // Draw black last to make sure it's on top
-            Utils.DNAStrand strand = mDna.get(CONFLICT_COLOR);
-            if (strand != null && strand.points != null && strand.points.length != 0) {
+            Utils.DNAStrand strand = model.conflictStrand;
+            if (strand != null && strand.points != null && strand.getPointCount() != 0) {
                 mDNATimePaint.setColor(strand.color);
-                canvas.drawLines(strand.points, mDNATimePaint);
-            }
-            if (mDayXs == null) {
-                return;
+                canvas.drawLines(strand.points, 0, strand.getPointCount(), mDNATimePaint);
             }
-            int numDays = mDayXs.length;
-            int xOffset = (DNA_ALL_DAY_WIDTH - DNA_WIDTH) / 2;
+            int[] dayXs = model.layout.dayXs;
+            int numDays = dayXs.length;
+            int xOffset = (model.layout.allDayWidth - DNA_WIDTH) / 2;
+            mDNAAllDayPaint.setStrokeWidth(model.layout.allDayWidth);
             if (strand != null && strand.allDays != null && strand.allDays.length == numDays) {
                 for (int i = 0; i < numDays; i++) {
                     // this adds at most 7 draws. We could sort it by color and
                     // build an array instead but this is easier.
                     if (strand.allDays[i] != 0) {
                         mDNAAllDayPaint.setColor(strand.allDays[i]);
-                        canvas.drawLine(mDayXs[i] + xOffset, DNA_MARGIN, mDayXs[i] + xOffset,
+                        canvas.drawLine(dayXs[i] + xOffset, DNA_MARGIN, dayXs[i] + xOffset,
                                 DNA_MARGIN + DNA_ALL_DAY_HEIGHT, mDNAAllDayPaint);
                     }
                 }
@@ -1081,7 +1314,7 @@ public class MonthWeekEventsView extends SimpleWeekView {
                     int dayStart = SPACING_WEEK_NUMBER + mPadding;
                     int dayPosition = (int) ((event.getX() - dayStart) * mNumDays / (mWidth
                             - dayStart - mPadding));
-                    ArrayList<Event> events = mEvents.get(dayPosition);
+                    List<Event> events = mEvents.get(dayPosition);
                     List<CharSequence> text = accessEvent.getText();
                     for (Event e : events) {
                         text.add(e.getTitleAndLocation() + ". ");
@@ -0,0 +1,131 @@
+package com.ankh.calendar.month;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.Process;
+
+import com.ankh.calendar.month.MonthWeekEventsView.WeekLayout;
+import com.ankh.calendar.month.MonthWeekEventsView.WeekModel;
+
+/**
+ * Builds the models of month weeks on a single background thread, so a week
+ * which is bound to a view while the list is flung only has to be looked up.
+ *
+ * Only the latest load of a loader is built: a new load drops the weeks of
+ * the earlier one which haven't been built yet. Every model is passed to
+ * {@link #onModelLoaded(WeekModel)} on the thread which created the loader as
+ * soon as it's built, in the order of the requested weeks.
+ */
+class WeekModelLoader extends Handler {
+    private static final String TAG = "WeekModelLoader";
+
+    private static final List<LoadInfo> sWorkQueue = new ArrayList<LoadInfo>();
+    private static LoaderThread sLoaderThread = null;
+
+    // The latest load, it's cleared when the load is cancelled.
+    private volatile LoadInfo mLoad = null;
+
+    private static class LoadInfo {
+        public WeekModelLoader loader;
+        public WeekLayout layout;
+        public DayEventIndex eventIndex;
+        public int[] firstJulianDays;
+    }
+
+    /**
+     * Builds the models of the weeks which start on the Julian days from the
+     * index with the layout, instead of the weeks of the earlier load.
+     */
+    public void startLoad(WeekLayout layout, DayEventIndex eventIndex, int[] firstJulianDays) {
+        LoadInfo info = new LoadInfo();
+        info.loader = this;
+        info.layout = layout;
+        info.eventIndex = eventIndex;
+        info.firstJulianDays = firstJulianDays;
+
+        synchronized (sWorkQueue) {
+            sWorkQueue.remove(mLoad);
+            mLoad = info;
+            sWorkQueue.add(info);
+            sWorkQueue.notify();
+
+            if (sLoaderThread == null) {
+                sLoaderThread = new LoaderThread();
+                sLoaderThread.start();
+            }
+        }
+    }
+
+    /**
+     * Stops building the weeks of the latest load, the models which have
+     * been built already aren't passed on.
+     */
+    public void cancelLoad() {
+        synchronized (sWorkQueue) {
+            sWorkQueue.remove(mLoad);
+            mLoad = null;
+        }
+        removeMessages(0);
+    }
+
+    /**
+     * Called when the model of a week is built.
+     */
+    protected void onModelLoaded(WeekModel model) {
+    }
+
+    @Override
+    public void handleMessage(Message msg) {
+        WeekModel model = (WeekModel) msg.obj;
+        LoadInfo info = mLoad;
+        // Drop the models of a load which has been replaced in the meantime.
+        if (info != null && model.layout == info.layout
+                && model.eventIndex == info.eventIndex) {
+            onModelLoaded(model);
+        }
+    }
+
+    private static class LoaderThread extends Thread {
+
+        public LoaderThread() {
+            super(TAG);
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (true) {
+                LoadInfo info;
+                synchronized (sWorkQueue) {
+                    while (sWorkQueue.isEmpty()) {
+                        try {
+                            sWorkQueue.wait();
+                        } catch (InterruptedException e) {
+                        }
+                    }
+                    info = sWorkQueue.remove(0);
+                }
+
+                load(info);
+            }
+        }
+
+        private void load(LoadInfo info) {
+            WeekModelLoader loader = info.loader;
+            for (int firstJulianDay : info.firstJulianDays) {
+                // Stop as soon as the load is replaced or cancelled.
+                if (loader.mLoad != info) {
+                    return;
+                }
+                WeekModel model = WeekModel.build(info.layout, info.eventIndex,
+                        firstJulianDay);
+                if (model != null) {
+                    loader.obtainMessage(0, model).sendToTarget();
+                }
+            }
+        }
+    }
+}
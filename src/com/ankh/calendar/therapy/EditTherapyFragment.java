@@ -55,8 +55,8 @@ import android.widget.Toast;
 import com.android.colorpicker.ColorPickerSwatch.OnColorSelectedListener;
 import com.android.colorpicker.HsvColorComparator;
 import com.ankh.calendar.AsyncQueryService;
+import com.ankh.calendar.AsyncRecordWriter;
 import com.ankh.calendar.CalendarController;
-import com.ankh.calendar.CalendarDatabase;
 import com.ankh.calendar.DeleteEventHelper;
 import com.ankh.calendar.Log;
 import com.ankh.calendar.R;
@@ -110,6 +110,7 @@ public class EditTherapyFragment extends Fragment implements EventHandler {
     Therapy mRestoreTherapy;
     EditTherapyView mView;
     QueryHandler mHandler;
+    SaveHandler mSaveHandler;
 
     private AlertDialog mModifyDialog;
     int mModification = Utils.MODIFY_UNINITIALIZED;
@@ -141,6 +142,29 @@ public class EditTherapyFragment extends Fragment implements EventHandler {
         }
     };
 
+    // Saves in the background and reports the result once it's written,
+    // which can come after the screen is closed. The cookie is the string
+    // shown for a success.
+    private static class SaveHandler extends AsyncRecordWriter {
+        private final Context mContext;
+
+        public SaveHandler(Context context) {
+            super(context);
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        protected void onSaveComplete(int token, Object cookie, boolean result) {
+            int stringResource = result ? (Integer) cookie : R.string.saving_event_failed;
+            Toast.makeText(mContext, stringResource, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        protected void onSaveDelayed(int token, Object cookie) {
+            Toast.makeText(mContext, R.string.saving_event_delayed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
     // TODO turn this into a helper function in EditDailyStatusHelper for building the
     // therapy
     private class QueryHandler extends AsyncQueryHandler {
@@ -253,6 +277,7 @@ public class EditTherapyFragment extends Fragment implements EventHandler {
         mActivity = activity;
 
         mHandler = new QueryHandler(activity.getContentResolver());
+        mSaveHandler = new SaveHandler(activity);
         mTherapy = Therapy.from(mIntent);
         if (mTherapy == null) {
         	mTherapy = new Therapy();
@@ -453,9 +478,7 @@ public class EditTherapyFragment extends Fragment implements EventHandler {
 			if ((mCode & Utils.DONE_SAVE) != 0
 					&& mTherapy != null
 					&& mView.prepareForSave()
-					&& !isEmptyNewTherapy()
-					&& CalendarDatabase.saveTherapy(mActivity, mTherapy,
-							mOriginalTherapy, mModification)) {
+					&& !isEmptyNewTherapy()) {
 				int stringResource;
 				if (mOriginalTherapy != null) {
 					stringResource = R.string.saving_event;
@@ -463,8 +486,9 @@ public class EditTherapyFragment extends Fragment implements EventHandler {
 					stringResource = R.string.creating_event;
 				}
 
-				Toast.makeText(mActivity, stringResource, Toast.LENGTH_SHORT)
-						.show();
+				// The toast is shown once the therapy is written.
+				mSaveHandler.startSaveTherapy(0, stringResource, mTherapy,
+						mOriginalTherapy, mModification);
             } else if ((mCode & Utils.DONE_SAVE) != 0 && mTherapy != null && isEmptyNewTherapy()) {
                 Toast.makeText(mActivity, R.string.empty_event, Toast.LENGTH_SHORT).show();
             }
@@ -1,5 +1,6 @@
 package com.ankh.calendar.therapy;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -15,18 +16,21 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.ankh.calendar.JulianDayIndex;
 import com.ankh.calendar.Log;
+import com.ankh.calendar.RecordStore;
 
 import android.content.Intent;
 import android.database.Cursor;
+import android.text.TextUtils;
 import android.text.format.Time;
+import android.util.JsonReader;
 
 /**
  * A single therapy.
- *
- * Instances of the class are immutable.
  */
-public class Therapy implements Comparable<Therapy>, Serializable { 
+public class Therapy implements Comparable<Therapy>, Serializable,
+		RecordStore.Record { 
 
 	public final static String THERAPY = "therapy";
 
@@ -56,6 +60,79 @@ public class Therapy implements Comparable<Therapy>, Serializable {
 	private String mDescription;
 	private boolean mPrivacy;
 
+	// The Julian day of mDay, and the minutes since midnight and the start
+	// times of the reminders, valid while mTimesStamp is the time zone
+	// stamp. They aren't part of the record, so they aren't written
+	// anywhere. The stamp is written last, so other threads see them
+	// complete.
+	private transient int mJulianDay;
+	private transient int mReminderMinutes[];
+	private transient long mReminderMillis[];
+	private transient volatile int mTimesStamp;
+
+	/**
+	 * Walks the doses of a therapy, one for every reminder, which take place
+	 * from a Julian day to another. Nothing is created for a dose, and the
+	 * doses outside of the days aren't visited at all. An iterator can be
+	 * reset for another therapy, so one is enough for a whole load.
+	 */
+	public static class DoseIterator {
+		private Therapy mTherapy;
+		private int mCount;
+		private int mIndex;
+
+		/**
+		 * Starts walking the doses of the therapy from startDay to endDay
+		 * inclusive.
+		 */
+		public DoseIterator reset(Therapy therapy, int startDay, int endDay) {
+			mTherapy = therapy;
+			mIndex = -1;
+			mCount = 0;
+
+			// A therapy takes place on its own day only.
+			therapy.updateTimes();
+			int day = therapy.mJulianDay;
+			if (day >= startDay && day <= endDay
+					&& therapy.mReminderMinutes != null) {
+				mCount = therapy.mReminderMinutes.length;
+			}
+			return this;
+		}
+
+		/**
+		 * Moves to the next dose.
+		 *
+		 * @return false if there is no more dose
+		 */
+		public boolean next() {
+			if (mIndex >= mCount) {
+				return false;
+			}
+			return ++mIndex < mCount;
+		}
+
+		/** Returns the index of the reminder of the dose. */
+		public int getIndex() {
+			return mIndex;
+		}
+
+		/** Returns the Julian day of the dose. */
+		public int getJulianDay() {
+			return mTherapy.mJulianDay;
+		}
+
+		/** Returns the minutes since midnight when the dose is taken. */
+		public int getStartMinute() {
+			return mTherapy.mReminderMinutes[mIndex];
+		}
+
+		/** Returns the UTC milliseconds when the dose is taken. */
+		public long getStartMillis() {
+			return mTherapy.mReminderMillis[mIndex];
+		}
+	}
+
 	/**
 	 * Constructs a new Therapy.
 	 *
@@ -80,7 +157,7 @@ public class Therapy implements Comparable<Therapy>, Serializable {
 
 		Therapy re = (Therapy) obj;
 		return re.getType() == this.mType
-			&& this.mName.equals(re.getName())
+			&& TextUtils.equals(this.mName, re.getName())
 			&& re.getDay() == this.mDay;
 	}
 
@@ -202,6 +279,13 @@ public class Therapy implements Comparable<Therapy>, Serializable {
 	/** Set the day. */
 	public void setDay(long day) {
 		mDay = day;
+		mTimesStamp = 0;
+	}
+
+	/** Returns the Julian day of the day in the default time zone. */
+	public int getJulianDay() {
+		updateTimes();
+		return mJulianDay;
 	}
 
 	/** Returns the hasAlarm. */
@@ -222,6 +306,45 @@ public class Therapy implements Comparable<Therapy>, Serializable {
    /** Set the reminders group. */
 	public void setRemindersGroup(long[] remindersGroup) {
 		mRemindersGroup = remindersGroup;
+		mTimesStamp = 0;
+	}
+
+	/**
+	 * Returns the minutes since midnight of the reminders in the default
+	 * time zone, in the order of the reminders group, or null if there is no
+	 * reminder. The array must not be modified.
+	 */
+	public int[] getReminderMinutes() {
+		updateTimes();
+		return mReminderMinutes;
+	}
+
+	private void updateTimes() {
+		int stamp = JulianDayIndex.getTimeZoneStamp();
+		if (mTimesStamp == stamp) {
+			return;
+		}
+
+		Time t = new Time();
+		t.set(mDay);
+		mJulianDay = Time.getJulianDay(mDay, t.gmtoff);
+
+		int minutes[] = null;
+		long millis[] = null;
+		if (mRemindersGroup != null) {
+			// The reminders are times of the day in the raw offset.
+			long rawOffset = TimeZone.getDefault().getRawOffset();
+			minutes = new int[mRemindersGroup.length];
+			millis = new long[mRemindersGroup.length];
+			for (int i = 0; i < mRemindersGroup.length; i++) {
+				t.set(mRemindersGroup[i]);
+				minutes[i] = t.hour * 60 + t.minute;
+				millis[i] = mDay + mRemindersGroup[i] + rawOffset;
+			}
+		}
+		mReminderMinutes = minutes;
+		mReminderMillis = millis;
+		mTimesStamp = stamp;
 	}
 
 	/** Returns the description. */
@@ -274,6 +397,7 @@ public class Therapy implements Comparable<Therapy>, Serializable {
 	public static Therapy parse(JSONObject object) {
 		Therapy therapy = new Therapy();
 
+		therapy.setId(getIntegerValue(object, "id"));
 		therapy.setDay(getLongValue(object, "day"));
 		therapy.setDescription(getStringValue(object, "description"));
 		therapy.setHasAlarm(getIntegerValue(object, "hasAlarm") != 0);
@@ -302,8 +426,127 @@ public class Therapy implements Comparable<Therapy>, Serializable {
 		return therapy;
 	}
 	
+	/**
+	 * Reads a therapy from the JSON object at the reader, which has the same
+	 * names as {@link #toJSONObject()}.
+	 */
+	public static Therapy read(JsonReader reader) throws IOException {
+		Therapy therapy = new Therapy();
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+
+			if (name.equals("id")) {
+				therapy.setId(RecordStore.readInt(reader));
+			} else if (name.equals("day")) {
+				therapy.setDay(RecordStore.readLong(reader));
+			} else if (name.equals("description")) {
+				therapy.setDescription(RecordStore.readString(reader));
+			} else if (name.equals("hasAlarm")) {
+				therapy.setHasAlarm(RecordStore.readInt(reader) != 0);
+			} else if (name.equals("name")) {
+				therapy.setName(RecordStore.readString(reader));
+			} else if (name.equals("numberInEveryTime")) {
+				therapy.setNumberInEveryTime(RecordStore.readInt(reader));
+			} else if (name.equals("privacy")) {
+				therapy.setPrivacy(RecordStore.readInt(reader) != 0);
+			} else if (name.equals("type")) {
+				therapy.setType(RecordStore.readInt(reader));
+			} else if (name.equals("usageRule")) {
+				therapy.setUsageRule(RecordStore.readString(reader));
+			} else if (name.equals("usageTypeInEveryTime")) {
+				therapy.setUsageTypeInEveryTime(RecordStore.readInt(reader));
+			} else if (name.equals("reminder")) {
+				therapy.setRemindersGroup(readRemindersGroup(reader));
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		return therapy;
+	}
+
+	private static long[] readRemindersGroup(JsonReader reader)
+			throws IOException {
+		List<Long> times = new ArrayList<Long>();
+
+		// A value which isn't an array or an object is skipped, the same as
+		// parse(JSONObject) drops it.
+		if (!RecordStore.beginArray(reader)) {
+			return null;
+		}
+		while (reader.hasNext()) {
+			long time = 0;
+
+			if (!RecordStore.beginObject(reader)) {
+				continue;
+			}
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("time")) {
+					time = RecordStore.readLong(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+
+			times.add(time);
+		}
+		reader.endArray();
+
+		if (times.isEmpty()) {
+			return null;
+		}
+
+		long group[] = new long[times.size()];
+		for (int i = 0; i < group.length; i++) {
+			group[i] = times.get(i);
+		}
+		return group;
+	}
+
+	/**
+	 * Returns a new copy of the therapy at the current position of the
+	 * cursor, which is read from the typed columns of {@link TherapyCursor}.
+	 */
 	public static Therapy parse(Cursor cEvents) {
-		return parse(cEvents.getString(0));
+		Therapy therapy = new Therapy();
+
+		therapy.setId(cEvents.getInt(cEvents
+				.getColumnIndexOrThrow(TherapyCursor._ID)));
+		therapy.setDay(cEvents.getLong(cEvents
+				.getColumnIndexOrThrow(TherapyCursor.DAY)));
+		therapy.setType(cEvents.getInt(cEvents
+				.getColumnIndexOrThrow(TherapyCursor.TYPE)));
+		therapy.setName(cEvents.getString(cEvents
+				.getColumnIndexOrThrow(TherapyCursor.NAME)));
+		therapy.setUsageRule(cEvents.getString(cEvents
+				.getColumnIndexOrThrow(TherapyCursor.USAGE_RULE)));
+		therapy.setNumberInEveryTime(cEvents.getInt(cEvents
+				.getColumnIndexOrThrow(TherapyCursor.NUMBER_IN_EVERY_TIME)));
+		therapy.setUsageTypeInEveryTime(cEvents.getInt(cEvents
+				.getColumnIndexOrThrow(TherapyCursor.USAGE_TYPE_IN_EVERY_TIME)));
+		therapy.setHasAlarm(cEvents.getInt(cEvents
+				.getColumnIndexOrThrow(TherapyCursor.HAS_ALARM)) != 0);
+		therapy.setDescription(cEvents.getString(cEvents
+				.getColumnIndexOrThrow(TherapyCursor.DESCRIPTION)));
+		therapy.setPrivacy(cEvents.getInt(cEvents
+				.getColumnIndexOrThrow(TherapyCursor.PRIVACY)) != 0);
+
+		String reminders = cEvents.getString(cEvents
+				.getColumnIndexOrThrow(TherapyCursor.REMINDERS));
+		if (reminders != null && !reminders.isEmpty()) {
+			String times[] = reminders.split(",");
+			long group[] = new long[times.length];
+			for (int i = 0; i < times.length; i++) {
+				group[i] = Long.parseLong(times[i]);
+			}
+			therapy.setRemindersGroup(group);
+		}
+
+		return therapy;
 	}
 
 	public static Therapy parse(String jsonBuf) {
@@ -324,6 +567,7 @@ public class Therapy implements Comparable<Therapy>, Serializable {
 	public JSONObject toJSONObject() {
 		try {
 			JSONObject object = new JSONObject();
+			object.put("id", this.getId());
 			object.put("day", Long.toString(this.getDay()));
 			object.put("description", this.getDescription());
 			object.put("hasAlarm", this.getHasAlarm() ? 1 : 0);
@@ -363,4 +607,29 @@ public class Therapy implements Comparable<Therapy>, Serializable {
 	public boolean isEmpty() {
 		return this.mName == null || this.mName.isEmpty();
 	}
+
+	/**
+	 * Returns a new copy of the therapy, which shares nothing mutable with
+	 * it.
+	 */
+	public Therapy copy() {
+		Therapy therapy = new Therapy();
+
+		therapy.setId(mId);
+		therapy.setDay(mDay);
+		therapy.setType(mType);
+		therapy.setName(mName);
+		therapy.setUsageRule(mUsageRule);
+		therapy.setNumberInEveryTime(mNumberInEveryTime);
+		therapy.setUsageTypeInEveryTime(mUsageTypeInEveryTime);
+		therapy.setHasAlarm(mHasAlarm);
+		therapy.setDescription(mDescription);
+		therapy.setPrivacy(mPrivacy);
+
+		if (mRemindersGroup != null) {
+			therapy.setRemindersGroup(mRemindersGroup.clone());
+		}
+
+		return therapy;
+	}
 }
@@ -0,0 +1,120 @@
+package com.ankh.calendar.therapy;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.ankh.calendar.BinaryRecordFile;
+
+/**
+ * The binary row of a therapy:
+ * <pre>
+ * long day
+ * int  id in the store
+ * int  type
+ * int  name, usage rule as string indexes
+ * int  number and usage type in every time
+ * int  flags of hasAlarm and privacy
+ * int  description as a string index
+ * int  offset and count of the reminders in the extras, each of them is a
+ *      long time
+ * </pre>
+ */
+public class TherapyCodec implements BinaryRecordFile.Codec<Therapy> {
+
+	private static final int TYPE = 2;
+	private static final int ROW_SIZE = 48;
+
+	private static final int OFFSET_DAY = 0;
+	private static final int OFFSET_ID = 8;
+	private static final int OFFSET_TYPE = 12;
+	private static final int OFFSET_NAME = 16;
+	private static final int OFFSET_USAGE_RULE = 20;
+	private static final int OFFSET_NUMBER_IN_EVERY_TIME = 24;
+	private static final int OFFSET_USAGE_TYPE_IN_EVERY_TIME = 28;
+	private static final int OFFSET_FLAGS = 32;
+	private static final int OFFSET_DESCRIPTION = 36;
+	private static final int OFFSET_REMINDERS = 40;
+	private static final int OFFSET_REMINDERS_COUNT = 44;
+
+	private static final int FLAG_HAS_ALARM = 1;
+	private static final int FLAG_PRIVACY = 2;
+
+	@Override
+	public int getType() {
+		return TYPE;
+	}
+
+	@Override
+	public int getRowSize() {
+		return ROW_SIZE;
+	}
+
+	@Override
+	public void encode(Therapy therapy, ByteBuffer row,
+			BinaryRecordFile.Encoder encoder) throws IOException {
+		row.putLong(therapy.getDay());
+		row.putInt(therapy.getId());
+		row.putInt(therapy.getType());
+		row.putInt(encoder.putString(therapy.getName()));
+		row.putInt(encoder.putString(therapy.getUsageRule()));
+		row.putInt(therapy.getNumberInEveryTime());
+		row.putInt(therapy.getUsageTypeInEveryTime());
+		row.putInt((therapy.getHasAlarm() ? FLAG_HAS_ALARM : 0)
+				| (therapy.getPrivacy() ? FLAG_PRIVACY : 0));
+		row.putInt(encoder.putString(therapy.getDescription()));
+
+		long reminders[] = therapy.getRemindersGroup();
+		if (reminders == null) {
+			row.putInt(0);
+			row.putInt(0);
+			return;
+		}
+
+		row.putInt(encoder.getExtraOffset());
+		row.putInt(reminders.length);
+
+		DataOutputStream extras = encoder.getExtras();
+		for (long time : reminders) {
+			extras.writeLong(time);
+		}
+	}
+
+	@Override
+	public Therapy decode(ByteBuffer buffer, int offset,
+			BinaryRecordFile<Therapy> file) {
+		Therapy therapy = new Therapy();
+
+		therapy.setDay(buffer.getLong(offset + OFFSET_DAY));
+		therapy.setId(buffer.getInt(offset + OFFSET_ID));
+		therapy.setType(buffer.getInt(offset + OFFSET_TYPE));
+		therapy.setName(file.getString(buffer.getInt(offset + OFFSET_NAME)));
+		therapy.setUsageRule(file.getString(buffer.getInt(offset
+				+ OFFSET_USAGE_RULE)));
+		therapy.setNumberInEveryTime(buffer.getInt(offset
+				+ OFFSET_NUMBER_IN_EVERY_TIME));
+		therapy.setUsageTypeInEveryTime(buffer.getInt(offset
+				+ OFFSET_USAGE_TYPE_IN_EVERY_TIME));
+
+		int flags = buffer.getInt(offset + OFFSET_FLAGS);
+		therapy.setHasAlarm((flags & FLAG_HAS_ALARM) != 0);
+		therapy.setPrivacy((flags & FLAG_PRIVACY) != 0);
+
+		therapy.setDescription(file.getString(buffer.getInt(offset
+				+ OFFSET_DESCRIPTION)));
+
+		int count = buffer.getInt(offset + OFFSET_REMINDERS_COUNT);
+		if (count > 0) {
+			int extra = file.getExtraOffset(buffer.getInt(offset
+					+ OFFSET_REMINDERS));
+
+			long reminders[] = new long[count];
+			for (int i = 0; i < count; i++, extra += 8) {
+				reminders[i] = buffer.getLong(extra);
+			}
+			therapy.setRemindersGroup(reminders);
+		}
+
+		return therapy;
+	}
+}
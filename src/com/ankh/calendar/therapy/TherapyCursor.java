@@ -1,200 +1,188 @@
 package com.ankh.calendar.therapy;
 
-import android.content.ContentResolver;
+import java.util.List;
+
 import android.content.Context;
-import android.database.CharArrayBuffer;
-import android.database.ContentObserver;
+import android.database.AbstractCursor;
 import android.database.Cursor;
-import android.database.DataSetObserver;
-import android.net.Uri;
-import android.os.Bundle;
-
-import com.ankh.calendar.R;
-
-public class TherapyCursor implements Cursor {
 
-	private static final String TAG = "TherapyCursor";
-
-	private TherapyManager mManager = new TherapyManager();
+/**
+ * A read-only cursor over a snapshot of therapies, with a typed column for
+ * every field. The reminders are the times joined by commas. Consumers which
+ * know the cursor can get the current {@link Therapy} directly with
+ * {@link #getTherapy()}.
+ */
+public class TherapyCursor extends AbstractCursor {
+
+	public static final String _ID = "_id";
+	public static final String DAY = "day";
+	public static final String TYPE = "type";
+	public static final String NAME = "name";
+	public static final String USAGE_RULE = "usageRule";
+	public static final String NUMBER_IN_EVERY_TIME = "numberInEveryTime";
+	public static final String USAGE_TYPE_IN_EVERY_TIME = "usageTypeInEveryTime";
+	public static final String HAS_ALARM = "hasAlarm";
+	public static final String REMINDERS = "reminders";
+	public static final String DESCRIPTION = "description";
+	public static final String PRIVACY = "privacy";
+
+	public final static String COLUMN_NAMES[] = { _ID, DAY, TYPE, NAME,
+			USAGE_RULE, NUMBER_IN_EVERY_TIME, USAGE_TYPE_IN_EVERY_TIME,
+			HAS_ALARM, REMINDERS, DESCRIPTION, PRIVACY };
+
+	public static final int COLUMN_ID = 0;
+	public static final int COLUMN_DAY = 1;
+	public static final int COLUMN_TYPE = 2;
+	public static final int COLUMN_NAME = 3;
+	public static final int COLUMN_USAGE_RULE = 4;
+	public static final int COLUMN_NUMBER_IN_EVERY_TIME = 5;
+	public static final int COLUMN_USAGE_TYPE_IN_EVERY_TIME = 6;
+	public static final int COLUMN_HAS_ALARM = 7;
+	public static final int COLUMN_REMINDERS = 8;
+	public static final int COLUMN_DESCRIPTION = 9;
+	public static final int COLUMN_PRIVACY = 10;
+
+	private final List<Therapy> mRecords;
 
 	private Therapy mCurrentTherapy = null;
 
 	public TherapyCursor(Context ctx) {
-		mManager.setPathname(ctx.getResources().getString(
-				R.string.therapy_filename));
-		mManager.load();
+		this(ctx, Integer.MIN_VALUE, Integer.MAX_VALUE);
 	}
 
-	private int mPosition = 0;
+	/**
+	 * Constructs a cursor over a read-only snapshot of the records which take
+	 * place from the Julian day startDay to endDay inclusive.
+	 */
+	public TherapyCursor(Context ctx, int startDay, int endDay) {
+		this(TherapyManager.getInstance(ctx).getTherapies(startDay, endDay));
+	}
 
-	public int getColumnCount() {
-		return COLUMN_NAMES.length;
+	public TherapyCursor(List<Therapy> records) {
+		mRecords = records;
 	}
 
-	public int getColumnIndex(String columnName) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+	/**
+	 * Returns the therapy at the current position.
+	 */
+	public Therapy getTherapy() {
+		checkPosition();
+		return mCurrentTherapy;
 	}
 
-	public int getColumnIndexOrThrow(String columnName) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+	@Override
+	public boolean onMove(int oldPosition, int newPosition) {
+		mCurrentTherapy = mRecords.get(newPosition);
+		return true;
 	}
 
-	public String getColumnName(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+	@Override
+	public int getCount() {
+		return mRecords.size();
 	}
 
-	final static String COLUMN_NAMES[] = {"JSON_CODE"};
+	@Override
 	public String[] getColumnNames() {
 		return COLUMN_NAMES;
 	}
 
-	public int getCount() {
-		return mManager.getSize();
+	@Override
+	public int getType(int columnIndex) {
+		switch (columnIndex) {
+		case COLUMN_NAME:
+		case COLUMN_USAGE_RULE:
+		case COLUMN_REMINDERS:
+		case COLUMN_DESCRIPTION:
+			return isNull(columnIndex) ? Cursor.FIELD_TYPE_NULL
+					: Cursor.FIELD_TYPE_STRING;
+		default:
+			return Cursor.FIELD_TYPE_INTEGER;
+		}
 	}
 
+	@Override
 	public boolean isNull(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+		return getObject(columnIndex) == null;
 	}
 
-	public int getInt(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+	@Override
+	public String getString(int columnIndex) {
+		Object value = getObject(columnIndex);
+		return value == null ? null : value.toString();
 	}
 
+	@Override
 	public long getLong(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+		Object value = getObject(columnIndex);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return value == null ? 0 : Long.parseLong(value.toString());
 	}
 
+	@Override
+	public int getInt(int columnIndex) {
+		return (int) getLong(columnIndex);
+	}
+
+	@Override
 	public short getShort(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+		return (short) getLong(columnIndex);
 	}
 
+	@Override
 	public float getFloat(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
+		return getLong(columnIndex);
 	}
 
+	@Override
 	public double getDouble(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public byte[] getBlob(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public String getString(int columnIndex) {
-		return mCurrentTherapy.toJSONObject().toString();
-	}
-
-	public Bundle getExtras() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public int getPosition() {
-		return mPosition;
-	}
-
-	public boolean isAfterLast() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean isBeforeFirst() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean isFirst() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean isLast() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean move(int offset) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean moveToFirst() {
-		return moveToPosition(-1);
-	}
-
-	public boolean moveToLast() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean moveToNext() {
-		mPosition ++;
-		mCurrentTherapy = mManager.getTherapy();
-		return (mCurrentTherapy != null);
-	}
-
-	public boolean moveToPrevious() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean moveToPosition(int position) {
-		if (position != -1 && position != 0) {
-			throw new UnsupportedOperationException("Unsupport " + position);
+		return getLong(columnIndex);
+	}
+
+	private Object getObject(int columnIndex) {
+		Therapy therapy = getTherapy();
+
+		switch (columnIndex) {
+		case COLUMN_ID:
+			return therapy.getId();
+		case COLUMN_DAY:
+			return therapy.getDay();
+		case COLUMN_TYPE:
+			return therapy.getType();
+		case COLUMN_NAME:
+			return therapy.getName();
+		case COLUMN_USAGE_RULE:
+			return therapy.getUsageRule();
+		case COLUMN_NUMBER_IN_EVERY_TIME:
+			return therapy.getNumberInEveryTime();
+		case COLUMN_USAGE_TYPE_IN_EVERY_TIME:
+			return therapy.getUsageTypeInEveryTime();
+		case COLUMN_HAS_ALARM:
+			return therapy.getHasAlarm() ? 1 : 0;
+		case COLUMN_REMINDERS:
+			return joinReminders(therapy.getRemindersGroup());
+		case COLUMN_DESCRIPTION:
+			return therapy.getDescription();
+		case COLUMN_PRIVACY:
+			return therapy.getPrivacy() ? 1 : 0;
+		default:
+			throw new IllegalArgumentException("No column " + columnIndex);
 		}
-
-		mManager.reset();
-		mPosition = position;
-
-		return true;
-	}
-
-	public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void deactivate() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void close() {
-	}
-
-	public boolean isClosed() {
-		throw new UnsupportedOperationException("unimplemented mock method");
 	}
 
-	public boolean requery() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void registerContentObserver(ContentObserver observer) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void registerDataSetObserver(DataSetObserver observer) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public Bundle respond(Bundle extras) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public boolean getWantsAllOnMoveCalls() {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void setNotificationUri(ContentResolver cr, Uri uri) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void unregisterContentObserver(ContentObserver observer) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public void unregisterDataSetObserver(DataSetObserver observer) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
-
-	public int getType(int columnIndex) {
-		throw new UnsupportedOperationException("unimplemented mock method");
-	}
+	private static String joinReminders(long reminders[]) {
+		if (reminders == null) {
+			return null;
+		}
 
-	@Override
-	public Uri getNotificationUri() {
-		return null;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < reminders.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(reminders[i]);
+		}
+		return sb.toString();
 	}
-
 }
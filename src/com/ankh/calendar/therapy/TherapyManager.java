@@ -1,229 +1,133 @@
 package com.ankh.calendar.therapy;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.content.Context;
+import android.util.JsonReader;
+
+import com.ankh.calendar.BinaryRecordFile;
+import com.ankh.calendar.JulianDayIndex;
 import com.ankh.calendar.Log;
+import com.ankh.calendar.R;
+import com.ankh.calendar.RecordStore;
 
-public class TherapyManager {
+public class TherapyManager extends RecordStore<Therapy> {
 
 	private static final String TAG = "TherapyManager";
 
-	private JSONArray mJsonArray = null;
-	private int mCurrentIndex = 0;
-	private String mPathname;
-
-	public void setPathname(String path) {
-		mPathname = path;
-	}
-
-	public int getSize() {
-		return mJsonArray == null ? 0 : mJsonArray.length();
-	}
-
-	public void load() {
-		try {
-			StringBuilder sb = new StringBuilder();
-			BufferedReader br = new BufferedReader(new InputStreamReader(
-					new FileInputStream(mPathname)));
+	/**
+	 * Orders the therapies of the same Julian day by time, type, then name.
+	 */
+	private static final Comparator<Therapy> DAY_ORDER = new Comparator<Therapy>() {
+		@Override
+		public int compare(Therapy lhs, Therapy rhs) {
+			if (lhs.getDay() != rhs.getDay()) {
+				return lhs.getDay() < rhs.getDay() ? -1 : 1;
+			}
 
-			String line = null;
-			while ((line = br.readLine()) != null) {
-				sb.append(line + "\n");
+			if (lhs.getType() != rhs.getType()) {
+				return lhs.getType() - rhs.getType();
 			}
-			br.close();
 
-			setTherapyBuffer(sb.toString());
-		} catch (IOException e) {
-			e.printStackTrace();
+			if (lhs.getName() == null || rhs.getName() == null) {
+				return lhs.getName() == null ? (rhs.getName() == null ? 0 : -1) : 1;
+			}
+			return lhs.getName().compareTo(rhs.getName());
 		}
+	};
 
-	}
-
-	public void save() {
-		if (null == mJsonArray) {
-			Log.e(TAG, "Nothing is needed to save.");
-			return;
-		}
+	private static TherapyManager sInstance = null;
 
-		try {
-			String jsonString = mJsonArray.toString();
-			OutputStreamWriter osw = new OutputStreamWriter(
-					new FileOutputStream(mPathname));
+	// Whether the therapies are also compacted into a binary snapshot.
+	private static final boolean USE_BINARY_FORMAT = true;
 
-			osw.write(jsonString, 0, jsonString.length());
+	private int mCurrentIndex = 0;
 
-			osw.flush();
-			osw.close();
-			
-			Log.i(TAG, "Save " + mJsonArray.length() + " records to " + mPathname);
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Returns the manager of the therapy file which is shared by the whole
+	 * process.
+	 */
+	public static synchronized TherapyManager getInstance(Context context) {
+		if (sInstance == null) {
+			sInstance = new TherapyManager();
+			sInstance.setPathname(context.getResources().getString(
+					R.string.therapy_filename));
 		}
-	}
-
-	private void setTherapyBuffer(String buffer) {
-		try {
-			mJsonArray = new JSONArray(buffer);
-			mCurrentIndex = 0;
 
-			if (0 == mJsonArray.length()) {
-				mJsonArray = null;
-			}
-
-		} catch (JSONException e) {
-			e.printStackTrace();
-		}
+		return sInstance;
 	}
 
-	public void reset() {
-		mCurrentIndex = 0;
+	public TherapyManager() {
+		super(TAG, DAY_ORDER);
 	}
 
-	public boolean add(Therapy newTherapy) {
-		reset();
-
-		Therapy therapy = null;
-
-		try {
-			while (null != (therapy = getTherapy())) {
-				int diff = therapy.compareTo(newTherapy);
-
-				if (diff > 0) {
-					continue;
-				}
-
-				if (diff <= 0) {
-					// Append.
-					int i = mJsonArray.length() - 1;
-					mJsonArray.put(mJsonArray.getJSONObject(i));
-
-					// Move
-					for (; i >= mCurrentIndex - 1; i--) {
-						mJsonArray.put(i + 1, mJsonArray.getJSONObject(i));
-					}
-
-					// Insert before.
-				}
-
-				// Move the current.
-				mCurrentIndex--;
-				break;
-			}
-
-			if (mJsonArray == null) {
-				mJsonArray = new JSONArray();
-			}
-
-//			Log.v(TAG, "Add " + mCurrentIndex + ":" + newTherapy.toJSONObject());
-			mJsonArray.put(mCurrentIndex, newTherapy.toJSONObject());
-
-			return true;
-
-		} catch (JSONException e) {
-			e.printStackTrace();
-			return false;
-		}
+	@Override
+	protected Therapy parse(JSONObject object) {
+		return Therapy.parse(object);
 	}
 
-	public boolean del(int id) {
-		reset();
-
-		JSONArray array = new JSONArray();
-
-		Therapy therapy = null;
-
-		for (; null != (therapy = getTherapy()); id--) {
-			if (0 == id) {
-				continue;
-			}
-
-			array.put(therapy.toJSONObject());
-		}
+	@Override
+	protected BinaryRecordFile.Codec<Therapy> getCodec() {
+		return USE_BINARY_FORMAT ? new TherapyCodec() : null;
+	}
 
-		mJsonArray = array;
-		return true;
+	@Override
+	protected Therapy read(JsonReader reader) throws IOException {
+		return Therapy.read(reader);
 	}
 
-	public boolean modify(int id, Therapy newTherapy) {
-		if (!del(id)) {
-			return false;
-		}
+	@Override
+	protected JSONObject toJSONObject(Therapy therapy) {
+		return therapy.toJSONObject();
+	}
 
-		newTherapy.setId(id);
-		return add(newTherapy);
+	@Override
+	protected Therapy copy(Therapy therapy) {
+		return therapy.copy();
 	}
 
-	public boolean modify(Therapy oldTherapy, Therapy newTherapy) {
-		return modify(oldTherapy.getId(), newTherapy);
+	public void reset() {
+		mCurrentIndex = 0;
 	}
 
 	public Therapy getTherapy() {
-		if (null == mJsonArray || mCurrentIndex >= mJsonArray.length()) {
-			Log.d(TAG, (mJsonArray == null) ? "NO array" : "" + mCurrentIndex
-					+ " >= " + mJsonArray.length());
+		Therapy therapy = get(mCurrentIndex);
+		if (therapy == null) {
+			Log.d(TAG, "No record at " + mCurrentIndex);
 			return null;
 		}
 
-		try {
-//			Log.v(TAG,
-//					"Try to get " + mCurrentIndex + " in "
-//							+ mJsonArray.length());
-			JSONObject obj = mJsonArray.getJSONObject(mCurrentIndex++);
-
-			Therapy therapy = Therapy.parse(obj);
-			therapy.setId(mCurrentIndex);
-			return therapy;
-		} catch (JSONException e) {
-			e.printStackTrace();
-			return null;
-		}
+		mCurrentIndex++;
+		return therapy;
 	}
 
+	/**
+	 * Returns the first therapy of the day, or null if there is none.
+	 */
 	public Therapy getTherapy(Date whichDay) {
-		reset();
-
-		Therapy therapy = null;
-		while (null != (therapy = getTherapy())) {
-			int diff = therapy.compareTo(whichDay.getTime());
-
-			if (0 == diff) {
-				return therapy;
-			}
-
-			if (diff > 0) {
-				break;
-			}
-		}
-
-		return null;
+		List<Therapy> therapies = getTherapies(JulianDayIndex
+				.getJulianDay(whichDay.getTime()));
+		return therapies.isEmpty() ? null : therapies.get(0);
 	}
 
-	public String toString() {
-
-		String str = "\n-------------------------------------------------------------------------------\n";
-		str += "Pathname: " + mPathname + "\n";
-
-		try {
-			str += mJsonArray.toString(2);
-		} catch (JSONException e) {
-			e.printStackTrace();
-		} catch (RuntimeException e) {
-			e.printStackTrace();
-		}
-
-		str += "\n-------------------------------------------------------------------------------\n";
-
-		return str;
+	/**
+	 * Returns the therapies of the Julian day.
+	 */
+	public List<Therapy> getTherapies(int julianDay) {
+		return getRecords(julianDay);
 	}
 
+	/**
+	 * Returns the therapies which overlap the Julian days from startDay to
+	 * endDay inclusive, in order. A therapy takes place in a single day, all
+	 * of its reminders are the times of that day.
+	 */
+	public List<Therapy> getTherapies(int startDay, int endDay) {
+		return query(startDay, endDay);
+	}
 }
@@ -0,0 +1,75 @@
+package com.ankh.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link com.ankh.calendar.EventLayout}.
+ */
+public class EventLayoutTest extends TestCase {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static Event newEvent(long start, long end) {
+        Event e = Event.newInstance();
+        e.startMillis = start;
+        e.endMillis = end;
+        return e;
+    }
+
+    @SmallTest
+    public void testUnsortedInput() {
+        Event late = newEvent(2 * HOUR, 3 * HOUR);
+        Event early = newEvent(0, 2 * HOUR);
+        Event middle = newEvent(HOUR, 3 * HOUR);
+        Event alone = newEvent(5 * HOUR, 6 * HOUR);
+
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(late);
+        events.add(alone);
+        events.add(middle);
+        events.add(early);
+        EventLayout.computePositions(events, 0);
+
+        assertEquals(0, early.getColumn());
+        assertEquals(1, middle.getColumn());
+        // Starts when the first column is free again.
+        assertEquals(0, late.getColumn());
+        assertEquals(2, early.getMaxColumns());
+        assertEquals(2, late.getMaxColumns());
+
+        assertEquals(0, alone.getColumn());
+        assertEquals(1, alone.getMaxColumns());
+    }
+
+    @SmallTest
+    public void testManyOverlaps() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 100; i++) {
+            events.add(newEvent(i, 10 * HOUR));
+        }
+        EventLayout.computePositions(events, 0);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, events.get(i).getColumn());
+            assertEquals(100, events.get(i).getMaxColumns());
+        }
+    }
+
+    @SmallTest
+    public void testMinimumDuration() {
+        Event first = newEvent(0, 0);
+        Event second = newEvent(HOUR / 2, HOUR);
+
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(first);
+        events.add(second);
+        EventLayout.computePositions(events, HOUR);
+
+        assertEquals(0, first.getColumn());
+        assertEquals(1, second.getColumn());
+    }
+}
@@ -0,0 +1,69 @@
+package com.ankh.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link com.ankh.calendar.EventSpatialIndex}.
+ */
+public class EventSpatialIndexTest extends TestCase {
+
+    private static Event newEvent(int startTime, int endTime, float left, float right) {
+        Event e = Event.newInstance();
+        e.startTime = startTime;
+        e.endTime = endTime;
+        e.left = left;
+        e.right = right;
+        e.top = startTime;
+        e.bottom = endTime;
+        return e;
+    }
+
+    @SmallTest
+    public void testNeighbors() {
+        Event morning = newEvent(60, 120, 0, 100);
+        Event noon = newEvent(180, 240, 0, 45);
+        Event beside = newEvent(180, 300, 45, 100);
+        Event evening = newEvent(360, 420, 0, 100);
+
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(noon);
+        events.add(evening);
+        events.add(morning);
+        events.add(beside);
+        EventSpatialIndex index = new EventSpatialIndex();
+        index.build(events);
+
+        assertNull(index.findUp(morning));
+        // Both start together, so the one under the center wins.
+        assertSame(beside, index.findDown(morning));
+        assertSame(morning, index.findUp(noon));
+        assertSame(evening, index.findDown(noon));
+        assertSame(evening, index.findDown(beside));
+        assertSame(beside, index.findUp(evening));
+
+        assertSame(beside, index.findRight(noon, 180, 240));
+        assertSame(noon, index.findLeft(beside, 180, 300));
+        assertNull(index.findLeft(noon, 180, 240));
+        assertNull(index.findRight(morning, 60, 120));
+    }
+
+    @SmallTest
+    public void testNearestBeside() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        Event center = newEvent(600, 660, 0, 10);
+        events.add(center);
+        for (int i = 0; i < 24; i++) {
+            events.add(newEvent(i * 60, i * 60 + 30, 20, 30));
+        }
+        EventSpatialIndex index = new EventSpatialIndex();
+        index.build(events);
+
+        // The center of 600 and 660 touches the event from 600 to 630.
+        assertSame(events.get(11), index.findRight(center, 600, 660));
+        assertNull(index.findLeft(center, 600, 660));
+    }
+}
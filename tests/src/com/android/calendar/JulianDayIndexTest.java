@@ -0,0 +1,70 @@
+package com.ankh.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Comparator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link com.ankh.calendar.JulianDayIndex}.
+ */
+public class JulianDayIndexTest extends TestCase {
+
+    private static final Comparator<String> ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            return lhs.compareTo(rhs);
+        }
+    };
+
+    private JulianDayIndex<String> mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIndex = new JulianDayIndex<String>(ORDER);
+        mIndex.add(2456300, "c");
+        mIndex.add(2456290, "a");
+        mIndex.add(2456300, "b");
+        mIndex.add(2456310, "d");
+    }
+
+    @SmallTest
+    public void testOrder() {
+        assertEquals(4, mIndex.size());
+        assertEquals("a", mIndex.get(0));
+        assertEquals("b", mIndex.get(1));
+        assertEquals("c", mIndex.get(2));
+        assertEquals("d", mIndex.get(3));
+    }
+
+    @SmallTest
+    public void testPointLookup() {
+        List<String> records = mIndex.getRecords(2456300);
+        assertEquals(2, records.size());
+        assertEquals("b", records.get(0));
+        assertEquals("c", records.get(1));
+        assertTrue(mIndex.getRecords(2456301).isEmpty());
+    }
+
+    @SmallTest
+    public void testRangeQuery() {
+        List<String> records = mIndex.query(2456291, 2456310);
+        assertEquals(3, records.size());
+        assertEquals("b", records.get(0));
+        assertEquals("d", records.get(2));
+        assertTrue(mIndex.query(2456311, 2456400).isEmpty());
+        assertTrue(mIndex.query(2456310, 2456290).isEmpty());
+    }
+
+    @SmallTest
+    public void testRemove() {
+        String record = mIndex.getRecords(2456300).get(0);
+        assertFalse(mIndex.remove(2456290, record));
+        assertTrue(mIndex.remove(2456300, record));
+        assertEquals(3, mIndex.size());
+        assertEquals("c", mIndex.get(1));
+    }
+}
@@ -230,13 +230,29 @@ public class AlarmSchedulerTest extends AndroidTestCase {
     }
 
     public void testAlarmMax() {
-        // Set up mock test data for a reminder greater than 1 day in the future.
-        // This will be maxed out to 1 day out.
+        // Set up mock test data for an event which begins near the end of the indexed
+        // window.  The alarm is maxed out to the window end minus the longest exact lead,
+        // when the window is extended.
         long currentMillis = System.currentTimeMillis();
-        long startMillis = currentMillis + DateUtils.DAY_IN_MILLIS * 3;
-        int reminderMin = (int) DateUtils.DAY_IN_MILLIS / (1000 * 60);
+        long startMillis = currentMillis + AlarmScheduler.INDEX_WINDOW_MS
+                - DateUtils.DAY_IN_MILLIS;
+        mMockProvider.addEventInfo(1, false, startMillis, 0);
+        expectAlarmAt(currentMillis + AlarmScheduler.INDEX_WINDOW_MS
+                - AlarmScheduler.MAX_EXACT_LEAD_MS);
+
+        // Invoke scheduleNextAlarm and verify alarm was set at the expected time.
+        AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, BATCH_SIZE,
+                currentMillis);
+        assertTrue(mMockAlarmManager.isAlarmSet());
+    }
+
+    public void testLongLeadReminder() {
+        // Set up mock test data for a 2 week reminder, which isn't maxed out.
+        long currentMillis = System.currentTimeMillis();
+        long startMillis = currentMillis + DateUtils.WEEK_IN_MILLIS * 3;
+        int reminderMin = (int) (DateUtils.WEEK_IN_MILLIS * 2 / DateUtils.MINUTE_IN_MILLIS);
         mMockProvider.addEventInfo(1, false, startMillis, reminderMin);
-        expectAlarmAt(currentMillis + DateUtils.DAY_IN_MILLIS);
+        expectAlarmAt(currentMillis + DateUtils.WEEK_IN_MILLIS);
 
         // Invoke scheduleNextAlarm and verify alarm was set at the expected time.
         AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, BATCH_SIZE,
@@ -244,6 +260,26 @@ public class AlarmSchedulerTest extends AndroidTestCase {
         assertTrue(mMockAlarmManager.isAlarmSet());
     }
 
+    public void testEventsChanged() {
+        // A new index reads the whole window.
+        long currentMillis = System.currentTimeMillis();
+        ReminderIndex index = new ReminderIndex();
+        AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, index, false,
+                BATCH_SIZE, currentMillis);
+        assertEquals(currentMillis + AlarmScheduler.INDEX_WINDOW_MS, index.getWindowEnd());
+
+        // After a change, only the near part of the window is read again.
+        currentMillis += DateUtils.HOUR_IN_MILLIS;
+        AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, index, true,
+                BATCH_SIZE, currentMillis);
+        assertEquals(currentMillis + AlarmScheduler.NEAR_WINDOW_MS, index.getWindowEnd());
+
+        // Then the window grows by as much with every schedule.
+        AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, index, false,
+                BATCH_SIZE, currentMillis);
+        assertEquals(currentMillis + 2 * AlarmScheduler.NEAR_WINDOW_MS, index.getWindowEnd());
+    }
+
     public void testMultipleEvents() {
         // Set up multiple events where a later event time has an earlier reminder time.
         long currentMillis = System.currentTimeMillis();
@@ -712,6 +712,73 @@ public class AlertServiceTest extends AndroidTestCase {
                 false, false);
     }
 
+    @SmallTest
+    public void testGenerateAlerts_unchangedNotPostedAgain() {
+        int maxNotifications = 10;
+        MockSharedPreferences prefs = new MockSharedPreferences();
+        MockAlarmManager alarmMgr = new MockAlarmManager(mContext);
+        AlertService.PostedNotifications posted = new AlertService.PostedNotifications();
+        AlertsTable at = new AlertsTable();
+
+        // Two future alerts which have fired a while ago, so they don't ring again.
+        long currentTime = createTimeInMillis(5, 0);
+        int id9 = at.addAlertRow(9, FIRED, ACCEPTED, 0, createTimeInMillis(9, 0),
+                createTimeInMillis(10, 0), createTimeInMillis(4, 0));
+        int id8 = at.addAlertRow(8, FIRED, ACCEPTED, 0, createTimeInMillis(8, 0),
+                createTimeInMillis(9, 0), createTimeInMillis(4, 0));
+
+        NotificationTestManager ntm = new NotificationTestManager(at.mAlerts, maxNotifications);
+        ntm.expectTestNotification(1, id9, PRIORITY_HIGH);
+        ntm.expectTestNotification(2, id8, PRIORITY_HIGH);
+        AlertService.generateAlerts(mContext, ntm, alarmMgr, prefs, at.getAlertCursor(),
+                currentTime, maxNotifications, posted);
+        ntm.validateNotificationsAndReset();
+
+        // Nothing has changed, so nothing is posted or cancelled again.
+        ntm = new NotificationTestManager(at.mAlerts, maxNotifications);
+        AlertService.generateAlerts(mContext, ntm, alarmMgr, prefs, at.getAlertCursor(),
+                currentTime, maxNotifications, posted);
+        for (int id = 0; id <= maxNotifications; id++) {
+            assertNull("Notification " + id + " was posted again", ntm.mActualNotifications[id]);
+            assertFalse("Notification " + id + " was cancelled again", ntm.mCancelled[id]);
+        }
+    }
+
+    @SmallTest
+    public void testGenerateAlerts_removedCancelled() {
+        int maxNotifications = 10;
+        MockSharedPreferences prefs = new MockSharedPreferences();
+        MockAlarmManager alarmMgr = new MockAlarmManager(mContext);
+        AlertService.PostedNotifications posted = new AlertService.PostedNotifications();
+        AlertsTable at = new AlertsTable();
+
+        long currentTime = createTimeInMillis(5, 0);
+        int id9 = at.addAlertRow(9, FIRED, ACCEPTED, 0, createTimeInMillis(9, 0),
+                createTimeInMillis(10, 0), createTimeInMillis(4, 0));
+        int id8 = at.addAlertRow(8, FIRED, ACCEPTED, 0, createTimeInMillis(8, 0),
+                createTimeInMillis(9, 0), createTimeInMillis(4, 0));
+
+        NotificationTestManager ntm = new NotificationTestManager(at.mAlerts, maxNotifications);
+        ntm.expectTestNotification(1, id9, PRIORITY_HIGH);
+        ntm.expectTestNotification(2, id8, PRIORITY_HIGH);
+        AlertService.generateAlerts(mContext, ntm, alarmMgr, prefs, at.getAlertCursor(),
+                currentTime, maxNotifications, posted);
+        ntm.validateNotificationsAndReset();
+
+        // The second alert is dismissed, so only its notification is cancelled.
+        at.mAlerts.remove(id8);
+        ntm = new NotificationTestManager(at.mAlerts, maxNotifications);
+        AlertService.generateAlerts(mContext, ntm, alarmMgr, prefs, at.getAlertCursor(),
+                currentTime, maxNotifications, posted);
+        assertTrue("Notification 2 should have been cancelled", ntm.mCancelled[2]);
+        for (int id = 0; id <= maxNotifications; id++) {
+            assertNull("Notification " + id + " was posted again", ntm.mActualNotifications[id]);
+            if (id != 2) {
+                assertFalse("Notification " + id + " was cancelled again", ntm.mCancelled[id]);
+            }
+        }
+    }
+
     private static long createTimeInMillis(int hour, int minute) {
         return Utils.createTimeInMillis(0 /* second */, minute, hour, 1 /* day */, 1 /* month */,
                 2012 /* year */, Time.getCurrentTimezone());
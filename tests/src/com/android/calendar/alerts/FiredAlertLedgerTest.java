@@ -0,0 +1,85 @@
+package com.ankh.calendar.alerts;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link com.ankh.calendar.alerts.FiredAlertLedger}.
+ */
+public class FiredAlertLedgerTest extends TestCase {
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("fired_alerts", null);
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testAddAndReload() {
+        FiredAlertLedger ledger = new FiredAlertLedger(mFile);
+        ledger.add(1, 1000, 400);
+        ledger.add(2, 2000, 500);
+        // Out of order, so the file is written again.
+        ledger.add(3, 3000, 450);
+        ledger.add(2, 2000, 500);
+
+        assertEquals(3, ledger.size());
+        assertTrue(ledger.contains(1, 1000, 400));
+        assertTrue(ledger.contains(3, 3000, 450));
+        assertFalse(ledger.contains(1, 1000, 500));
+        assertFalse(ledger.contains(2, 1000, 500));
+
+        ledger = new FiredAlertLedger(mFile);
+        assertEquals(3, ledger.size());
+        assertTrue(ledger.contains(1, 1000, 400));
+        assertTrue(ledger.contains(2, 2000, 500));
+        assertTrue(ledger.contains(3, 3000, 450));
+    }
+
+    @SmallTest
+    public void testRemoveBefore() {
+        FiredAlertLedger ledger = new FiredAlertLedger(mFile);
+        for (int i = 0; i < 200; i++) {
+            ledger.add(i, i * 10, i * 10 - 5);
+        }
+
+        ledger.removeBefore(1000);
+        assertEquals(99, ledger.size());
+        assertFalse(ledger.contains(100, 1000, 995));
+        assertTrue(ledger.contains(101, 1010, 1005));
+
+        ledger = new FiredAlertLedger(mFile);
+        assertEquals(99, ledger.size());
+        assertTrue(ledger.contains(199, 1990, 1985));
+    }
+
+    @SmallTest
+    public void testAddAll() {
+        FiredAlertLedger ledger = new FiredAlertLedger(mFile);
+        ledger.add(1, 1000, 400);
+        ledger.addAll(new long[] {3, 1, 2}, new long[] {3000, 1000, 2000},
+                new long[] {600, 400, 500}, 3);
+
+        assertEquals(3, ledger.size());
+        ledger = new FiredAlertLedger(mFile);
+        assertEquals(3, ledger.size());
+        assertTrue(ledger.contains(2, 2000, 500));
+        assertTrue(ledger.contains(3, 3000, 600));
+
+        // Appended after the sorted rows.
+        ledger.add(4, 4000, 700);
+        ledger = new FiredAlertLedger(mFile);
+        assertTrue(ledger.contains(4, 4000, 700));
+    }
+}
@@ -0,0 +1,115 @@
+package com.ankh.calendar.alerts;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+
+import com.ankh.calendar.therapy.Therapy;
+import com.ankh.calendar.therapy.TherapyManager;
+
+import java.util.ArrayList;
+import java.util.TimeZone;
+
+/**
+ * Unit tests for {@link com.ankh.calendar.alerts.TherapyReminderScheduler}.
+ */
+public class TherapyReminderSchedulerTest extends AndroidTestCase {
+
+    private static class TestScheduler extends TherapyReminderScheduler {
+        final ArrayList<Long> mNotified = new ArrayList<Long>();
+
+        TestScheduler(Context context, AlarmManagerInterface alarmManager,
+                TherapyManager therapies) {
+            super(context, alarmManager, therapies);
+        }
+
+        @Override
+        void notifyDose(Therapy therapy, int index, long alarmTime) {
+            mNotified.add(alarmTime);
+        }
+    }
+
+    private TherapyManager mTherapies;
+    private long mFirstDose;
+    private long mSecondDose;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        Time time = new Time();
+        time.setToNow();
+        time.hour = 0;
+        time.minute = 0;
+        time.second = 0;
+        long day = time.normalize(false) + DateUtils.DAY_IN_MILLIS;
+        mFirstDose = day + 9 * DateUtils.HOUR_IN_MILLIS;
+        mSecondDose = day + 21 * DateUtils.HOUR_IN_MILLIS;
+
+        // The reminders are times of the day in the raw offset.
+        long rawOffset = TimeZone.getDefault().getRawOffset();
+        Therapy therapy = new Therapy();
+        therapy.setName("Aspirin");
+        therapy.setDay(day);
+        therapy.setHasAlarm(true);
+        therapy.setRemindersGroup(new long[] {
+                mFirstDose - day - rawOffset, mSecondDose - day - rawOffset
+        });
+
+        mTherapies = new TherapyManager();
+        mTherapies.add(therapy);
+        // A second one which differs only in its id.
+        mTherapies.add(therapy);
+    }
+
+    @SmallTest
+    public void testOnAlarm_freshScheduler() {
+        MockAlarmManager alarmMgr = new MockAlarmManager(mContext);
+        alarmMgr.expectAlarmTime(AlarmManager.RTC_WAKEUP, mSecondDose);
+        TestScheduler scheduler = new TestScheduler(mContext, alarmMgr, mTherapies);
+
+        // The process was started by the alarm, after the dose.
+        scheduler.onAlarm(mFirstDose, mFirstDose + DateUtils.MINUTE_IN_MILLIS);
+        assertEquals(2, scheduler.mNotified.size());
+        assertEquals(mFirstDose, (long) scheduler.mNotified.get(0));
+        assertEquals(mFirstDose, (long) scheduler.mNotified.get(1));
+        assertTrue(alarmMgr.isAlarmSet());
+    }
+
+    @SmallTest
+    public void testOnAlarm_loadedAfterAlarm() {
+        MockAlarmManager alarmMgr = new MockAlarmManager(mContext);
+        alarmMgr.expectAlarmTime(AlarmManager.RTC_WAKEUP, mSecondDose);
+        TestScheduler scheduler = new TestScheduler(mContext, alarmMgr, mTherapies);
+
+        // The doses were read for another broadcast before the alarm was
+        // delivered, from after the first one.
+        scheduler.scheduleNextAlarm(mFirstDose + DateUtils.MINUTE_IN_MILLIS);
+        scheduler.onAlarm(mFirstDose, mFirstDose + DateUtils.MINUTE_IN_MILLIS);
+        assertEquals(2, scheduler.mNotified.size());
+        assertEquals(mFirstDose, (long) scheduler.mNotified.get(1));
+
+        // The alarm registered by the scheduler itself.
+        scheduler.onAlarm(mSecondDose, mSecondDose);
+        assertEquals(4, scheduler.mNotified.size());
+        assertEquals(mSecondDose, (long) scheduler.mNotified.get(3));
+    }
+
+    @SmallTest
+    public void testOnRecordChanged_sameNameKept() {
+        TestScheduler scheduler = new TestScheduler(mContext, new MockAlarmManager(mContext),
+                mTherapies);
+        scheduler.scheduleNextAlarm(mFirstDose - DateUtils.MINUTE_IN_MILLIS);
+        mTherapies.registerListener(scheduler);
+
+        // The doses of the other therapy of the same day and name are kept.
+        mTherapies.del(mTherapies.get(0).getId());
+        scheduler.onAlarm(mFirstDose, mSecondDose);
+        assertEquals(2, scheduler.mNotified.size());
+        assertEquals(mFirstDose, (long) scheduler.mNotified.get(0));
+        assertEquals(mSecondDose, (long) scheduler.mNotified.get(1));
+    }
+}